@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.intra.ExplodedCFGNullPointerAnalysis;
+import com.ibm.wala.cfg.exc.intra.SSACFGNullPointerAnalysis;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+import com.ibm.wala.util.intset.IntSet;
+import com.ibm.wala.util.intset.IntSetUtil;
+import com.ibm.wala.util.intset.MutableIntSet;
+
+/**
+ * Runs the cheap {@link SSACFGNullPointerAnalysis} first, and only escalates to the
+ * {@link ExplodedCFGNullPointerAnalysis} where the latter may prune more edges.
+ *
+ * SSA basic blocks end at every instruction that may throw, so both analyses see the same dereferences; they
+ * differ at phis, which the exploded CFG analysis evaluates on a node of their own, per incoming edge, while the
+ * SSA CFG analysis evaluates them on the merged state at the entry of their block. Hence a method is escalated iff
+ * the SSA CFG analysis left an exceptional edge of a block whose dereferenced value is defined by a phi. Methods
+ * with fewer than sizeThreshold instructions are always analyzed on the exploded CFG, where it is cheap anyway.
+ */
+public class AdaptiveNullPointerAnalysis implements MethodNullnessAnalyzer {
+
+  public static final int DEFAULT_SIZE_THRESHOLD = 64;
+
+  private final NonNullAnalysisFactory analyses;
+
+  private final int sizeThreshold;
+
+  private final AtomicLong analyzed = new AtomicLong();
+
+  private final AtomicLong explodedBySize = new AtomicLong();
+
+  private final AtomicLong escalated = new AtomicLong();
+
+  public AdaptiveNullPointerAnalysis(NonNullAnalysisFactory analyses, int sizeThreshold) {
+    this.analyses = analyses;
+    this.sizeThreshold = sizeThreshold;
+  }
+
+  public AdaptiveNullPointerAnalysis(NonNullAnalysisFactory analyses) {
+    this(analyses, DEFAULT_SIZE_THRESHOLD);
+  }
+
+  @Override
+  public String getName() {
+    return getClass().getName() + "[sizeThreshold=" + sizeThreshold + "]";
+  }
+
+  @Override
+  public MethodNullnessResult analyze(IR ir, IProgressMonitor monitor) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    analyzed.incrementAndGet();
+    if (ir.getInstructions().length < sizeThreshold) {
+      explodedBySize.incrementAndGet();
+      return analyses.analyzeExplodedCFG(ir, monitor);
+    }
+
+    final MethodNullnessResult result = analyses.analyzeSSACFG(ir, monitor);
+    if (mayBenefitFromExplodedCFG(ir, result)) {
+      escalated.incrementAndGet();
+      return analyses.analyzeExplodedCFG(ir, monitor);
+    }
+    return result;
+  }
+
+  public static boolean mayBenefitFromExplodedCFG(IR ir, MethodNullnessResult ssaResult) {
+    final IntSet phiDefs = phiDefs(ir);
+    if (phiDefs.isEmpty()) {
+      return false;
+    }
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg = ir.getControlFlowGraph();
+    for (ISSABasicBlock bb : cfg) {
+      if (bb.getLastInstructionIndex() < 0) {
+        continue;
+      }
+      final SSAInstruction last = bb.getLastInstruction();
+      if (last == null || !phiDefs.contains(NullDereferences.dereferencedValue(last))) {
+        continue;
+      }
+      for (ISSABasicBlock succ : cfg.getExceptionalSuccessors(bb)) {
+        if (!ssaResult.isPruned(bb.getNumber(), succ.getNumber())) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static IntSet phiDefs(IR ir) {
+    final MutableIntSet defs = IntSetUtil.make();
+    for (Iterator<? extends SSAInstruction> it = ir.iteratePhis(); it.hasNext();) {
+      defs.add(it.next().getDef());
+    }
+    return defs;
+  }
+
+  public int getSizeThreshold() {
+    return sizeThreshold;
+  }
+
+  public long getAnalyzed() {
+    return analyzed.get();
+  }
+
+  /**
+   * @return the number of methods analyzed on the exploded CFG because they are smaller than the size threshold
+   */
+  public long getExplodedBySize() {
+    return explodedBySize.get();
+  }
+
+  /**
+   * @return the number of methods analyzed on the exploded CFG after the SSA CFG analysis left exceptional edges of
+   *         dereferences of phis
+   */
+  public long getEscalated() {
+    return escalated.get();
+  }
+
+  /**
+   * @return the fraction of the methods above the size threshold that were escalated to the exploded CFG
+   */
+  public double getEscalationRatio() {
+    final long large = analyzed.get() - explodedBySize.get();
+    return large == 0 ? 0.0 : (double) escalated.get() / large;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("AdaptiveNullPointerAnalysis[analyzed: %d, exploded by size (< %d instructions): %d, escalated: %d (%.1f%%)]",
+        getAnalyzed(), sizeThreshold, getExplodedBySize(), getEscalated(), 100 * getEscalationRatio());
+  }
+}
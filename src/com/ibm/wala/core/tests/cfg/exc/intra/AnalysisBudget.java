@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+
+/**
+ * Time and iteration limits for the analysis of each method, and a wall clock limit for a whole batch, enforced
+ * through the {@link IProgressMonitor}s handed to the analyses. The analyses poll
+ * {@link IProgressMonitor#isCanceled()} once per solver step and throw a {@link CancelException} once it holds,
+ * so the iteration limit bounds the number of solver steps.
+ *
+ * {@link NullPointerAnalysisDriver} falls back to {@link MethodNullnessResult#conservative(com.ibm.wala.ssa.IR)}
+ * for a method that exceeds its budget, and reports it with {@link #overrun(IMethod, Monitor)}. Instances are
+ * thread-safe.
+ */
+public class AnalysisBudget {
+
+  public static final long UNLIMITED = Long.MAX_VALUE;
+
+  public enum Limit {
+    METHOD_TIME, METHOD_ITERATIONS, TOTAL_TIME,
+    /**
+     * The monitor was canceled explicitly.
+     */
+    CANCELED
+  }
+
+  /**
+   * Cancels once a method used up its budget or the budget of the batch ran out.
+   */
+  public final class Monitor implements IProgressMonitor {
+
+    private final long start = System.nanoTime();
+
+    private long iterations = 0;
+
+    private volatile Limit exceeded;
+
+    private Monitor() {}
+
+    @Override
+    public void beginTask(String task, int totalWork) {
+    }
+
+    @Override
+    public void subTask(String subTask) {
+    }
+
+    @Override
+    public void cancel() {
+      exceeded = Limit.CANCELED;
+    }
+
+    @Override
+    public boolean isCanceled() {
+      if (exceeded != null) {
+        return true;
+      }
+      final long now = System.nanoTime();
+      if (++iterations > methodIterations) {
+        exceeded = Limit.METHOD_ITERATIONS;
+      } else if (now - start > methodNanos) {
+        exceeded = Limit.METHOD_TIME;
+      } else if (now - totalDeadline > 0) {
+        exceeded = Limit.TOTAL_TIME;
+      }
+      return exceeded != null;
+    }
+
+    @Override
+    public void done() {
+    }
+
+    @Override
+    public void worked(int units) {
+    }
+
+    @Override
+    public String getCancelMessage() {
+      return (exceeded == null) ? "not canceled" : "exceeded " + exceeded;
+    }
+
+    /**
+     * @return the limit this monitor was canceled for, or null
+     */
+    public Limit getExceededLimit() {
+      return exceeded;
+    }
+
+    public long getIterations() {
+      return iterations;
+    }
+
+    public long getElapsedNanos() {
+      return System.nanoTime() - start;
+    }
+  }
+
+  private final long methodNanos;
+
+  private final long methodIterations;
+
+  private final long totalDeadline;
+
+  private final Map<TypeReference, AtomicLong> overrunsByClass = new ConcurrentHashMap<>();
+
+  private final Map<Limit, AtomicLong> overrunsByLimit = new EnumMap<>(Limit.class);
+
+  /**
+   * Starts the budget of a batch; its total time counts from now.
+   *
+   * @param methodNanos      time limit per method, or {@link #UNLIMITED}
+   * @param methodIterations limit of solver steps per method, or {@link #UNLIMITED}
+   * @param totalNanos       time limit of the whole batch, or {@link #UNLIMITED}
+   */
+  public AnalysisBudget(long methodNanos, long methodIterations, long totalNanos) {
+    if (methodNanos <= 0 || methodIterations <= 0 || totalNanos <= 0) {
+      throw new IllegalArgumentException("Budgets must be positive");
+    }
+    this.methodNanos = methodNanos;
+    this.methodIterations = methodIterations;
+    // a deadline beyond the range of nanoTime() never expires.
+    this.totalDeadline = (totalNanos == UNLIMITED) ? System.nanoTime() + (Long.MAX_VALUE >> 1) : System.nanoTime() + totalNanos;
+    for (Limit l : Limit.values()) {
+      overrunsByLimit.put(l, new AtomicLong());
+    }
+  }
+
+  /**
+   * @return a monitor enforcing this budget for the analysis of one method, starting now
+   */
+  public Monitor start() {
+    return new Monitor();
+  }
+
+  /**
+   * @return true iff the total time of the batch is used up
+   */
+  public boolean isExhausted() {
+    return System.nanoTime() - totalDeadline > 0;
+  }
+
+  /**
+   * Counts the overrun of m, which monitor was canceled for.
+   */
+  public void overrun(IMethod m, Monitor monitor) {
+    final TypeReference clazz = m.getDeclaringClass().getReference();
+    AtomicLong count = overrunsByClass.get(clazz);
+    if (count == null) {
+      overrunsByClass.putIfAbsent(clazz, new AtomicLong());
+      count = overrunsByClass.get(clazz);
+    }
+    count.incrementAndGet();
+    overrunsByLimit.get(monitor.getExceededLimit() == null ? Limit.CANCELED : monitor.getExceededLimit()).incrementAndGet();
+  }
+
+  /**
+   * @return the number of methods that exceeded their budget, by declaring class
+   */
+  public Map<TypeReference, Long> getOverrunsByClass() {
+    final Map<TypeReference, Long> overruns = new HashMap<>();
+    for (Map.Entry<TypeReference, AtomicLong> e : overrunsByClass.entrySet()) {
+      overruns.put(e.getKey(), e.getValue().get());
+    }
+    return Collections.unmodifiableMap(overruns);
+  }
+
+  public long getOverruns(Limit limit) {
+    return overrunsByLimit.get(limit).get();
+  }
+
+  public long getNumberOfOverruns() {
+    long n = 0;
+    for (AtomicLong count : overrunsByLimit.values()) {
+      n += count.get();
+    }
+    return n;
+  }
+
+  @Override
+  public String toString() {
+    return "AnalysisBudget[overruns: " + getNumberOfOverruns() + " in " + overrunsByClass.size() + " classes, " + overrunsByLimit + "]";
+  }
+}
@@ -0,0 +1,298 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Counts and times the phases of the analysis pipeline, and keeps a histogram of the compute time per method
+ * together with the slowest methods.
+ *
+ * Phases are timed with {@link #start()} and {@link #stop(Phase, long)}; on {@link #DISABLED} both return right
+ * away without reading the clock, so instrumented code costs a field load and a branch per phase. Counters are
+ * {@link LongAdder}s and the histogram is lock free, only a method slower than the slowest methods kept so far
+ * takes a lock. With {@link #setEmitEvents(boolean)}, every method analyzed also emits a JFR event, see
+ * {@link MethodAnalysisEvent}, which uses JFR reflectively as the bundle requires no more than Java 8.
+ *
+ * Phases may nest: {@link Phase#METHOD_STATE} is part of {@link Phase#COMPUTE}. Instances are thread-safe.
+ */
+public class AnalysisMetrics {
+
+  public enum Phase {
+    /** reading the analysis scope */
+    SCOPE,
+    /** {@link com.ibm.wala.ipa.cha.ClassHierarchy#make} */
+    CLASS_HIERARCHY,
+    /** building or looking up an {@link com.ibm.wala.ssa.IR} */
+    IR,
+    /** {@link NonNullAnalysisFactory#makeNonNullParameterState(com.ibm.wala.classLoader.IMethod)} */
+    PARAMETER_STATE,
+    /** {@link com.ibm.wala.cfg.exc.intra.MethodState#throwsException} */
+    METHOD_STATE,
+    /** creating the analysis and its control flow graph */
+    CFG,
+    /** {@link com.ibm.wala.cfg.exc.ExceptionPruningAnalysis#compute} */
+    COMPUTE
+  }
+
+  /**
+   * A method and its compute time.
+   */
+  public static final class MethodTiming implements Comparable<MethodTiming> {
+
+    private final MethodReference method;
+
+    private final long nanos;
+
+    MethodTiming(MethodReference method, long nanos) {
+      this.method = method;
+      this.nanos = nanos;
+    }
+
+    public MethodReference getMethod() {
+      return method;
+    }
+
+    public long getNanos() {
+      return nanos;
+    }
+
+    @Override
+    public int compareTo(MethodTiming other) {
+      return Long.compare(nanos, other.nanos);
+    }
+
+    @Override
+    public String toString() {
+      return method.getSignature() + ": " + (nanos / 1000) + " us";
+    }
+  }
+
+  /**
+   * Collects nothing.
+   */
+  public static final AnalysisMetrics DISABLED = new AnalysisMetrics(false, 0);
+
+  public static final int DEFAULT_SLOWEST = 100;
+
+  /**
+   * Sub-buckets per power of two of the histogram, i.e. a relative error of at most 1/8.
+   */
+  private static final int SUB_BUCKET_BITS = 3;
+
+  private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  private static final boolean JFR_AVAILABLE = MethodAnalysisEvent.isAvailable();
+
+  private final boolean enabled;
+
+  private final int slowestCapacity;
+
+  private final LongAdder[] counts = new LongAdder[Phase.values().length];
+
+  private final LongAdder[] nanos = new LongAdder[Phase.values().length];
+
+  private final AtomicLongArray histogram = new AtomicLongArray(64 * SUB_BUCKETS);
+
+  private final PriorityQueue<MethodTiming> slowest = new PriorityQueue<>();
+
+  /**
+   * Compute time of the fastest method in slowest, once it is full.
+   */
+  private volatile long slowestThreshold = Long.MIN_VALUE;
+
+  private volatile boolean emitEvents = false;
+
+  public AnalysisMetrics() {
+    this(true, DEFAULT_SLOWEST);
+  }
+
+  /**
+   * @param slowest the number of slowest methods to keep
+   */
+  public AnalysisMetrics(int slowest) {
+    this(true, slowest);
+  }
+
+  private AnalysisMetrics(boolean enabled, int slowestCapacity) {
+    this.enabled = enabled;
+    this.slowestCapacity = slowestCapacity;
+    for (int i = 0; i < counts.length; i++) {
+      counts[i] = new LongAdder();
+      nanos[i] = new LongAdder();
+    }
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Emits a {@link MethodAnalysisEvent} for every method from now on, if this runs on a JVM with JFR.
+   */
+  public void setEmitEvents(boolean emitEvents) {
+    this.emitEvents = emitEvents && enabled && JFR_AVAILABLE;
+  }
+
+  public boolean isEmittingEvents() {
+    return emitEvents;
+  }
+
+  /**
+   * @return the start time of a phase, to be passed to {@link #stop(Phase, long)}
+   */
+  public long start() {
+    return enabled ? System.nanoTime() : 0L;
+  }
+
+  public void stop(Phase phase, long start) {
+    if (enabled) {
+      final int i = phase.ordinal();
+      counts[i].increment();
+      nanos[i].add(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Ends the {@link Phase#COMPUTE} phase of method, started at start, and records it as one method.
+   */
+  public void computed(MethodReference method, long start) {
+    if (!enabled) {
+      return;
+    }
+    final long time = System.nanoTime() - start;
+    final int i = Phase.COMPUTE.ordinal();
+    counts[i].increment();
+    nanos[i].add(time);
+    histogram.incrementAndGet(bucketOf(time));
+    if (time > slowestThreshold) {
+      addSlowest(new MethodTiming(method, time));
+    }
+    if (emitEvents) {
+      MethodAnalysisEvent.emit(method, time);
+    }
+  }
+
+  private synchronized void addSlowest(MethodTiming timing) {
+    if (slowest.size() < slowestCapacity) {
+      slowest.add(timing);
+    } else if (!slowest.isEmpty() && timing.nanos > slowest.peek().nanos) {
+      slowest.poll();
+      slowest.add(timing);
+    }
+    if (slowest.size() == slowestCapacity && !slowest.isEmpty()) {
+      slowestThreshold = slowest.peek().nanos;
+    }
+  }
+
+  static int bucketOf(long nanos) {
+    if (nanos < SUB_BUCKETS) {
+      return (int) Math.max(0, nanos);
+    }
+    final int magnitude = 63 - Long.numberOfLeadingZeros(nanos);
+    final int sub = (int) (nanos >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+    return (magnitude - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * @return the largest value falling into bucket
+   */
+  static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    final int magnitude = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+    final long sub = bucket % SUB_BUCKETS;
+    final long lower = (1L << magnitude) | (sub << (magnitude - SUB_BUCKET_BITS));
+    return lower + (1L << (magnitude - SUB_BUCKET_BITS)) - 1;
+  }
+
+  public long getCount(Phase phase) {
+    return counts[phase.ordinal()].sum();
+  }
+
+  public long getNanos(Phase phase) {
+    return nanos[phase.ordinal()].sum();
+  }
+
+  /**
+   * @return the number of methods recorded by {@link #computed(MethodReference, long)}
+   */
+  public long getNumberOfMethods() {
+    return getCount(Phase.COMPUTE);
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return an upper bound, within 1/8, of the compute time of the given percentile of the methods, or 0 if no
+   *         method was recorded
+   */
+  public long getComputePercentile(double percentile) {
+    long total = 0;
+    for (int i = 0; i < histogram.length(); i++) {
+      total += histogram.get(i);
+    }
+    if (total == 0) {
+      return 0;
+    }
+    final long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+    long seen = 0;
+    for (int i = 0; i < histogram.length(); i++) {
+      seen += histogram.get(i);
+      if (seen >= rank) {
+        return upperBoundOf(i);
+      }
+    }
+    return upperBoundOf(histogram.length() - 1);
+  }
+
+  /**
+   * @return the slowest methods recorded, slowest first
+   */
+  public synchronized List<MethodTiming> getSlowestMethods() {
+    final List<MethodTiming> methods = new ArrayList<>(slowest);
+    Collections.sort(methods, Collections.reverseOrder());
+    return methods;
+  }
+
+  /**
+   * @return the total time spent per phase
+   */
+  public Map<Phase, Long> getNanosByPhase() {
+    final Map<Phase, Long> byPhase = new EnumMap<>(Phase.class);
+    for (Phase p : Phase.values()) {
+      byPhase.put(p, getNanos(p));
+    }
+    return byPhase;
+  }
+
+  public void report(PrintStream out, int slowestMethods) {
+    for (Phase p : Phase.values()) {
+      out.println(String.format("%-16s %10d calls %12d us", p, getCount(p), getNanos(p) / 1000));
+    }
+    out.println(String.format("compute p50 %d us, p90 %d us, p99 %d us, max %d us", getComputePercentile(50) / 1000,
+        getComputePercentile(90) / 1000, getComputePercentile(99) / 1000, getComputePercentile(100) / 1000));
+    final List<MethodTiming> methods = getSlowestMethods();
+    for (int i = 0; i < Math.min(slowestMethods, methods.size()); i++) {
+      out.println("  " + methods.get(i));
+    }
+  }
+}
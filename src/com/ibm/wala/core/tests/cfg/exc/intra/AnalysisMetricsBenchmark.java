@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.NullProgressMonitor;
+
+/**
+ * Runs the analysis of {@link NonNullAnalysisFactory#analyzeSSACFG} over the application methods without any
+ * instrumentation, with {@link AnalysisMetrics#DISABLED}, and with metrics enabled, and prints the overhead of the
+ * latter two over the first, and the collected metrics.
+ *
+ * Usage: {@code AnalysisMetricsBenchmark [scopeFile [classPrefix [jfr]]]}; with a third argument, JFR events are
+ * emitted as well (record them with {@code -XX:StartFlightRecording}).
+ */
+public class AnalysisMetricsBenchmark {
+
+  private static final int WARMUP = 5;
+
+  private static final int ITERATIONS = 20;
+
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    final String classPrefix = args.length > 1 ? args[1] : "Lcfg/exc/intra/";
+
+    final AnalysisMetrics metrics = new AnalysisMetrics();
+    metrics.setEmitEvents(args.length > 2);
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(NonNullTestData.makeScope(scopeFile, metrics), metrics);
+    final List<IMethod> methods = new ArrayList<>();
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (m.getDeclaringClass().getName().toString().startsWith(classPrefix)) {
+        methods.add(m);
+      }
+    }
+    System.out.println("methods: " + methods.size());
+
+    final NonNullAnalysisFactory plain = new NonNullAnalysisFactory(cha);
+    final NonNullAnalysisFactory instrumented = new NonNullAnalysisFactory(plain, plain.getReturnSummaries());
+    instrumented.setMetrics(metrics);
+    // fill the IR cache, so that all runs measure the analysis only.
+    for (IMethod m : methods) {
+      plain.makeIR(m);
+    }
+
+    // alternate the runs, so that drift of the machine affects all alike.
+    long baseline = Long.MAX_VALUE;
+    long disabled = Long.MAX_VALUE;
+    long enabled = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      baseline = Math.min(baseline, Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+        for (IMethod m : methods) {
+          analyzeUninstrumented(plain, m);
+        }
+      }));
+      disabled = Math.min(disabled, Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+        for (IMethod m : methods) {
+          plain.analyzeSSACFG(plain.makeIR(m), new NullProgressMonitor());
+        }
+      }));
+      enabled = Math.min(enabled, Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+        for (IMethod m : methods) {
+          instrumented.analyzeSSACFG(instrumented.makeIR(m), new NullProgressMonitor());
+        }
+      }));
+    }
+    System.out.println(String.format("baseline: %d us, disabled: %d us (%+.2f%%), enabled: %d us (%+.2f%%)",
+        baseline / 1000, disabled / 1000, overhead(disabled, baseline), enabled / 1000, overhead(enabled, baseline)));
+    metrics.report(System.out, 10);
+  }
+
+  /**
+   * The work of {@link NonNullAnalysisFactory#analyzeSSACFG} and {@link NonNullAnalysisFactory#makeIR}, without
+   * any of their calls to {@link AnalysisMetrics}.
+   */
+  private static MethodNullnessResult analyzeUninstrumented(NonNullAnalysisFactory analyses, IMethod m) throws Exception {
+    final IR ir = analyses.getIRCache().getIR(m);
+    final ParameterState parameterState = analyses.computeNonNullParameterState(m);
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis = new FieldAwareNullPointerAnalysis(ir,
+        analyses.createNonNullRespectingSSACFGAnalysis(ir, parameterState, analyses.getReturnSummaries().asMethodState()),
+        analyses.getFieldNullness());
+    analysis.compute(new NullProgressMonitor());
+    return MethodNullnessResult.of(ir, analysis, parameterState);
+  }
+
+  private static double overhead(long nanos, long baseline) {
+    return 100.0 * (nanos - baseline) / Math.max(1, baseline);
+  }
+}
@@ -0,0 +1,66 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import com.ibm.wala.classLoader.IBytecodeMethod;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.shrikeBT.IInstruction;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+
+/**
+ * Minimal timing harness shared by the benchmarks of this package.
+ */
+public class Benchmarks {
+
+  public interface Body {
+    void run() throws Exception;
+  }
+
+  private Benchmarks() {}
+
+  /**
+   * Runs body warmup times, then measures iterations runs of it.
+   *
+   * @return the average wall time of one run, in nanoseconds
+   */
+  public static long measure(int warmup, int iterations, Body body) throws Exception {
+    for (int i = 0; i < warmup; i++) {
+      body.run();
+    }
+    final long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      body.run();
+    }
+    return (System.nanoTime() - start) / iterations;
+  }
+
+  /**
+   * @return the approximate size of the bytecode of m, in bytes, or 0 if m has no bytecode
+   */
+  public static int bytecodeSize(IMethod m) throws InvalidClassFileException {
+    if (!(m instanceof IBytecodeMethod)) {
+      return 0;
+    }
+    final IBytecodeMethod bm = (IBytecodeMethod) m;
+    final IInstruction[] instructions = bm.getInstructions();
+    if (instructions == null || instructions.length == 0) {
+      return 0;
+    }
+    // the last instruction of a method is a return, throw or goto, which takes one to five bytes.
+    return bm.getBytecodeIndex(instructions.length - 1) + 1;
+  }
+
+  public static void report(String name, long nanos, int methods, long bytecodeBytes) {
+    final double perMethod = (double) nanos / Math.max(1, methods);
+    final double perMB = (double) nanos / 1e6 / Math.max(1e-9, bytecodeBytes / (1024.0 * 1024.0));
+    System.out.println(String.format("%-40s %12.0f ns/method %12.1f ms/MB", name, perMethod, perMB));
+  }
+}
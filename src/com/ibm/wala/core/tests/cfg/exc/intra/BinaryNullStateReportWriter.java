@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Writes {@link NullStateReport}s in a compact, length-prefixed binary format that {@link NullStateReportReader}
+ * can access by method:
+ *
+ * <pre>
+ * int MAGIC, int VERSION
+ * per method: int length, then length bytes:
+ *   UTF signature, int maxValueNumber,
+ *   int #blocks, then per block: int blockNumber, byte[(maxValueNumber + 4) / 4] states, 2 bits each
+ *   int #safeDereferences, then per dereference: int instructionIndex
+ * int #methods, then per method: UTF signature, long offset of its length
+ * long offset of #methods, int MAGIC
+ * </pre>
+ *
+ * All numbers are big-endian. The index is spilled to a temporary file while writing, and appended on {@link #close()}.
+ */
+public class BinaryNullStateReportWriter implements NullStateReportWriter {
+
+  static final int MAGIC = 0x4E535250;
+
+  static final int VERSION = 2;
+
+  private final DataOutputStream out;
+
+  private final File indexFile;
+
+  private final DataOutputStream index;
+
+  private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+  private final DataOutputStream recordOut = new DataOutputStream(record);
+
+  private long position;
+
+  private int numberOfMethods = 0;
+
+  public BinaryNullStateReportWriter(File file, int bufferSize) throws IOException {
+    this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), bufferSize));
+    this.indexFile = File.createTempFile(file.getName(), ".index", file.getAbsoluteFile().getParentFile());
+    this.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), bufferSize));
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    position = 8;
+  }
+
+  public BinaryNullStateReportWriter(File file) throws IOException {
+    this(file, DEFAULT_BUFFER_SIZE);
+  }
+
+  @Override
+  public synchronized void write(NullStateReport report) throws IOException {
+    record.reset();
+    final String signature = report.getMethod().getSignature();
+    final int maxValueNumber = report.getMaxValueNumber();
+    recordOut.writeUTF(signature);
+    recordOut.writeInt(maxValueNumber);
+
+    recordOut.writeInt(report.getNumberOfBlocks());
+    final byte[] packed = new byte[MethodNullnessResultCodec.packedLength(maxValueNumber)];
+    for (int i = 0; i < report.getNumberOfBlocks(); i++) {
+      recordOut.writeInt(report.getBlock(i));
+      Arrays.fill(packed, (byte) 0);
+      for (int v = 1; v <= maxValueNumber; v++) {
+        MethodNullnessResultCodec.pack(packed, v, report.getState(i, v));
+      }
+      recordOut.write(packed);
+    }
+
+    recordOut.writeInt(report.getNumberOfSafeDereferences());
+    for (int i = 0; i < report.getNumberOfSafeDereferences(); i++) {
+      recordOut.writeInt(report.getSafeDereference(i));
+    }
+    recordOut.flush();
+
+    index.writeUTF(signature);
+    index.writeLong(position);
+    numberOfMethods++;
+
+    out.writeInt(record.size());
+    record.writeTo(out);
+    position += 4 + record.size();
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      index.close();
+      out.writeInt(numberOfMethods);
+      final byte[] buffer = new byte[8192];
+      try (InputStream in = new BufferedInputStream(new FileInputStream(indexFile))) {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+          out.write(buffer, 0, read);
+        }
+      }
+      out.writeLong(position);
+      out.writeInt(MAGIC);
+      out.close();
+    } finally {
+      indexFile.delete();
+    }
+  }
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.ibm.wala.classLoader.IBytecodeMethod;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.shrikeBT.IInstruction;
+import com.ibm.wala.shrikeBT.IInvokeInstruction;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Reads the declared targets of the invoke instructions of a method directly from its bytecode, without
+ * building its {@link com.ibm.wala.ssa.IR}.
+ */
+public class DeclaredCallees {
+
+  private DeclaredCallees() {}
+
+  public static MethodReference target(IInvokeInstruction invoke) {
+    return MethodReference.findOrCreate(ClassLoaderReference.Application,
+        invoke.getClassType(), invoke.getMethodName(), invoke.getMethodSignature());
+  }
+
+  /**
+   * @return the declared targets of all invoke instructions of m, in bytecode order
+   */
+  public static List<MethodReference> of(IMethod m) throws InvalidClassFileException {
+    if (!(m instanceof IBytecodeMethod)) {
+      return Collections.emptyList();
+    }
+    final IInstruction[] instructions = ((IBytecodeMethod) m).getInstructions();
+    if (instructions == null) {
+      return Collections.emptyList();
+    }
+    final List<MethodReference> callees = new ArrayList<>();
+    for (IInstruction instruction : instructions) {
+      if (instruction instanceof IInvokeInstruction) {
+        callees.add(target((IInvokeInstruction) instruction));
+      }
+    }
+    return callees;
+  }
+}
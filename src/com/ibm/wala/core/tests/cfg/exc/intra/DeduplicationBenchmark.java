@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+
+/**
+ * Compares a batch run of {@link NullPointerAnalysisDriver} with and without a {@link MethodDeduplicator}, and
+ * reports the deduplication ratio and the analysis time saved.
+ *
+ * Usage: {@code DeduplicationBenchmark [scopeFile [classPrefix]]}. Without arguments, the {@code cfg.exc.intra}
+ * subjects of {@link NonNullTestData#NONNULL_TESTDATA} are measured; a corpus resembling generated code can be
+ * produced with the distinctBodies argument of {@link SyntheticCorpusGenerator}.
+ */
+public class DeduplicationBenchmark {
+
+  private static final int WARMUP = 3;
+
+  private static final int ITERATIONS = 10;
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    final String classPrefix = args.length > 1 ? args[1] : "Lcfg/exc/intra/";
+
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(NonNullTestData.makeScope(scopeFile));
+    final List<IMethod> methods = new ArrayList<>();
+    long bytecode = 0;
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (m.getDeclaringClass().getName().toString().startsWith(classPrefix)) {
+        methods.add(m);
+        bytecode += Benchmarks.bytecodeSize(m);
+      }
+    }
+    System.out.println("methods: " + methods.size() + ", bytecode: " + bytecode + " bytes");
+
+    final NonNullAnalysisFactory analyses = new NonNullAnalysisFactory(cha);
+    final NullPointerAnalysisDriver.MethodResultSink ignore = result -> {};
+    final NullPointerAnalysisDriver plain = new NullPointerAnalysisDriver(analyses);
+    final long plainTime = Benchmarks.measure(WARMUP, ITERATIONS, () -> plain.analyze(methods, ignore));
+
+    final NullPointerAnalysisDriver deduplicating = new NullPointerAnalysisDriver(analyses);
+    final MethodDeduplicator[] last = new MethodDeduplicator[1];
+    final long deduplicatingTime = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      // a fresh deduplicator per run, so every run analyzes each fingerprint once.
+      last[0] = new MethodDeduplicator();
+      deduplicating.setDeduplicator(last[0]);
+      deduplicating.analyze(methods, ignore);
+    });
+
+    Benchmarks.report("driver", plainTime, methods.size(), bytecode);
+    Benchmarks.report("driver, deduplicating", deduplicatingTime, methods.size(), bytecode);
+    System.out.println("fingerprints: " + last[0].size() + ", " + last[0]);
+    System.out.println(String.format("analysis: %d us, saved: %d us, wall time saved: %.1f%%", last[0].getAnalysisNanos() / 1000,
+        last[0].getSavedNanos() / 1000, 100.0 * (plainTime - deduplicatingTime) / Math.max(1, plainTime)));
+  }
+}
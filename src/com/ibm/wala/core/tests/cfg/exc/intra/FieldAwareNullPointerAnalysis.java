@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.intra.NullPointerState;
+import com.ibm.wala.ipa.cfg.EdgeFilter;
+import com.ibm.wala.ipa.cfg.PrunedCFG;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAArrayLengthInstruction;
+import com.ibm.wala.ssa.SSAFieldAccessInstruction;
+import com.ibm.wala.ssa.SSAGetInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+
+/**
+ * Refines an intra-procedural analysis on the {@link ISSABasicBlock}s of an {@link IR} with a {@link FieldNullness}
+ * oracle, which the underlying analysis has no way to consult at {@link SSAGetInstruction}s.
+ *
+ * After the underlying analysis is done, a value is known to be non-null if it was loaded from a non-null field, or
+ * is a phi of such values only. The exceptional edges of blocks that end in a field access or array length on such
+ * a value are then pruned, since those instructions throw nothing but a {@link NullPointerException}.
+ *
+ * The oracle is not part of the transfer functions of the underlying analysis, so it only prunes, and does not refine
+ * states: {@link #getState(ISSABasicBlock)} returns the states of the underlying analysis, in which a value loaded
+ * from a non-null field stays {@link com.ibm.wala.cfg.exc.intra.NullPointerState.State#UNKNOWN}, and nothing the
+ * underlying analysis derives from such a value (such as the branches of a comparison with null) takes the oracle
+ * into account. See {@link #isNonNullByField(int)} for the values refined here. Feeding the oracle into the dataflow
+ * would need a {@link NullPointerSolver} with an edge effect for field loads, whose states WALA's
+ * {@link ExceptionPruningAnalysis#getState} cannot return.
+ */
+public class FieldAwareNullPointerAnalysis implements ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> {
+
+  private final IR ir;
+
+  private final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> base;
+
+  private final FieldNullness fields;
+
+  private BitSet nonNull;
+
+  private ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg;
+
+  public FieldAwareNullPointerAnalysis(IR ir, ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> base, FieldNullness fields) {
+    this.ir = ir;
+    this.base = base;
+    this.fields = fields;
+  }
+
+  @Override
+  public int compute(IProgressMonitor progress) throws UnsoundGraphException, CancelException {
+    int removed = base.compute(progress);
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> baseCFG = base.getCFG();
+    nonNull = nonNullValues();
+
+    final Set<ISSABasicBlock> safe = new HashSet<>();
+    for (ISSABasicBlock bb : baseCFG) {
+      if (bb.isEntryBlock() || bb.isExitBlock() || bb.getLastInstructionIndex() < 0) {
+        continue;
+      }
+      final List<ISSABasicBlock> exceptional = baseCFG.getExceptionalSuccessors(bb);
+      final SSAInstruction last = bb.getLastInstruction();
+      if (!exceptional.isEmpty() && throwsOnlyOnNull(last) && nonNull.get(NullDereferences.dereferencedValue(last))) {
+        safe.add(bb);
+        removed += exceptional.size();
+      }
+    }
+
+    if (safe.isEmpty()) {
+      cfg = baseCFG;
+    } else {
+      cfg = PrunedCFG.make(baseCFG, new EdgeFilter<ISSABasicBlock>() {
+        @Override
+        public boolean hasNormalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+          return baseCFG.getNormalSuccessors(src).contains(dst);
+        }
+
+        @Override
+        public boolean hasExceptionalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+          return !safe.contains(src) && baseCFG.getExceptionalSuccessors(src).contains(dst);
+        }
+      });
+    }
+    return removed;
+  }
+
+  private static boolean throwsOnlyOnNull(SSAInstruction instruction) {
+    if (instruction instanceof SSAFieldAccessInstruction) {
+      return !((SSAFieldAccessInstruction) instruction).isStatic();
+    }
+    return instruction instanceof SSAArrayLengthInstruction;
+  }
+
+  private BitSet nonNullValues() {
+    final BitSet result = new BitSet();
+    for (SSAInstruction instruction : ir.getInstructions()) {
+      if (instruction instanceof SSAGetInstruction) {
+        final SSAGetInstruction get = (SSAGetInstruction) instruction;
+        if (fields.isNonNull(get.getDeclaredField())) {
+          result.set(get.getDef());
+        }
+      }
+    }
+    if (result.isEmpty()) {
+      return result;
+    }
+
+    // greatest fixpoint: a cycle of phis is non-null if all values entering it are.
+    final List<SSAPhiInstruction> phis = new ArrayList<>();
+    final BitSet candidates = new BitSet();
+    for (Iterator<? extends SSAInstruction> it = ir.iteratePhis(); it.hasNext();) {
+      final SSAPhiInstruction phi = (SSAPhiInstruction) it.next();
+      phis.add(phi);
+      candidates.set(phi.getDef());
+    }
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (SSAPhiInstruction phi : phis) {
+        if (!candidates.get(phi.getDef())) {
+          continue;
+        }
+        for (int i = 0; i < phi.getNumberOfUses(); i++) {
+          final int use = phi.getUse(i);
+          if (use < 0 || !(result.get(use) || candidates.get(use))) {
+            candidates.clear(phi.getDef());
+            changed = true;
+            break;
+          }
+        }
+      }
+    }
+    result.or(candidates);
+    return result;
+  }
+
+  /**
+   * @return true iff valueNumber is known to be non-null because of the fields it was loaded from
+   */
+  public boolean isNonNullByField(int valueNumber) {
+    return valueNumber >= 0 && nonNull.get(valueNumber);
+  }
+
+  @Override
+  public ControlFlowGraph<SSAInstruction, ISSABasicBlock> getCFG() {
+    return cfg;
+  }
+
+  @Override
+  public NullPointerState getState(ISSABasicBlock bb) {
+    return base.getState(bb);
+  }
+
+  public boolean hasExceptions() {
+    for (ISSABasicBlock bb : cfg) {
+      if (!cfg.getExceptionalSuccessors(bb).isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
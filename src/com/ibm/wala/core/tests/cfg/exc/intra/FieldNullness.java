@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.wala.classLoader.FieldImpl;
+import com.ibm.wala.classLoader.IBytecodeMethod;
+import com.ibm.wala.classLoader.IField;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeBT.IGetInstruction;
+import com.ibm.wala.shrikeBT.IInstruction;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.shrikeCT.TypeAnnotationsReader.TargetType;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.annotations.TypeAnnotation;
+
+/**
+ * Caches, per loaded {@link FieldReference}, whether the resolved field never holds null: either because its type
+ * is annotated {@code @NonNull}, or because {@link NonNullByDefaultScopeResolver#FIELD} is among the defaults of
+ * its declaring class, and its type is not annotated {@code @Nullable}.
+ *
+ * As in Eclipse, {@code @NonNullByDefault(FIELD)} covers the fields declared in its scope, not the fields read there.
+ * Instances are thread-safe and are meant to be shared for the lifetime of the {@link IClassHierarchy}.
+ */
+public class FieldNullness {
+
+  private final IClassHierarchy cha;
+
+  private final NonNullByDefaultScopeResolver scopeResolver;
+
+  private final NullAnnotationIndex index;
+
+  private final Map<FieldReference, Boolean> fields = new ConcurrentHashMap<>();
+
+  public FieldNullness(IClassHierarchy cha, NonNullByDefaultScopeResolver scopeResolver, NullAnnotationIndex index) {
+    this.cha = cha;
+    this.scopeResolver = scopeResolver;
+    this.index = index;
+  }
+
+  public boolean isNonNull(FieldReference fref) {
+    final Boolean cached = fields.get(fref);
+    if (cached != null) {
+      return cached;
+    }
+    final IField f = cha.resolveField(fref);
+    final boolean nonNull;
+    if (f == null) {
+      nonNull = false;
+    } else if (index != null && index.containsClass(f.getDeclaringClass())) {
+      nonNull = index.isNonNullField(f.getReference());
+    } else {
+      nonNull = isNonNull(f, scopeResolver);
+    }
+    fields.putIfAbsent(fref, nonNull);
+    return nonNull;
+  }
+
+  /**
+   * Decodes the annotations of f and the defaults of its declaring class.
+   */
+  public static boolean isNonNull(IField f, NonNullByDefaultScopeResolver scopeResolver) {
+    if (!(f instanceof FieldImpl)) {
+      return false;
+    }
+    final byte annotation = annotationOf((FieldImpl) f, scopeResolver.getVocabulary());
+    if (annotation != NullAnnotationIndex.UNANNOTATED) {
+      return annotation == NullAnnotationIndex.NONNULL;
+    }
+    try {
+      return (scopeResolver.defaultsFor(f.getDeclaringClass()) & NonNullByDefaultScopeResolver.FIELD) != 0;
+    } catch (InvalidClassFileException e) {
+      return false;
+    }
+  }
+
+  private static byte annotationOf(FieldImpl f, NullnessVocabulary vocabulary) {
+    if (f.getTypeAnnotations() != null) {
+      for (TypeAnnotation ta : f.getTypeAnnotations()) {
+        if (!ta.getTargetType().equals(TargetType.FIELD)) {
+          continue;
+        }
+        final byte kind = vocabulary.kindOf(ta.getAnnotation().getType());
+        if (kind != NullAnnotationIndex.UNANNOTATED) {
+          return kind;
+        }
+      }
+    }
+    return vocabulary.readsDeclarationAnnotations() ? vocabulary.kindOf(f.getAnnotations()) : NullAnnotationIndex.UNANNOTATED;
+  }
+
+  public static FieldReference target(IGetInstruction get) {
+    return FieldReference.findOrCreate(ClassLoaderReference.Application, get.getClassType(), get.getFieldName(), get.getFieldType());
+  }
+
+  /**
+   * @return the declared fields of all get instructions of m, in bytecode order
+   */
+  public static List<FieldReference> loadedBy(IMethod m) throws InvalidClassFileException {
+    if (!(m instanceof IBytecodeMethod)) {
+      return Collections.emptyList();
+    }
+    final IInstruction[] instructions = ((IBytecodeMethod) m).getInstructions();
+    if (instructions == null) {
+      return Collections.emptyList();
+    }
+    final List<FieldReference> loaded = new ArrayList<>();
+    for (IInstruction instruction : instructions) {
+      if (instruction instanceof IGetInstruction) {
+        loaded.add(target((IGetInstruction) instruction));
+      }
+    }
+    return loaded;
+  }
+
+  public int size() {
+    return fields.size();
+  }
+}
@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.impl.Everywhere;
+import com.ibm.wala.ssa.DefaultIRFactory;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.SSAOptions;
+
+/**
+ * A bounded cache of the {@link IR}s of methods, in the default context and with default {@link SSAOptions}, so
+ * that all analyses of a method share one IR instead of building their own.
+ *
+ * Entries are evicted in least recently used order once their estimated size exceeds the capacity. The IRs are
+ * softly referenced, so the garbage collector may drop them earlier under memory pressure; such entries are removed,
+ * and count as evictions, on the next lookup, so that they do not take the room of live ones. IRs are built outside the lock, so two threads missing the same method at
+ * once may both build it, and the first one stored wins.
+ */
+public class IRCache {
+
+  /**
+   * The default capacity in (estimated) bytes.
+   */
+  public static final long DEFAULT_CAPACITY = 64L << 20;
+
+  private static final int BYTES_PER_INSTRUCTION = 64;
+
+  private static final int BYTES_PER_BLOCK = 128;
+
+  private static final int BYTES_PER_VALUE = 16;
+
+  private static final class Entry extends SoftReference<IR> {
+    final IMethod method;
+    final long size;
+
+    Entry(IMethod method, IR ir, long size, ReferenceQueue<IR> queue) {
+      super(ir, queue);
+      this.method = method;
+      this.size = size;
+    }
+  }
+
+  private final DefaultIRFactory irFactory = new DefaultIRFactory();
+
+  private final SSAOptions options = SSAOptions.defaultOptions();
+
+  private final long capacity;
+
+  private final LinkedHashMap<IMethod, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  /**
+   * the entries whose IRs the garbage collector dropped
+   */
+  private final ReferenceQueue<IR> cleared = new ReferenceQueue<>();
+
+  private long size = 0;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  public IRCache() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity the estimated number of bytes of IRs to keep, 0 to disable caching
+   */
+  public IRCache(long capacity) {
+    if (capacity < 0) {
+      throw new IllegalArgumentException("negative capacity: " + capacity);
+    }
+    this.capacity = capacity;
+  }
+
+  /**
+   * @return the IR of m, built only if it is not cached
+   */
+  public IR getIR(IMethod m) {
+    synchronized (entries) {
+      removeCleared();
+      final Entry e = entries.get(m);
+      if (e != null) {
+        final IR ir = e.get();
+        if (ir != null) {
+          hits.incrementAndGet();
+          return ir;
+        }
+        remove(m, e);
+      }
+    }
+    misses.incrementAndGet();
+    final IR ir = irFactory.makeIR(m, Everywhere.EVERYWHERE, options);
+    final long irSize = sizeOf(ir);
+    if (irSize > capacity) {
+      return ir;
+    }
+    synchronized (entries) {
+      removeCleared();
+      final Entry e = entries.get(m);
+      final IR existing = (e == null) ? null : e.get();
+      if (existing != null) {
+        return existing;
+      }
+      if (e != null) {
+        remove(m, e);
+      }
+      entries.put(m, new Entry(m, ir, irSize, cleared));
+      size += irSize;
+      final Iterator<Map.Entry<IMethod, Entry>> lru = entries.entrySet().iterator();
+      while (size > capacity) {
+        final Entry eldest = lru.next().getValue();
+        lru.remove();
+        size -= eldest.size;
+        evictions.incrementAndGet();
+      }
+    }
+    return ir;
+  }
+
+  /**
+   * Removes the entries whose IRs have been dropped since the last call. Must hold the lock of entries.
+   */
+  private void removeCleared() {
+    for (Reference<? extends IR> r = cleared.poll(); r != null; r = cleared.poll()) {
+      final Entry e = (Entry) r;
+      // the entry may have been evicted or replaced already; a get would count as an access.
+      if (entries.remove(e.method, e)) {
+        size -= e.size;
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private void remove(IMethod m, Entry e) {
+    entries.remove(m);
+    size -= e.size;
+    evictions.incrementAndGet();
+  }
+
+  /**
+   * Drops all cached IRs, without counting them as evictions.
+   */
+  public void clear() {
+    synchronized (entries) {
+      entries.clear();
+      size = 0;
+    }
+  }
+
+  /**
+   * @return an estimate of the number of bytes retained by ir
+   */
+  public static long sizeOf(IR ir) {
+    return (long) ir.getInstructions().length * BYTES_PER_INSTRUCTION
+        + (long) ir.getControlFlowGraph().getNumberOfNodes() * BYTES_PER_BLOCK
+        + (long) ir.getSymbolTable().getMaxValueNumber() * BYTES_PER_VALUE;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return the estimated number of bytes of the cached IRs
+   */
+  public long getSize() {
+    synchronized (entries) {
+      return size;
+    }
+  }
+
+  public int getNumberOfEntries() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  @Override
+  public String toString() {
+    return "IRCache[entries: " + getNumberOfEntries() + ", size: " + (getSize() >> 10) + "/" + (capacity >> 10) + " KiB, hits: "
+        + getHits() + ", misses: " + getMisses() + ", evictions: " + getEvictions() + "]";
+  }
+}
@@ -0,0 +1,392 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IClassLoader;
+import com.ibm.wala.classLoader.IField;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.core.tests.cfg.exc.intra.NullPointerAnalysisDriver.MethodResultSink;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Keeps the results of all application methods up to date while the class files in a binary directory change.
+ *
+ * On {@link #update(MethodResultSink)}, only the affected methods are re-analyzed:
+ * <ul>
+ * <li>all methods of changed or added classes, and of the inner classes nested in them,</li>
+ * <li>all methods of a package whose {@code package-info} changed,</li>
+ * <li>all callers of a re-analyzed method whose {@code @NonNull} return summary changed,</li>
+ * <li>all callers of a method that was removed, or whose signature changed,</li>
+ * <li>all readers of a field of a re-analyzed class whose {@link FieldNullness} changed.</li>
+ * </ul>
+ *
+ * WALA cannot replace classes in an existing {@link ClassHierarchy}, so a change still builds a new hierarchy.
+ * Only its application loader reads class files again though: the primordial and extension loaders of the first
+ * hierarchy are reused, as the library does not change while watching the binary directory.
+ */
+public class IncrementalNullPointerAnalysis {
+
+  /**
+   * Creates a new application loader for every hierarchy, and all other loaders only once.
+   */
+  private static final class ApplicationReloadingFactory extends ClassLoaderFactoryImpl {
+
+    private IClassHierarchy applicationHierarchy;
+
+    private IClassLoader application;
+
+    ApplicationReloadingFactory(AnalysisScope scope) {
+      super(scope.getExclusions());
+    }
+
+    @Override
+    public IClassLoader getLoader(ClassLoaderReference classLoaderReference, IClassHierarchy cha, AnalysisScope scope)
+        throws IOException {
+      if (!classLoaderReference.equals(ClassLoaderReference.Application)) {
+        return super.getLoader(classLoaderReference, cha, scope);
+      }
+      if (cha != applicationHierarchy) {
+        final IClassLoader parent = getLoader(classLoaderReference.getParent(), cha, scope);
+        application = makeNewClassLoader(classLoaderReference, cha, parent, scope);
+        applicationHierarchy = cha;
+      }
+      return application;
+    }
+  }
+
+  private static final String CLASS_SUFFIX = ".class";
+
+  private static final String PACKAGE_INFO = "package-info";
+
+  private final File binaryDir;
+
+  private final AnalysisScope scope;
+
+  private final ApplicationReloadingFactory factory;
+
+  private Map<String, Long> stamps = new HashMap<>();
+
+  private NonNullAnalysisFactory analyses;
+
+  private final Map<MethodReference, MethodNullnessResult> results = new ConcurrentHashMap<>();
+
+  private final Map<MethodReference, Set<MethodReference>> callers = new HashMap<>();
+
+  private final Map<MethodReference, Collection<MethodReference>> callees = new HashMap<>();
+
+  private final Map<FieldReference, Set<MethodReference>> readers = new HashMap<>();
+
+  private final Map<MethodReference, Collection<FieldReference>> reads = new HashMap<>();
+
+  /**
+   * @param scope an analysis scope whose application loader reads binaryDir
+   */
+  public IncrementalNullPointerAnalysis(File binaryDir, AnalysisScope scope) {
+    this.binaryDir = binaryDir;
+    this.scope = scope;
+    this.factory = new ApplicationReloadingFactory(scope);
+  }
+
+  /**
+   * Analyzes all application methods.
+   */
+  public void initialize(MethodResultSink sink) throws IOException, ClassHierarchyException, InvalidClassFileException {
+    stamps = scan();
+    analyses = new NonNullAnalysisFactory(ClassHierarchy.make(scope, factory));
+    final List<IMethod> methods = NullPointerAnalysisDriver.applicationMethods(analyses.getClassHierarchy());
+    reanalyze(methods, sink);
+  }
+
+  /**
+   * Polls the binary directory every pollMillis milliseconds, and updates the results on changes, until the
+   * current thread is interrupted.
+   */
+  public void watch(long pollMillis, MethodResultSink sink) throws IOException, ClassHierarchyException, InvalidClassFileException {
+    while (!Thread.currentThread().isInterrupted()) {
+      update(sink);
+      try {
+        Thread.sleep(pollMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Re-analyzes the methods affected by the class files changed since the last update.
+   *
+   * @return the re-analyzed methods
+   */
+  public Set<MethodReference> update(MethodResultSink sink) throws IOException, ClassHierarchyException, InvalidClassFileException {
+    final Map<String, Long> current = scan();
+    final Set<String> changed = new HashSet<>();
+    for (Map.Entry<String, Long> e : current.entrySet()) {
+      if (!e.getValue().equals(stamps.get(e.getKey()))) {
+        changed.add(e.getKey());
+      }
+    }
+    final Set<String> removed = new HashSet<>(stamps.keySet());
+    removed.removeAll(current.keySet());
+    stamps = current;
+    if (changed.isEmpty() && removed.isEmpty()) {
+      return Collections.emptySet();
+    }
+
+    final Set<String> changedPackages = new HashSet<>();
+    for (String name : changed) {
+      if (name.endsWith("/" + PACKAGE_INFO)) {
+        changedPackages.add(packageOf(name));
+      }
+    }
+    for (String name : removed) {
+      if (name.endsWith("/" + PACKAGE_INFO)) {
+        changedPackages.add(packageOf(name));
+      }
+    }
+
+    final NonNullAnalysisFactory old = analyses;
+    final Map<MethodReference, Boolean> oldSummaries = new HashMap<>();
+    final Map<FieldReference, Boolean> oldFields = new HashMap<>();
+    final List<IMethod> oldAffected = affectedMethods(old.getClassHierarchy(), changed, removed, changedPackages);
+    for (IField f : declaredFields(oldAffected)) {
+      oldFields.put(f.getReference(), old.getFieldNullness().isNonNull(f.getReference()));
+    }
+    for (IMethod m : oldAffected) {
+      oldSummaries.put(m.getReference(), old.getReturnSummaries().returnsNonNull(m.getReference()));
+      forget(m.getReference());
+    }
+
+    analyses = new NonNullAnalysisFactory(ClassHierarchy.make(scope, factory));
+    final IClassHierarchy cha = analyses.getClassHierarchy();
+    final Set<IMethod> affected = new HashSet<>(affectedMethods(cha, changed, removed, changedPackages));
+    final Set<MethodReference> remaining = new HashSet<>();
+    for (IMethod m : affected) {
+      remaining.add(m.getReference());
+    }
+    final Set<IField> changedFields = declaredFields(new ArrayList<>(affected));
+    for (IMethod m : new ArrayList<>(affected)) {
+      final Boolean before = oldSummaries.get(m.getReference());
+      final boolean after = analyses.getReturnSummaries().returnsNonNull(m.getReference());
+      if (before == null || before != after) {
+        for (MethodReference caller : callers.getOrDefault(m.getReference(), Collections.emptySet())) {
+          final IMethod c = cha.resolveMethod(caller);
+          if (c != null) {
+            affected.add(c);
+          }
+        }
+      }
+    }
+
+    for (IField f : changedFields) {
+      final Boolean before = oldFields.get(f.getReference());
+      if (before == null || before != analyses.getFieldNullness().isNonNull(f.getReference())) {
+        for (MethodReference reader : readers.getOrDefault(f.getReference(), Collections.emptySet())) {
+          final IMethod r = cha.resolveMethod(reader);
+          if (r != null) {
+            affected.add(r);
+          }
+        }
+      }
+    }
+
+    for (MethodReference gone : oldSummaries.keySet()) {
+      if (!remaining.contains(gone)) {
+        // the callers of a removed method, or of the old signature of a changed one, now call something else.
+        for (MethodReference caller : callers.getOrDefault(gone, Collections.emptySet())) {
+          final IMethod c = cha.resolveMethod(caller);
+          if (c != null) {
+            affected.add(c);
+          }
+        }
+        callers.remove(gone);
+      }
+    }
+
+    reanalyze(new ArrayList<>(affected), sink);
+    final Set<MethodReference> reanalyzed = new HashSet<>();
+    for (IMethod m : affected) {
+      reanalyzed.add(m.getReference());
+    }
+    return reanalyzed;
+  }
+
+  public MethodNullnessResult getResult(MethodReference m) {
+    return results.get(m);
+  }
+
+  public IClassHierarchy getClassHierarchy() {
+    return analyses.getClassHierarchy();
+  }
+
+  private void reanalyze(List<IMethod> methods, final MethodResultSink sink) throws InvalidClassFileException {
+    for (IMethod m : methods) {
+      forget(m.getReference());
+      index(m);
+    }
+    new NullPointerAnalysisDriver(analyses).analyze(methods, new MethodResultSink() {
+      @Override
+      public void analyzed(MethodNullnessResult result) {
+        results.put(result.getMethod(), result);
+        sink.analyzed(result);
+      }
+
+      @Override
+      public void failed(IMethod m, Exception e) {
+        sink.failed(m, e);
+      }
+    });
+  }
+
+  private void index(IMethod m) throws InvalidClassFileException {
+    final IClassHierarchy cha = analyses.getClassHierarchy();
+    final Set<MethodReference> targets = new HashSet<>();
+    for (MethodReference declared : DeclaredCallees.of(m)) {
+      final IMethod target = cha.resolveMethod(declared);
+      if (target != null) {
+        targets.add(target.getReference());
+      }
+    }
+    callees.put(m.getReference(), targets);
+    for (MethodReference target : targets) {
+      callers.computeIfAbsent(target, t -> new HashSet<>()).add(m.getReference());
+    }
+
+    final Set<FieldReference> fields = new HashSet<>();
+    for (FieldReference declared : FieldNullness.loadedBy(m)) {
+      final IField field = cha.resolveField(declared);
+      if (field != null) {
+        fields.add(field.getReference());
+      }
+    }
+    reads.put(m.getReference(), fields);
+    for (FieldReference field : fields) {
+      readers.computeIfAbsent(field, f -> new HashSet<>()).add(m.getReference());
+    }
+  }
+
+  private static Set<IField> declaredFields(List<IMethod> methods) {
+    final Set<IClass> classes = new HashSet<>();
+    for (IMethod m : methods) {
+      classes.add(m.getDeclaringClass());
+    }
+    final Set<IField> fields = new HashSet<>();
+    for (IClass c : classes) {
+      fields.addAll(c.getDeclaredInstanceFields());
+      fields.addAll(c.getDeclaredStaticFields());
+    }
+    return fields;
+  }
+
+  private void forget(MethodReference m) {
+    results.remove(m);
+    final Collection<MethodReference> targets = callees.remove(m);
+    if (targets != null) {
+      for (MethodReference target : targets) {
+        final Set<MethodReference> cs = callers.get(target);
+        if (cs != null) {
+          cs.remove(m);
+        }
+      }
+    }
+    final Collection<FieldReference> fields = reads.remove(m);
+    if (fields != null) {
+      for (FieldReference field : fields) {
+        final Set<MethodReference> rs = readers.get(field);
+        if (rs != null) {
+          rs.remove(m);
+        }
+      }
+    }
+  }
+
+  private static List<IMethod> affectedMethods(IClassHierarchy cha, Set<String> changed, Set<String> removed, Set<String> changedPackages) {
+    final List<IMethod> methods = new ArrayList<>();
+    for (IClass c : cha) {
+      if (!c.getClassLoader().getReference().equals(ClassLoaderReference.Application)) {
+        continue;
+      }
+      final String name = c.getName().toString();
+      if (isAffected(name, changed) || isAffected(name, removed) || changedPackages.contains(packageOf(name))) {
+        for (IMethod m : c.getDeclaredMethods()) {
+          if (!m.isAbstract() && !m.isNative()) {
+            methods.add(m);
+          }
+        }
+      }
+    }
+    return methods;
+  }
+
+  /**
+   * @return true iff class name, or a class it is nested in, is among names
+   */
+  private static boolean isAffected(String name, Set<String> names) {
+    if (names.contains(name)) {
+      return true;
+    }
+    for (int i = name.indexOf('$'); i >= 0; i = name.indexOf('$', i + 1)) {
+      if (names.contains(name.substring(0, i))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String packageOf(String name) {
+    final int slash = name.lastIndexOf('/');
+    return slash < 0 ? "" : name.substring(1, slash);
+  }
+
+  /**
+   * @return a stamp for the class file of each class in the binary directory, by class name
+   */
+  private Map<String, Long> scan() {
+    final Map<String, Long> result = new HashMap<>();
+    scan(binaryDir, "", result);
+    return result;
+  }
+
+  private static void scan(File dir, String prefix, Map<String, Long> result) {
+    final File[] files = dir.listFiles();
+    if (files == null) {
+      return;
+    }
+    for (File f : files) {
+      if (f.isDirectory()) {
+        scan(f, prefix + f.getName() + "/", result);
+      } else if (f.getName().endsWith(CLASS_SUFFIX)) {
+        final String name = "L" + prefix + f.getName().substring(0, f.getName().length() - CLASS_SUFFIX.length());
+        result.put(name, f.lastModified() * 31 + f.length());
+      }
+    }
+  }
+}
@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.intra.MethodState;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAReturnInstruction;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.NullProgressMonitor;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+
+/**
+ * Infers which unannotated application methods never return null, by a bottom-up pass over the strongly
+ * connected components of the call graph.
+ *
+ * Each method is analyzed with the intra-procedural analysis, where a call returns non-null if every possible
+ * target is annotated {@code @NonNull} or already inferred to return non-null. Within a component, the pass computes
+ * the greatest fixpoint: it starts by assuming that every member returns non-null, and drops members whose analysis
+ * does not confirm this until no summary changes. This is sound, as a value a member returns was either created
+ * without a call into the component, or returned by a shallower call of a member. Starting from "may return null"
+ * instead would never infer anything for recursive members such as {@code even}/{@code odd}, as each one only
+ * returns non-null if the other does. Components whose callees are done are analyzed in parallel. Methods returning
+ * primitives, and methods annotated {@code @NonNull} anyway, are never analyzed.
+ *
+ * Possible targets are taken from the class hierarchy, so it must contain every class of the program: hierarchies
+ * built from a {@link PrimordialSnapshot} lack library classes the application does not mention, and are refused.
+ *
+ * Use {@link #asReturnSummaries()} with {@link NonNullAnalysisFactory#NonNullAnalysisFactory(NonNullAnalysisFactory, NonNullReturnSummaries)}
+ * to feed the inferred summaries into later analyses.
+ */
+public class InterproceduralReturnSummaries {
+
+  private final NonNullAnalysisFactory analyses;
+
+  private final IClassHierarchy cha;
+
+  private final ForkJoinPool pool;
+
+  private final Set<IMethod> nonNull = ConcurrentHashMap.newKeySet();
+
+  private final Map<MethodReference, Collection<IMethod>> targets = new ConcurrentHashMap<>();
+
+  private final AtomicLong analyzed = new AtomicLong();
+
+  private final MethodState methodState = new MethodState() {
+    @Override
+    public boolean throwsException(SSAAbstractInvokeInstruction node) {
+      return returnsNonNull(node.getDeclaredTarget());
+    }
+  };
+
+  private boolean computed = false;
+
+  /**
+   * @throws IllegalArgumentException if the hierarchy of analyses was built from a {@link PrimordialSnapshot}
+   */
+  public InterproceduralReturnSummaries(NonNullAnalysisFactory analyses, ForkJoinPool pool) {
+    if (PrimordialSnapshot.isSnapshot(analyses.getClassHierarchy())) {
+      throw new IllegalArgumentException("The possible targets of calls are incomplete in a hierarchy built from a primordial snapshot");
+    }
+    this.analyses = analyses;
+    this.cha = analyses.getClassHierarchy();
+    this.pool = pool;
+  }
+
+  public InterproceduralReturnSummaries(NonNullAnalysisFactory analyses) {
+    this(analyses, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Computes the summaries of all application methods. Subsequent calls return immediately.
+   */
+  public synchronized void compute() {
+    if (computed) {
+      return;
+    }
+    final List<IMethod> methods = NullPointerAnalysisDriver.applicationMethods(cha);
+    final Map<IMethod, List<IMethod>> callGraph = new HashMap<>();
+    for (IMethod m : methods) {
+      callGraph.put(m, callees(m));
+    }
+
+    final List<List<IMethod>> sccs = stronglyConnectedComponents(methods, callGraph);
+    final Map<IMethod, Integer> sccOf = new HashMap<>();
+    for (int i = 0; i < sccs.size(); i++) {
+      for (IMethod m : sccs.get(i)) {
+        sccOf.put(m, i);
+      }
+    }
+
+    // components are in reverse topological order, so the futures of all callees exist already.
+    final List<CompletableFuture<Void>> done = new ArrayList<>(sccs.size());
+    for (int i = 0; i < sccs.size(); i++) {
+      final List<IMethod> scc = sccs.get(i);
+      final Set<Integer> dependencies = new HashSet<>();
+      for (IMethod m : scc) {
+        for (IMethod callee : callGraph.get(m)) {
+          final Integer j = sccOf.get(callee);
+          if (j != null && j != i) {
+            dependencies.add(j);
+          }
+        }
+      }
+      final CompletableFuture<?>[] before = new CompletableFuture<?>[dependencies.size()];
+      int k = 0;
+      for (int j : dependencies) {
+        before[k++] = done.get(j);
+      }
+      done.add(CompletableFuture.allOf(before).thenRunAsync(() -> solve(scc), pool));
+    }
+    CompletableFuture.allOf(done.toArray(new CompletableFuture<?>[done.size()])).join();
+    computed = true;
+  }
+
+  private void solve(List<IMethod> scc) {
+    final List<IMethod> candidates = new ArrayList<>(scc.size());
+    for (IMethod m : scc) {
+      if (needsAnalysis(m)) {
+        candidates.add(m);
+      }
+    }
+    if (scc.size() == 1 && !calls(scc.get(0), scc.get(0))) {
+      // a single, non-recursive method does not depend on its own summary.
+      for (IMethod m : candidates) {
+        if (analyzeReturnsNonNull(m)) {
+          nonNull.add(m);
+        }
+      }
+      return;
+    }
+
+    // callers in other components wait for this one, so the optimistic summaries are only seen by its members.
+    nonNull.addAll(candidates);
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (IMethod m : candidates) {
+        if (nonNull.contains(m) && !analyzeReturnsNonNull(m)) {
+          nonNull.remove(m);
+          changed = true;
+        }
+      }
+    }
+  }
+
+  private boolean calls(IMethod caller, IMethod callee) {
+    try {
+      for (MethodReference declared : DeclaredCallees.of(caller)) {
+        if (possibleTargets(declared).contains(callee)) {
+          return true;
+        }
+      }
+      return false;
+    } catch (InvalidClassFileException e) {
+      return true;
+    }
+  }
+
+  private boolean needsAnalysis(IMethod m) {
+    return m.getReturnType().isReferenceType() && !analyses.getReturnSummaries().returnsNonNull(m.getReference());
+  }
+
+  private boolean analyzeReturnsNonNull(IMethod m) {
+    analyzed.incrementAndGet();
+    try {
+      final IR ir = analyses.makeIR(m);
+      final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis =
+          analyses.createNonNullRespectingSSACFGAnalysis(ir, analyses.makeNonNullParameterState(ir), methodState);
+      analysis.compute(new NullProgressMonitor());
+
+      final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg = analysis.getCFG();
+      final Collection<ISSABasicBlock> returns = cfg.getNormalPredecessors(cfg.exit());
+      if (returns.isEmpty()) {
+        return false;
+      }
+      for (ISSABasicBlock ret : returns) {
+        final SSAInstruction last = ret.getLastInstruction();
+        if (!(last instanceof SSAReturnInstruction) || ((SSAReturnInstruction) last).returnsVoid()) {
+          return false;
+        }
+        if (analysis.getState(ret).getState(((SSAReturnInstruction) last).getResult()) != State.NOT_NULL) {
+          return false;
+        }
+      }
+      return true;
+    } catch (InvalidClassFileException | UnsoundGraphException | CancelException | RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return true iff a call of mref is known to return non-null, by annotation or by inference
+   */
+  public boolean returnsNonNull(MethodReference mref) {
+    if (analyses.getReturnSummaries().returnsNonNull(mref)) {
+      return true;
+    }
+    final Collection<IMethod> possible = possibleTargets(mref);
+    return !possible.isEmpty() && nonNull.containsAll(possible);
+  }
+
+  private Collection<IMethod> possibleTargets(MethodReference mref) {
+    Collection<IMethod> result = targets.get(mref);
+    if (result == null) {
+      final Set<IMethod> possible = cha.getPossibleTargets(mref);
+      result = (possible == null) ? Collections.<IMethod>emptySet() : possible;
+      targets.putIfAbsent(mref, result);
+    }
+    return result;
+  }
+
+  private List<IMethod> callees(IMethod m) {
+    final List<IMethod> result = new ArrayList<>();
+    try {
+      for (MethodReference declared : DeclaredCallees.of(m)) {
+        for (IMethod target : possibleTargets(declared)) {
+          if (target.getDeclaringClass().getClassLoader().getReference().equals(ClassLoaderReference.Application)) {
+            result.add(target);
+          }
+        }
+      }
+    } catch (InvalidClassFileException e) {
+      // without callees, m is summarized before its callees, which is merely imprecise.
+    }
+    return result;
+  }
+
+  /**
+   * Tarjan's algorithm, iteratively.
+   *
+   * @return the strongly connected components of callGraph, callees before callers
+   */
+  private static List<List<IMethod>> stronglyConnectedComponents(List<IMethod> methods, Map<IMethod, List<IMethod>> callGraph) {
+    final List<List<IMethod>> sccs = new ArrayList<>();
+    final Map<IMethod, Integer> index = new HashMap<>();
+    final Map<IMethod, Integer> lowlink = new HashMap<>();
+    final Set<IMethod> onStack = new HashSet<>();
+    final Deque<IMethod> stack = new ArrayDeque<>();
+    final Deque<IMethod> work = new ArrayDeque<>();
+    final Deque<Integer> nextChild = new ArrayDeque<>();
+    int counter = 0;
+
+    for (IMethod root : methods) {
+      if (index.containsKey(root)) {
+        continue;
+      }
+      work.push(root);
+      nextChild.push(0);
+      index.put(root, counter);
+      lowlink.put(root, counter);
+      counter++;
+      stack.push(root);
+      onStack.add(root);
+
+      while (!work.isEmpty()) {
+        final IMethod v = work.peek();
+        final int i = nextChild.pop();
+        final List<IMethod> succs = callGraph.getOrDefault(v, Collections.<IMethod>emptyList());
+        if (i < succs.size()) {
+          nextChild.push(i + 1);
+          final IMethod w = succs.get(i);
+          if (!callGraph.containsKey(w)) {
+            continue;
+          }
+          if (!index.containsKey(w)) {
+            index.put(w, counter);
+            lowlink.put(w, counter);
+            counter++;
+            stack.push(w);
+            onStack.add(w);
+            work.push(w);
+            nextChild.push(0);
+          } else if (onStack.contains(w)) {
+            lowlink.put(v, Math.min(lowlink.get(v), index.get(w)));
+          }
+        } else {
+          work.pop();
+          if (lowlink.get(v).equals(index.get(v))) {
+            final List<IMethod> scc = new ArrayList<>();
+            IMethod w;
+            do {
+              w = stack.pop();
+              onStack.remove(w);
+              scc.add(w);
+            } while (w != v);
+            sccs.add(scc);
+          }
+          if (!work.isEmpty()) {
+            final IMethod parent = work.peek();
+            lowlink.put(parent, Math.min(lowlink.get(parent), lowlink.get(v)));
+          }
+        }
+      }
+    }
+    return sccs;
+  }
+
+  /**
+   * @return annotation based summaries, extended by the inferred ones; {@link #compute()} must have been called
+   */
+  public NonNullReturnSummaries asReturnSummaries() {
+    return new NonNullReturnSummaries(cha) {
+      @Override
+      protected boolean computeReturnsNonNull(MethodReference mref) {
+        return InterproceduralReturnSummaries.this.returnsNonNull(mref);
+      }
+    };
+  }
+
+  /**
+   * @return the number of application methods inferred to never return null
+   */
+  public int numberOfNonNullMethods() {
+    return nonNull.size();
+  }
+
+  /**
+   * @return the number of intra-procedural analyses run, including fixpoint iterations within components
+   */
+  public long getAnalyzed() {
+    return analyzed.get();
+  }
+}
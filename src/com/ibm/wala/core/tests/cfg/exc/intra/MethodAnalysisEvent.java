@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * JFR event for the analysis of one method, emitted by {@link AnalysisMetrics#computed(MethodReference, long)}.
+ *
+ * The bundle is built against the JavaSE-1.8 execution environment, which has no {@code jdk.jfr}. So the event
+ * type is defined at runtime with {@code jdk.jfr.EventFactory}, and all of {@code jdk.jfr} is used reflectively;
+ * on JVMs without it, {@link #isAvailable()} is false and nothing is emitted. The event is named
+ * {@code com.ibm.wala.nullness.MethodAnalysis} and has the fields {@code method} and {@code computeTime}.
+ */
+final class MethodAnalysisEvent {
+
+  private static final String NAME = "com.ibm.wala.nullness.MethodAnalysis";
+
+  private static final int METHOD = 0;
+
+  private static final int COMPUTE_TIME = 1;
+
+  /** the jdk.jfr.EventFactory, or null without JFR */
+  private static final Object FACTORY;
+
+  private static final Method NEW_EVENT;
+
+  private static final Method IS_ENABLED;
+
+  private static final Method SET;
+
+  private static final Method COMMIT;
+
+  static {
+    Object factory = null;
+    Method newEvent = null;
+    Method isEnabled = null;
+    Method set = null;
+    Method commit = null;
+    try {
+      // bundle class loaders need not see jdk.jfr.
+      final ClassLoader loader = ClassLoader.getSystemClassLoader();
+      final Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement", true, loader);
+      final Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor", true, loader);
+      final Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory", true, loader);
+      final Class<?> event = Class.forName("jdk.jfr.Event", true, loader);
+      final Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+      final Constructor<?> newValue = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+      final List<Object> annotations = Arrays.asList(
+          newAnnotation.newInstance(jfrAnnotation("Name", loader), NAME),
+          newAnnotation.newInstance(jfrAnnotation("Label", loader), "Null Pointer Analysis"),
+          newAnnotation.newInstance(jfrAnnotation("Category", loader), (Object) new String[] { "WALA", "Null Pointer Analysis" }),
+          newAnnotation.newInstance(jfrAnnotation("Description", loader), "Compute time of the null pointer analysis of a method"),
+          newAnnotation.newInstance(jfrAnnotation("StackTrace", loader), false));
+      // in the order of METHOD and COMPUTE_TIME.
+      final List<Object> fields = Arrays.asList(
+          newValue.newInstance(String.class, "method",
+              Collections.singletonList(newAnnotation.newInstance(jfrAnnotation("Label", loader), "Method"))),
+          newValue.newInstance(long.class, "computeTime",
+              Arrays.asList(newAnnotation.newInstance(jfrAnnotation("Label", loader), "Compute Time"),
+                  newAnnotation.newInstance(jfrAnnotation("Timespan", loader), "NANOSECONDS"))));
+      factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+      newEvent = eventFactory.getMethod("newEvent");
+      isEnabled = event.getMethod("isEnabled");
+      set = event.getMethod("set", int.class, Object.class);
+      commit = event.getMethod("commit");
+    } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+      // no JFR, or one this class does not understand.
+      factory = null;
+    }
+    FACTORY = factory;
+    NEW_EVENT = newEvent;
+    IS_ENABLED = isEnabled;
+    SET = set;
+    COMMIT = commit;
+  }
+
+  private MethodAnalysisEvent() {}
+
+  private static Class<?> jfrAnnotation(String name, ClassLoader loader) throws ClassNotFoundException {
+    return Class.forName("jdk.jfr." + name, true, loader);
+  }
+
+  /**
+   * @return true iff this JVM has JFR
+   */
+  static boolean isAvailable() {
+    return FACTORY != null;
+  }
+
+  static void emit(MethodReference m, long nanos) {
+    if (FACTORY == null) {
+      return;
+    }
+    try {
+      final Object event = NEW_EVENT.invoke(FACTORY);
+      if ((Boolean) IS_ENABLED.invoke(event)) {
+        SET.invoke(event, METHOD, m.getSignature());
+        SET.invoke(event, COMPUTE_TIME, nanos);
+        COMMIT.invoke(event);
+      }
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Cannot emit " + NAME, e);
+    }
+  }
+}
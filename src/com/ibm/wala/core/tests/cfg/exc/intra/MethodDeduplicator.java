@@ -0,0 +1,160 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+
+/**
+ * Analyzes each {@link MethodFingerprint} once, and hands the result to every method sharing it, reported for
+ * that method (see {@link MethodNullnessResult#forMethod(com.ibm.wala.types.MethodReference)}).
+ *
+ * Generated code (accessors, builders, bridges) often consists of many methods with the same bytecode and the
+ * same annotations; since the fingerprint covers both, as well as the nullness of callees and loaded fields, such
+ * methods have the same result. Concurrent lookups of a fingerprint that is being analyzed wait for that
+ * analysis instead of starting their own.
+ *
+ * Results are kept until {@link #clear()}. Instances are thread-safe.
+ */
+public class MethodDeduplicator {
+
+  /**
+   * Analyzes the first method of a fingerprint.
+   */
+  public interface Analysis {
+    MethodNullnessResult analyze() throws InvalidClassFileException, UnsoundGraphException, CancelException;
+  }
+
+  private static final class Entry {
+
+    private final CompletableFuture<MethodNullnessResult> result = new CompletableFuture<>();
+
+    /**
+     * Written before result is completed, so readers of a completed result see it.
+     */
+    private long nanos;
+  }
+
+  private final ConcurrentHashMap<MethodFingerprint, Entry> entries = new ConcurrentHashMap<>();
+
+  private final AtomicLong methods = new AtomicLong();
+
+  private final AtomicLong duplicates = new AtomicLong();
+
+  private final AtomicLong analysisNanos = new AtomicLong();
+
+  private final AtomicLong savedNanos = new AtomicLong();
+
+  /**
+   * @return the result for key, computed by analysis unless a method with the same fingerprint was analyzed
+   *         before, reported for m
+   */
+  public MethodNullnessResult analyze(IMethod m, MethodFingerprint key, Analysis analysis)
+      throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    methods.incrementAndGet();
+    final Entry mine = new Entry();
+    final Entry theirs = entries.putIfAbsent(key, mine);
+    if (theirs == null) {
+      final long start = System.nanoTime();
+      final MethodNullnessResult result;
+      try {
+        result = analysis.analyze();
+      } catch (InvalidClassFileException | UnsoundGraphException | CancelException | RuntimeException e) {
+        // later duplicates try again, waiting ones fail alike.
+        entries.remove(key, mine);
+        mine.result.completeExceptionally(e);
+        throw e;
+      }
+      mine.nanos = System.nanoTime() - start;
+      analysisNanos.addAndGet(mine.nanos);
+      mine.result.complete(result);
+      return result;
+    }
+
+    final MethodNullnessResult result;
+    try {
+      result = theirs.result.join();
+    } catch (CompletionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof InvalidClassFileException) {
+        throw (InvalidClassFileException) cause;
+      } else if (cause instanceof UnsoundGraphException) {
+        throw (UnsoundGraphException) cause;
+      } else if (cause instanceof CancelException) {
+        throw (CancelException) cause;
+      }
+      throw e;
+    }
+    duplicates.incrementAndGet();
+    savedNanos.addAndGet(theirs.nanos);
+    return result.forMethod(m.getReference());
+  }
+
+  /**
+   * Drops all results, but keeps the counters.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * @return the number of methods looked up
+   */
+  public long getNumberOfMethods() {
+    return methods.get();
+  }
+
+  /**
+   * @return the number of methods that got the result of another method
+   */
+  public long getNumberOfDuplicates() {
+    return duplicates.get();
+  }
+
+  /**
+   * @return the fraction of the methods looked up that were not analyzed, between 0 and 1
+   */
+  public double getDeduplicationRatio() {
+    final long n = methods.get();
+    return (n == 0) ? 0.0 : (double) duplicates.get() / n;
+  }
+
+  /**
+   * @return the wall time spent analyzing the first method of each fingerprint
+   */
+  public long getAnalysisNanos() {
+    return analysisNanos.get();
+  }
+
+  /**
+   * @return the wall time the duplicates would have taken, estimated by the time of their original
+   */
+  public long getSavedNanos() {
+    return savedNanos.get();
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d methods, %d duplicates (%.1f%%), %d ms saved", getNumberOfMethods(), getNumberOfDuplicates(),
+        100.0 * getDeduplicationRatio(), getSavedNanos() / 1000000);
+  }
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.classLoader.IBytecodeMethod;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.shrikeBT.ExceptionHandler;
+import com.ibm.wala.shrikeBT.IGetInstruction;
+import com.ibm.wala.shrikeBT.IInstruction;
+import com.ibm.wala.shrikeBT.IInvokeInstruction;
+import com.ibm.wala.shrikeBT.IPutInstruction;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * A 128 bit hash of everything the null pointer analysis result of a method depends on: its descriptor, its
+ * instructions and exception handlers, the {@code @NonNullByDefault} locations in effect, its
+ * {@link ParameterState}, whether each of its callees is known to return non-null, and whether each field it
+ * loads is known to be non-null.
+ *
+ * The name and declaring class of the method are not part of the fingerprint, so structurally identical methods
+ * share it. References to the declaring class are normalized before hashing: the class itself is replaced by a
+ * placeholder wherever it occurs, and the fields and methods of the class are numbered in the order of their first
+ * access. So the accessors of different classes, such as the getters of DTOs, share a fingerprint too.
+ */
+public final class MethodFingerprint {
+
+  private static final int VERSION = 3;
+
+  private static final String DECLARING_CLASS = "L<declaring>;";
+
+  private final long high;
+
+  private final long low;
+
+  public MethodFingerprint(long high, long low) {
+    this.high = high;
+    this.low = low;
+  }
+
+  public static MethodFingerprint of(IMethod m, NonNullAnalysisFactory analyses) throws InvalidClassFileException {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException(e);
+    }
+    final StringBuilder b = new StringBuilder();
+    b.append(VERSION).append('\n');
+    final String declaringClass = m.getDeclaringClass().getName().toString() + ";";
+    final Map<String, Integer> members = new HashMap<>();
+    b.append(m.isStatic()).append(normalize(m.getDescriptor().toString(), declaringClass)).append('\n');
+    b.append(analyses.defaultsFor(m)).append('\n');
+    final Map<Integer, State> parameterStates = new TreeMap<>(analyses.makeNonNullParameterState(m).getStates());
+    b.append(parameterStates).append('\n');
+
+    if (m instanceof IBytecodeMethod) {
+      final IBytecodeMethod bm = (IBytecodeMethod) m;
+      final IInstruction[] instructions = bm.getInstructions();
+      final ExceptionHandler[][] handlers = bm.getHandlers();
+      for (int i = 0; i < instructions.length; i++) {
+        final IInstruction instruction = instructions[i];
+        append(b, instruction, declaringClass, members);
+        if (instruction instanceof IInvokeInstruction) {
+          final MethodReference target = DeclaredCallees.target((IInvokeInstruction) instruction);
+          b.append(analyses.getReturnSummaries().returnsNonNull(target) ? "!" : "?");
+        } else if (instruction instanceof IGetInstruction) {
+          final FieldReference field = FieldNullness.target((IGetInstruction) instruction);
+          b.append(analyses.getFieldNullness().isNonNull(field) ? "!" : "?");
+        }
+        if (handlers[i] != null) {
+          for (ExceptionHandler h : handlers[i]) {
+            b.append(' ').append(h.getHandler()).append(':').append(normalize(h.getCatchClass(), declaringClass));
+          }
+        }
+        b.append('\n');
+        // keep the builder small for huge methods
+        if (b.length() > 4096) {
+          digest.update(b.toString().getBytes(StandardCharsets.UTF_8));
+          b.setLength(0);
+        }
+      }
+    }
+    digest.update(b.toString().getBytes(StandardCharsets.UTF_8));
+
+    final byte[] hash = digest.digest();
+    return new MethodFingerprint(toLong(hash, 0), toLong(hash, 8));
+  }
+
+  /**
+   * Appends instruction, with the fields and methods of declaringClass it accesses replaced by their numbers in
+   * members, and declaringClass by a placeholder.
+   */
+  private static void append(StringBuilder b, IInstruction instruction, String declaringClass, Map<String, Integer> members) {
+    if (instruction instanceof IGetInstruction) {
+      final IGetInstruction get = (IGetInstruction) instruction;
+      b.append("get ").append(get.isStatic()).append(' ');
+      appendMember(b, get.getClassType(), get.getFieldName() + ":" + get.getFieldType(), declaringClass, members);
+      b.append(' ').append(normalize(get.getFieldType(), declaringClass));
+    } else if (instruction instanceof IPutInstruction) {
+      final IPutInstruction put = (IPutInstruction) instruction;
+      b.append("put ").append(put.isStatic()).append(' ');
+      appendMember(b, put.getClassType(), put.getFieldName() + ":" + put.getFieldType(), declaringClass, members);
+      b.append(' ').append(normalize(put.getFieldType(), declaringClass));
+    } else if (instruction instanceof IInvokeInstruction) {
+      final IInvokeInstruction invoke = (IInvokeInstruction) instruction;
+      b.append("invoke ").append(invoke.getInvocationCode()).append(' ');
+      appendMember(b, invoke.getClassType(), invoke.getMethodName() + invoke.getMethodSignature(), declaringClass, members);
+      b.append(' ').append(normalize(invoke.getMethodSignature(), declaringClass));
+    } else {
+      b.append(normalize(instruction.toString(), declaringClass));
+    }
+  }
+
+  private static void appendMember(StringBuilder b, String classType, String member, String declaringClass,
+      Map<String, Integer> members) {
+    if (classType.equals(declaringClass)) {
+      Integer number = members.get(member);
+      if (number == null) {
+        number = members.size();
+        members.put(member, number);
+      }
+      b.append(DECLARING_CLASS).append('#').append(number);
+    } else {
+      b.append(classType).append('.').append(member);
+    }
+  }
+
+  private static String normalize(String text, String declaringClass) {
+    return (text == null) ? null : text.replace(declaringClass, DECLARING_CLASS);
+  }
+
+  private static long toLong(byte[] bytes, int offset) {
+    long l = 0;
+    for (int i = offset; i < offset + 8; i++) {
+      l = (l << 8) | (bytes[i] & 0xFF);
+    }
+    return l;
+  }
+
+  public long getHigh() {
+    return high;
+  }
+
+  public long getLow() {
+    return low;
+  }
+
+  @Override
+  public int hashCode() {
+    return (int) (low ^ (low >>> 32));
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof MethodFingerprint)) {
+      return false;
+    }
+    final MethodFingerprint other = (MethodFingerprint) obj;
+    return high == other.high && low == other.low;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+
+/**
+ * Computes the {@link MethodNullnessResult} of a single method, see {@link NullPointerAnalysisDriver}.
+ *
+ * Implementations must be thread-safe.
+ */
+public interface MethodNullnessAnalyzer {
+
+  /**
+   * @return the result, on the {@link com.ibm.wala.ssa.ISSABasicBlock}s of ir
+   */
+  MethodNullnessResult analyze(IR ir, IProgressMonitor monitor) throws InvalidClassFileException, UnsoundGraphException, CancelException;
+
+  /**
+   * @return the result reported instead of {@link #analyze(IR, IProgressMonitor)} for a method that exceeded its
+   *         budget, on the same blocks as the results of analyze. Analyzers on exploded control flow graphs map their
+   *         results back to the blocks of ir, as {@link MethodNullnessResult#ofExploded} does, so the default suits
+   *         them as well.
+   */
+  default MethodNullnessResult conservative(IR ir) {
+    return MethodNullnessResult.conservative(ir);
+  }
+
+  /**
+   * @return the name of this analyzer and its options, see {@link PersistentResultStore}. Lambdas get class names that
+   *         may differ between runs, so their results are not reused unless they are given a name by {@link #named}.
+   */
+  default String getName() {
+    return getClass().getName();
+  }
+
+  /**
+   * @return analyzer, with name as its {@link #getName()}
+   */
+  static MethodNullnessAnalyzer named(final String name, final MethodNullnessAnalyzer analyzer) {
+    return new MethodNullnessAnalyzer() {
+      @Override
+      public MethodNullnessResult analyze(IR ir, IProgressMonitor monitor) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+        return analyzer.analyze(ir, monitor);
+      }
+
+      @Override
+      public MethodNullnessResult conservative(IR ir) {
+        return analyzer.conservative(ir);
+      }
+
+      @Override
+      public String getName() {
+        return name;
+      }
+    };
+  }
+}
@@ -0,0 +1,309 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.intra.NullPointerState;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.analysis.IExplodedBasicBlock;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Analysis result of a single method, detached from the {@link IR} and the analysis it was computed with.
+ *
+ * Holds the {@link NullPointerState} at each return node, the exceptional edges of the original control
+ * flow graph that were pruned, and the {@link ParameterState} the analysis started from.
+ */
+public final class MethodNullnessResult {
+
+  private final MethodReference method;
+
+  private final int maxValueNumber;
+
+  private final int[] returnNodes;
+
+  private final State[][] returnStates;
+
+  private final int[] prunedEdges;
+
+  private final Map<Integer, State> parameterStates;
+
+  /**
+   * @param returnNodes    numbers of the normal predecessors of the exit node
+   * @param returnStates   for each return node, the state of every value number 0..maxValueNumber
+   * @param prunedEdges    pairs (source, target) of block numbers of the pruned exceptional edges
+   */
+  public MethodNullnessResult(MethodReference method, int maxValueNumber, int[] returnNodes, State[][] returnStates,
+      int[] prunedEdges, Map<Integer, State> parameterStates) {
+    if (returnNodes.length != returnStates.length) {
+      throw new IllegalArgumentException("Expected one state per return node");
+    }
+    if (prunedEdges.length % 2 != 0) {
+      throw new IllegalArgumentException("Expected pairs of block numbers");
+    }
+    this.method = method;
+    this.maxValueNumber = maxValueNumber;
+    this.returnNodes = returnNodes;
+    this.returnStates = returnStates;
+    this.prunedEdges = prunedEdges;
+    this.parameterStates = parameterStates;
+  }
+
+  /**
+   * Extracts the result of an already computed analysis on the {@link ISSABasicBlock}s of ir.
+   */
+  public static MethodNullnessResult of(IR ir, ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis,
+      ParameterState parameterState) {
+    final int maxValueNumber = ir.getSymbolTable().getMaxValueNumber();
+    return of(ir, analysis.getCFG(), bb -> statesOf(analysis.getState(bb), maxValueNumber), parameterState);
+  }
+
+  /**
+   * Extracts the result of an already computed {@link SparseNullPointerAnalysis} on the {@link ISSABasicBlock}s of ir.
+   */
+  public static MethodNullnessResult ofSparse(IR ir, SparseNullPointerAnalysis analysis, ParameterState parameterState) {
+    return of(ir, analysis.getCFG(), bb -> statesOf(analysis.getState(bb)), parameterState);
+  }
+
+  private static MethodNullnessResult of(IR ir, ControlFlowGraph<SSAInstruction, ISSABasicBlock> pruned,
+      Function<ISSABasicBlock, State[]> statesAt, ParameterState parameterState) {
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> original = ir.getControlFlowGraph();
+    final int maxValueNumber = ir.getSymbolTable().getMaxValueNumber();
+
+    final Collection<ISSABasicBlock> returns = pruned.getNormalPredecessors(pruned.exit());
+    final int[] returnNodes = new int[returns.size()];
+    final State[][] returnStates = new State[returns.size()][];
+    int i = 0;
+    for (ISSABasicBlock ret : returns) {
+      returnNodes[i] = ret.getNumber();
+      returnStates[i] = statesAt.apply(ret);
+      i++;
+    }
+
+    int[] prunedEdges = new int[8];
+    int size = 0;
+    for (ISSABasicBlock bb : original) {
+      final List<ISSABasicBlock> retained = pruned.containsNode(bb) ? pruned.getExceptionalSuccessors(bb) : null;
+      for (ISSABasicBlock succ : original.getExceptionalSuccessors(bb)) {
+        if (retained == null || !retained.contains(succ)) {
+          if (size + 2 > prunedEdges.length) {
+            prunedEdges = Arrays.copyOf(prunedEdges, prunedEdges.length * 2);
+          }
+          prunedEdges[size++] = bb.getNumber();
+          prunedEdges[size++] = succ.getNumber();
+        }
+      }
+    }
+
+    return new MethodNullnessResult(ir.getMethod().getReference(), maxValueNumber, returnNodes, returnStates,
+        Arrays.copyOf(prunedEdges, size), new TreeMap<>(parameterState.getStates()));
+  }
+
+  /**
+   * Extracts the result of an already computed analysis on the {@link IExplodedBasicBlock}s of ir, and maps it
+   * back to the {@link ISSABasicBlock}s of ir: an exceptional edge between two basic blocks is pruned iff it
+   * was pruned for every instruction of the source block.
+   */
+  public static MethodNullnessResult ofExploded(IR ir, ExceptionPruningAnalysis<SSAInstruction, IExplodedBasicBlock> analysis,
+      ParameterState parameterState) {
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> original = ir.getControlFlowGraph();
+    final ControlFlowGraph<SSAInstruction, IExplodedBasicBlock> pruned = analysis.getCFG();
+    final int maxValueNumber = ir.getSymbolTable().getMaxValueNumber();
+
+    final Map<SSAInstruction, IExplodedBasicBlock> explodedReturns = new HashMap<>();
+    for (IExplodedBasicBlock ret : pruned.getNormalPredecessors(pruned.exit())) {
+      explodedReturns.put(ret.getInstruction(), ret);
+    }
+    final Collection<ISSABasicBlock> returns = original.getNormalPredecessors(original.exit());
+    int[] returnNodes = new int[returns.size()];
+    State[][] returnStates = new State[returns.size()][];
+    int i = 0;
+    for (ISSABasicBlock ret : returns) {
+      final IExplodedBasicBlock explodedRet = explodedReturns.get(ret.getLastInstruction());
+      if (explodedRet != null) {
+        returnNodes[i] = ret.getNumber();
+        returnStates[i] = statesOf(analysis.getState(explodedRet), maxValueNumber);
+        i++;
+      }
+    }
+    returnNodes = Arrays.copyOf(returnNodes, i);
+    returnStates = Arrays.copyOf(returnStates, i);
+
+    final Set<Long> retained = new HashSet<>();
+    for (IExplodedBasicBlock bb : pruned) {
+      for (IExplodedBasicBlock succ : pruned.getExceptionalSuccessors(bb)) {
+        retained.add(edge(originalNumber(original, pruned, bb), originalNumber(original, pruned, succ)));
+      }
+    }
+    int[] prunedEdges = new int[8];
+    int size = 0;
+    for (ISSABasicBlock bb : original) {
+      for (ISSABasicBlock succ : original.getExceptionalSuccessors(bb)) {
+        if (!retained.contains(edge(bb.getNumber(), succ.getNumber()))) {
+          if (size + 2 > prunedEdges.length) {
+            prunedEdges = Arrays.copyOf(prunedEdges, prunedEdges.length * 2);
+          }
+          prunedEdges[size++] = bb.getNumber();
+          prunedEdges[size++] = succ.getNumber();
+        }
+      }
+    }
+
+    return new MethodNullnessResult(ir.getMethod().getReference(), maxValueNumber, returnNodes, returnStates,
+        Arrays.copyOf(prunedEdges, size), new TreeMap<>(parameterState.getStates()));
+  }
+
+  private static int originalNumber(ControlFlowGraph<SSAInstruction, ISSABasicBlock> original,
+      ControlFlowGraph<SSAInstruction, IExplodedBasicBlock> exploded, IExplodedBasicBlock bb) {
+    if (bb == exploded.exit()) {
+      return original.exit().getNumber();
+    } else if (bb == exploded.entry()) {
+      return original.entry().getNumber();
+    } else {
+      return bb.getOriginalNumber();
+    }
+  }
+
+  private static long edge(int source, int target) {
+    return ((long) source << 32) | (target & 0xFFFFFFFFL);
+  }
+
+  /**
+   * @return the result of an analysis that knows nothing about ir: no edge is pruned, every value may be null at
+   *         every return node, and only the receiver of an instance method is known not to be null. Blocks are those
+   *         of {@link IR#getControlFlowGraph()}, as for {@link #of} and {@link #ofExploded}.
+   */
+  public static MethodNullnessResult conservative(IR ir) {
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg = ir.getControlFlowGraph();
+    final int maxValueNumber = ir.getSymbolTable().getMaxValueNumber();
+    final Collection<ISSABasicBlock> returns = cfg.getNormalPredecessors(cfg.exit());
+    final int[] returnNodes = new int[returns.size()];
+    final State[][] returnStates = new State[returns.size()][];
+    int i = 0;
+    for (ISSABasicBlock ret : returns) {
+      returnNodes[i] = ret.getNumber();
+      returnStates[i] = new State[maxValueNumber + 1];
+      Arrays.fill(returnStates[i], 1, maxValueNumber + 1, State.BOTH);
+      i++;
+    }
+    return new MethodNullnessResult(ir.getMethod().getReference(), maxValueNumber, returnNodes, returnStates, new int[0],
+        new TreeMap<>(ParameterState.createDefault(ir.getMethod()).getStates()));
+  }
+
+  /**
+   * @return this result, reported for other; valid for methods whose {@link IR} is identical to the one of
+   *         {@link #getMethod()}, such as methods sharing a {@link MethodFingerprint}
+   */
+  public MethodNullnessResult forMethod(MethodReference other) {
+    if (other.equals(method)) {
+      return this;
+    }
+    return new MethodNullnessResult(other, maxValueNumber, returnNodes, returnStates, prunedEdges, parameterStates);
+  }
+
+  static State[] statesOf(NullPointerState state, int maxValueNumber) {
+    final State[] states = new State[maxValueNumber + 1];
+    for (int v = 1; v <= maxValueNumber; v++) {
+      states[v] = state.getState(v);
+    }
+    return states;
+  }
+
+  static State[] statesOf(PackedNullPointerState state) {
+    final State[] states = new State[state.getMaxValueNumber() + 1];
+    for (int v = 1; v < states.length; v++) {
+      states[v] = state.getState(v);
+    }
+    return states;
+  }
+
+  public MethodReference getMethod() {
+    return method;
+  }
+
+  public int getMaxValueNumber() {
+    return maxValueNumber;
+  }
+
+  public int getNumberOfReturnNodes() {
+    return returnNodes.length;
+  }
+
+  /**
+   * @return the block number of the i-th return node
+   */
+  public int getReturnNode(int i) {
+    return returnNodes[i];
+  }
+
+  /**
+   * @return the state of value number valueNumber at the i-th return node
+   */
+  public State getReturnState(int i, int valueNumber) {
+    return returnStates[i][valueNumber];
+  }
+
+  public int getNumberOfPrunedEdges() {
+    return prunedEdges.length / 2;
+  }
+
+  public int getPrunedEdgeSource(int i) {
+    return prunedEdges[2 * i];
+  }
+
+  public int getPrunedEdgeTarget(int i) {
+    return prunedEdges[2 * i + 1];
+  }
+
+  public boolean isPruned(int source, int target) {
+    for (int i = 0; i < prunedEdges.length; i += 2) {
+      if (prunedEdges[i] == source && prunedEdges[i + 1] == target) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the parameter states the analysis started from, indexed as in {@link ParameterState}
+   */
+  public Map<Integer, State> getParameterStates() {
+    return parameterStates;
+  }
+
+  public ParameterState toParameterState() {
+    final ParameterState state = new ParameterState();
+    for (Map.Entry<Integer, State> e : parameterStates.entrySet()) {
+      state.setState(e.getKey(), e.getValue());
+    }
+    return state;
+  }
+
+  @Override
+  public String toString() {
+    return method + ": " + returnNodes.length + " return nodes, " + getNumberOfPrunedEdges() + " pruned edges";
+  }
+}
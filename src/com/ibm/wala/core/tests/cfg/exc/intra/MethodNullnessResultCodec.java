@@ -0,0 +1,125 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Compact binary encoding of a {@link MethodNullnessResult}, without its {@link MethodReference}:
+ *
+ * <pre>
+ * int maxValueNumber
+ * int #returnNodes, then per return node: int blockNumber, byte[(maxValueNumber + 4) / 4] states, 2 bits each
+ * int #prunedEdges, then per edge: int source, int target
+ * int #parameters, then per parameter: int index, byte state
+ * </pre>
+ *
+ * All numbers are big-endian. States are encoded as in {@link PackedNullPointerState#encode(State)}.
+ */
+public class MethodNullnessResultCodec {
+
+  private MethodNullnessResultCodec() {}
+
+  public static int encode(State s) {
+    return PackedNullPointerState.encode(s);
+  }
+
+  public static State decode(int code) {
+    return PackedNullPointerState.decode(code);
+  }
+
+  /**
+   * @return the number of bytes holding the states of value numbers 1..maxValueNumber, 2 bits each
+   */
+  public static int packedLength(int maxValueNumber) {
+    return (maxValueNumber + 4) / 4;
+  }
+
+  public static void pack(byte[] packed, int valueNumber, State s) {
+    packed[valueNumber >> 2] |= encode(s) << ((valueNumber & 3) << 1);
+  }
+
+  /**
+   * @return the states of value numbers 1..maxValueNumber, indexed by value number
+   */
+  public static State[] unpack(byte[] packed, int maxValueNumber) {
+    final State[] states = new State[maxValueNumber + 1];
+    for (int v = 1; v <= maxValueNumber; v++) {
+      states[v] = decode(packed[v >> 2] >> ((v & 3) << 1));
+    }
+    return states;
+  }
+
+  public static void write(MethodNullnessResult result, DataOutput out) throws IOException {
+    final int maxValueNumber = result.getMaxValueNumber();
+    out.writeInt(maxValueNumber);
+
+    out.writeInt(result.getNumberOfReturnNodes());
+    final byte[] packed = new byte[packedLength(maxValueNumber)];
+    for (int i = 0; i < result.getNumberOfReturnNodes(); i++) {
+      out.writeInt(result.getReturnNode(i));
+      Arrays.fill(packed, (byte) 0);
+      for (int v = 1; v <= maxValueNumber; v++) {
+        pack(packed, v, result.getReturnState(i, v));
+      }
+      out.write(packed);
+    }
+
+    out.writeInt(result.getNumberOfPrunedEdges());
+    for (int i = 0; i < result.getNumberOfPrunedEdges(); i++) {
+      out.writeInt(result.getPrunedEdgeSource(i));
+      out.writeInt(result.getPrunedEdgeTarget(i));
+    }
+
+    out.writeInt(result.getParameterStates().size());
+    for (Map.Entry<Integer, State> e : result.getParameterStates().entrySet()) {
+      out.writeInt(e.getKey());
+      out.writeByte(encode(e.getValue()));
+    }
+  }
+
+  public static MethodNullnessResult read(MethodReference method, ByteBuffer in) {
+    final int maxValueNumber = in.getInt();
+
+    final int numberOfReturnNodes = in.getInt();
+    final int[] returnNodes = new int[numberOfReturnNodes];
+    final State[][] returnStates = new State[numberOfReturnNodes][];
+    final byte[] packed = new byte[packedLength(maxValueNumber)];
+    for (int i = 0; i < numberOfReturnNodes; i++) {
+      returnNodes[i] = in.getInt();
+      in.get(packed);
+      returnStates[i] = unpack(packed, maxValueNumber);
+    }
+
+    final int numberOfPrunedEdges = in.getInt();
+    final int[] prunedEdges = new int[2 * numberOfPrunedEdges];
+    for (int i = 0; i < prunedEdges.length; i++) {
+      prunedEdges[i] = in.getInt();
+    }
+
+    final int numberOfParameters = in.getInt();
+    final Map<Integer, State> parameterStates = new TreeMap<>();
+    for (int i = 0; i < numberOfParameters; i++) {
+      final int index = in.getInt();
+      parameterStates.put(index, decode(in.get()));
+    }
+
+    return new MethodNullnessResult(method, maxValueNumber, returnNodes, returnStates, prunedEdges, parameterStates);
+  }
+}
@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes one JSON object per line and method:
+ *
+ * <pre>
+ * {"method":"...","maxValueNumber":n,"blocks":[{"block":b,"states":"0310..."},...],"safeDereferences":[i,...]}
+ * </pre>
+ *
+ * where the k-th character of {@code states} is the {@link PackedNullPointerState#encode(com.ibm.wala.cfg.exc.intra.NullPointerState.State) code}
+ * of value number k + 1, and {@code safeDereferences} are indices into {@link com.ibm.wala.ssa.IR#getInstructions()}.
+ */
+public class NdjsonNullStateReportWriter implements NullStateReportWriter {
+
+  private final Writer out;
+
+  public NdjsonNullStateReportWriter(File file, int bufferSize) throws IOException {
+    this.out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8), bufferSize);
+  }
+
+  public NdjsonNullStateReportWriter(File file) throws IOException {
+    this(file, DEFAULT_BUFFER_SIZE);
+  }
+
+  @Override
+  public synchronized void write(NullStateReport report) throws IOException {
+    final int maxValueNumber = report.getMaxValueNumber();
+    out.write("{\"method\":");
+    writeString(report.getMethod().getSignature());
+    out.write(",\"maxValueNumber\":");
+    out.write(Integer.toString(maxValueNumber));
+    out.write(",\"blocks\":[");
+    for (int i = 0; i < report.getNumberOfBlocks(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      out.write("{\"block\":");
+      out.write(Integer.toString(report.getBlock(i)));
+      out.write(",\"states\":\"");
+      for (int v = 1; v <= maxValueNumber; v++) {
+        out.write('0' + PackedNullPointerState.encode(report.getState(i, v)));
+      }
+      out.write("\"}");
+    }
+    out.write("],\"safeDereferences\":[");
+    for (int i = 0; i < report.getNumberOfSafeDereferences(); i++) {
+      if (i > 0) {
+        out.write(',');
+      }
+      out.write(Integer.toString(report.getSafeDereference(i)));
+    }
+    out.write("]}\n");
+  }
+
+  private void writeString(String s) throws IOException {
+    out.write('"');
+    for (int i = 0; i < s.length(); i++) {
+      final char c = s.charAt(i);
+      if (c == '"' || c == '\\') {
+        out.write('\\');
+        out.write(c);
+      } else if (c < 0x20) {
+        out.write(String.format("\\u%04x", (int) c));
+      } else {
+        out.write(c);
+      }
+    }
+    out.write('"');
+  }
+
+  @Override
+  public synchronized void close() throws IOException {
+    out.close();
+  }
+}
@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Collection;
+
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.NullPointerAnalysis;
+import com.ibm.wala.cfg.exc.intra.ExplodedCFGNullPointerAnalysis;
+import com.ibm.wala.cfg.exc.intra.MethodState;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.cfg.exc.intra.SSACFGNullPointerAnalysis;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.ShrikeCTMethod;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.analysis.IExplodedBasicBlock;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.types.annotations.Annotation;
+import com.ibm.wala.types.annotations.TypeAnnotation;
+import com.ibm.wala.types.annotations.TypeAnnotation.FormalParameterTarget;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+
+/**
+ * Creates intra-procedural null pointer analyses that respect Eclipse null annotations on the analyzed method
+ * and its callees.
+ *
+ * All caches of a factory are thread-safe, so a single factory per {@link IClassHierarchy} may be shared by
+ * concurrent analyses.
+ */
+public class NonNullAnalysisFactory {
+
+  public static final TypeReference NULLABLE = TypeReference.findOrCreate(ClassLoaderReference.Application, "Lorg/eclipse/jdt/annotation/Nullable");
+  public static final TypeReference NONNULL = NonNullReturnSummaries.NONNULL;
+
+  private final IClassHierarchy cha;
+
+  private final NullAnnotationIndex index;
+
+  private final NonNullByDefaultScopeResolver scopeResolver;
+
+  private final NonNullReturnSummaries returnSummaries;
+
+  private final FieldNullness fieldNullness;
+
+  private final IRCache irCache;
+
+  private AnalysisMetrics metrics = AnalysisMetrics.DISABLED;
+
+  public NonNullAnalysisFactory(IClassHierarchy cha) {
+    this(cha, null);
+  }
+
+  /**
+   * Creates a factory that recognizes the null annotations of vocabulary instead of the Eclipse ones.
+   */
+  public NonNullAnalysisFactory(IClassHierarchy cha, NullnessVocabulary vocabulary) {
+    this(cha, null, new IRCache(), vocabulary);
+  }
+
+  /**
+   * Creates a factory that takes the annotations of all methods in index from index, and only decodes the class
+   * files of methods missing from it.
+   */
+  public NonNullAnalysisFactory(IClassHierarchy cha, NullAnnotationIndex index) {
+    this(cha, index, new IRCache());
+  }
+
+  /**
+   * Creates a factory whose IRs are taken from, and kept in, irCache.
+   */
+  public NonNullAnalysisFactory(IClassHierarchy cha, NullAnnotationIndex index, IRCache irCache) {
+    this(cha, index, irCache, (index == null) ? NullnessVocabulary.ECLIPSE : index.getVocabulary());
+  }
+
+  /**
+   * @param vocabulary the annotations to recognize in methods missing from index; should be the one index was built with
+   */
+  public NonNullAnalysisFactory(IClassHierarchy cha, NullAnnotationIndex index, IRCache irCache, NullnessVocabulary vocabulary) {
+    this.cha = cha;
+    this.irCache = irCache;
+    this.index = index;
+    this.scopeResolver = new NonNullByDefaultScopeResolver(vocabulary);
+    this.returnSummaries = new NonNullReturnSummaries(cha, scopeResolver, index, true);
+    this.fieldNullness = new FieldNullness(cha, scopeResolver, index);
+  }
+
+  /**
+   * Creates a factory whose analyses consult returnSummaries for the return values of callees.
+   */
+  public NonNullAnalysisFactory(NonNullAnalysisFactory base, NonNullReturnSummaries returnSummaries) {
+    this.cha = base.cha;
+    this.index = base.index;
+    this.scopeResolver = base.scopeResolver;
+    this.returnSummaries = returnSummaries;
+    this.fieldNullness = base.fieldNullness;
+    this.irCache = base.irCache;
+    this.metrics = base.metrics;
+  }
+
+  public IClassHierarchy getClassHierarchy() {
+    return cha;
+  }
+
+  public NonNullByDefaultScopeResolver getScopeResolver() {
+    return scopeResolver;
+  }
+
+  public NonNullReturnSummaries getReturnSummaries() {
+    return returnSummaries;
+  }
+
+  public FieldNullness getFieldNullness() {
+    return fieldNullness;
+  }
+
+  /**
+   * @return the cache of {@link #makeIR(IMethod)}, shared with all factories derived from this one
+   */
+  public IRCache getIRCache() {
+    return irCache;
+  }
+
+  /**
+   * Times the phases of all analyses created from now on with metrics. Set it before the factory is shared
+   * between threads.
+   */
+  public void setMetrics(AnalysisMetrics metrics) {
+    this.metrics = metrics;
+  }
+
+  public AnalysisMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * @return the index this factory was created with, or null
+   */
+  public NullAnnotationIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * @return the {@code @NonNullByDefault} locations in effect for m
+   */
+  public int defaultsFor(IMethod m) throws InvalidClassFileException {
+    final int id = (index == null) ? -1 : index.indexOf(m.getReference());
+    return (id >= 0) ? index.defaultsOf(id) : scopeResolver.defaultsFor(m);
+  }
+
+  /**
+   * @return the {@link IR} of m from {@link #getIRCache()}; callers must not modify it
+   */
+  public IR makeIR(IMethod m) {
+    final long start = metrics.start();
+    final IR ir = irCache.getIR(m);
+    metrics.stop(AnalysisMetrics.Phase.IR, start);
+    return ir;
+  }
+
+  public ParameterState makeNonNullParameterState(IR ir) throws InvalidClassFileException {
+    return makeNonNullParameterState(ir.getMethod());
+  }
+
+  public ParameterState makeNonNullParameterState(IMethod method) throws InvalidClassFileException {
+    final long start = metrics.start();
+    final ParameterState state = computeNonNullParameterState(method);
+    metrics.stop(AnalysisMetrics.Phase.PARAMETER_STATE, start);
+    return state;
+  }
+
+  /**
+   * As {@link #makeNonNullParameterState(IMethod)}, without timing it.
+   */
+  ParameterState computeNonNullParameterState(IMethod method) throws InvalidClassFileException {
+    final int id = (index == null) ? -1 : index.indexOf(method.getReference());
+    if (id >= 0) {
+      return ParameterStateBuilder.build(method, index, id);
+    }
+    final ShrikeCTMethod m = (ShrikeCTMethod) method;
+    final NullnessVocabulary vocabulary = scopeResolver.getVocabulary();
+    final boolean nonNullByDefault = scopeResolver.nonNullByDefaultForParameters(m);
+    final byte annotation = nonNullByDefault ? NullAnnotationIndex.NULLABLE : NullAnnotationIndex.NONNULL;
+    final int offset = m.isStatic() ? 0 : 1;
+    final Collection<Annotation>[] declared = vocabulary.parameterAnnotationsOf(m);
+    if (ParameterStateBuilder.words(m) == 1) {
+      long annotated = 0L;
+      for (TypeAnnotation ta : m.getTypeAnnotationsAtMethodInfo(true)) {
+        if (ta.getTypeAnnotationTarget() instanceof FormalParameterTarget && vocabulary.kindOf(ta.getAnnotation().getType()) == annotation) {
+          annotated |= 1L << (((FormalParameterTarget) ta.getTypeAnnotationTarget()).getIndex() + offset);
+        }
+      }
+      for (int i = 0; declared != null && i < declared.length; i++) {
+        if (vocabulary.kindOf(declared[i]) == annotation) {
+          annotated |= 1L << (i + offset);
+        }
+      }
+      return nonNullByDefault
+          ? ParameterStateBuilder.build(m, true, 0L, annotated)
+          : ParameterStateBuilder.build(m, false, annotated, 0L);
+    } else {
+      final long[] annotated = new long[ParameterStateBuilder.words(m)];
+      for (TypeAnnotation ta : m.getTypeAnnotationsAtMethodInfo(true)) {
+        if (ta.getTypeAnnotationTarget() instanceof FormalParameterTarget && vocabulary.kindOf(ta.getAnnotation().getType()) == annotation) {
+          final int stateIndex = ((FormalParameterTarget) ta.getTypeAnnotationTarget()).getIndex() + offset;
+          annotated[stateIndex >> 6] |= 1L << (stateIndex & 63);
+        }
+      }
+      for (int i = 0; declared != null && i < declared.length; i++) {
+        if (vocabulary.kindOf(declared[i]) == annotation) {
+          final int stateIndex = i + offset;
+          annotated[stateIndex >> 6] |= 1L << (stateIndex & 63);
+        }
+      }
+      final long[] none = new long[0];
+      return nonNullByDefault
+          ? ParameterStateBuilder.build(m, true, none, annotated)
+          : ParameterStateBuilder.build(m, false, annotated, none);
+    }
+  }
+
+  public ExceptionPruningAnalysis<SSAInstruction, IExplodedBasicBlock> createNonNullRespectingExplodedCFGAnalysis(IR ir) throws InvalidClassFileException {
+    return createNonNullRespectingExplodedCFGAnalysis(ir, makeNonNullParameterState(ir));
+  }
+
+  public ExceptionPruningAnalysis<SSAInstruction, IExplodedBasicBlock> createNonNullRespectingExplodedCFGAnalysis(IR ir, ParameterState parameterState) {
+    return new ExplodedCFGNullPointerAnalysis(
+        NullPointerAnalysis.DEFAULT_IGNORE_EXCEPTIONS,
+        ir,
+        parameterState,
+        timed(returnSummaries.asMethodState()),
+        false
+    );
+  }
+
+  public ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> createNonNullRespectingSSACFGAnalysis(IR ir) throws InvalidClassFileException {
+    return createNonNullRespectingSSACFGAnalysis(ir, makeNonNullParameterState(ir));
+  }
+
+  public ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> createNonNullRespectingSSACFGAnalysis(IR ir, ParameterState parameterState) {
+    return createNonNullRespectingSSACFGAnalysis(ir, parameterState, timed(returnSummaries.asMethodState()));
+  }
+
+  /**
+   * @return methodState, counting its queries as {@link AnalysisMetrics.Phase#METHOD_STATE} if metrics are enabled
+   */
+  private MethodState timed(final MethodState methodState) {
+    final AnalysisMetrics metrics = this.metrics;
+    if (!metrics.isEnabled()) {
+      return methodState;
+    }
+    return new MethodState() {
+      @Override
+      public boolean throwsException(SSAAbstractInvokeInstruction invoke) {
+        final long start = metrics.start();
+        final boolean nonNull = methodState.throwsException(invoke);
+        metrics.stop(AnalysisMetrics.Phase.METHOD_STATE, start);
+        return nonNull;
+      }
+    };
+  }
+
+  public ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> createNonNullRespectingSSACFGAnalysis(IR ir, ParameterState parameterState, MethodState methodState) {
+    return new SSACFGNullPointerAnalysis(
+        NullPointerAnalysis.DEFAULT_IGNORE_EXCEPTIONS,
+        ir,
+        parameterState,
+        methodState
+    );
+  }
+
+  /**
+   * @return an analysis computing the states of {@link #createNonNullRespectingSSACFGAnalysis(IR, ParameterState)}
+   *         sparsely, see {@link SparseNullPointerAnalysis}
+   */
+  public SparseNullPointerAnalysis createSparseSSACFGAnalysis(IR ir, ParameterState parameterState) {
+    return new SparseNullPointerAnalysis(
+        NullPointerAnalysis.DEFAULT_IGNORE_EXCEPTIONS,
+        ir,
+        parameterState,
+        timed(returnSummaries.asMethodState())
+    );
+  }
+
+  /**
+   * @return the analysis of {@link #createNonNullRespectingSSACFGAnalysis(IR, ParameterState)}, refined by the
+   *         non-null fields of {@link #getFieldNullness()}
+   */
+  public FieldAwareNullPointerAnalysis createFieldAwareSSACFGAnalysis(IR ir, ParameterState parameterState) {
+    return new FieldAwareNullPointerAnalysis(ir, createNonNullRespectingSSACFGAnalysis(ir, parameterState), fieldNullness);
+  }
+
+  public MethodNullnessResult analyzeSSACFG(IR ir, IProgressMonitor monitor) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    final ParameterState parameterState = makeNonNullParameterState(ir);
+    final long start = metrics.start();
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis = createFieldAwareSSACFGAnalysis(ir, parameterState);
+    metrics.stop(AnalysisMetrics.Phase.CFG, start);
+    final long computeStart = metrics.start();
+    analysis.compute(monitor);
+    metrics.computed(ir.getMethod().getReference(), computeStart);
+    return MethodNullnessResult.of(ir, analysis, parameterState);
+  }
+
+  /**
+   * As {@link #analyzeSSACFG(IR, IProgressMonitor)}, with the states of {@link SparseNullPointerAnalysis} and
+   * without the non-null fields.
+   */
+  public MethodNullnessResult analyzeSparseSSACFG(IR ir, IProgressMonitor monitor) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    final ParameterState parameterState = makeNonNullParameterState(ir);
+    final long start = metrics.start();
+    final SparseNullPointerAnalysis analysis = createSparseSSACFGAnalysis(ir, parameterState);
+    metrics.stop(AnalysisMetrics.Phase.CFG, start);
+    final long computeStart = metrics.start();
+    analysis.compute(monitor);
+    metrics.computed(ir.getMethod().getReference(), computeStart);
+    return MethodNullnessResult.ofSparse(ir, analysis, parameterState);
+  }
+
+  public MethodNullnessResult analyzeExplodedCFG(IR ir, IProgressMonitor monitor) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    final ParameterState parameterState = makeNonNullParameterState(ir);
+    final long start = metrics.start();
+    final ExceptionPruningAnalysis<SSAInstruction, IExplodedBasicBlock> analysis = createNonNullRespectingExplodedCFGAnalysis(ir, parameterState);
+    metrics.stop(AnalysisMetrics.Phase.CFG, start);
+    final long computeStart = metrics.start();
+    analysis.compute(monitor);
+    metrics.computed(ir.getMethod().getReference(), computeStart);
+    return MethodNullnessResult.ofExploded(ir, analysis, parameterState);
+  }
+}
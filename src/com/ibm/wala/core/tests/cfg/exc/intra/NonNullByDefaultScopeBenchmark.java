@@ -0,0 +1,86 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+
+/**
+ * Compares resolving the {@code @NonNullByDefault} scope of every method from scratch against a shared
+ * {@link NonNullByDefaultScopeResolver}, on the deeply nested inner and anonymous classes of
+ * {@code cfg.exc.intra.NonNullByDefaultPackageScope}.
+ */
+public class NonNullByDefaultScopeBenchmark {
+
+  private static final String SUBJECT_PACKAGE = "Lcfg/exc/intra/NonNullByDefaultPackageScope/";
+
+  private static final int WARMUP_ROUNDS = 100;
+
+  private static final int ROUNDS = 1000;
+
+  public static void main(String[] args) throws Exception {
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy();
+    final List<IMethod> methods = new ArrayList<>();
+    for (IClass c : cha) {
+      if (c.getClassLoader().getReference().equals(ClassLoaderReference.Application)
+          && c.getName().toString().startsWith(SUBJECT_PACKAGE)) {
+        methods.addAll(c.getDeclaredMethods());
+      }
+    }
+    System.out.println("methods: " + methods.size());
+
+    uncached(methods, WARMUP_ROUNDS);
+    cached(methods, WARMUP_ROUNDS);
+
+    final long[] uncached = uncached(methods, ROUNDS);
+    final long[] cached = cached(methods, ROUNDS);
+    if (uncached[1] != cached[1]) {
+      throw new IllegalStateException("cached and uncached defaults differ");
+    }
+    final long queries = (long) methods.size() * ROUNDS;
+    System.out.println("uncached: " + (uncached[0] / queries) + " ns/method");
+    System.out.println("cached:   " + (cached[0] / queries) + " ns/method");
+    System.out.println("checksum: " + cached[1]);
+  }
+
+  /**
+   * @return the time taken, and the sum of all defaults resolved
+   */
+  private static long[] uncached(List<IMethod> methods, int rounds) throws Exception {
+    long checksum = 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      for (IMethod m : methods) {
+        checksum += new NonNullByDefaultScopeResolver().defaultsFor(m);
+      }
+    }
+    return new long[] { System.nanoTime() - start, checksum };
+  }
+
+  private static long[] cached(List<IMethod> methods, int rounds) throws Exception {
+    final NonNullByDefaultScopeResolver resolver = new NonNullByDefaultScopeResolver();
+    long checksum = 0;
+    final long start = System.nanoTime();
+    for (int i = 0; i < rounds; i++) {
+      for (IMethod m : methods) {
+        checksum += resolver.defaultsFor(m);
+      }
+    }
+    final long time = System.nanoTime() - start;
+    System.out.println("resolved scopes: " + resolver.numberOfResolvedScopes());
+    return new long[] { time, checksum };
+  }
+}
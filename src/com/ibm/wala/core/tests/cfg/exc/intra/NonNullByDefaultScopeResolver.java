@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.ShrikeClass;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.TypeName;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.types.annotations.Annotation;
+import com.ibm.wala.util.collections.Pair;
+import com.ibm.wala.util.strings.Atom;
+
+/**
+ * Resolves the locations covered by {@code @NonNullByDefault} for classes, packages and methods.
+ *
+ * A scope inherits the defaults of its enclosing scope: methods from their declaring class, inner classes
+ * from their enclosing method (or class), and top level classes from their {@code package-info}.
+ * Every scope is resolved at most once and memoized, so one resolver should be used per
+ * {@link com.ibm.wala.ipa.cha.ClassHierarchy}.
+ *
+ * Default locations are encoded as bitmasks of the constants {@link #PARAMETER}, {@link #RETURN_TYPE}, ...
+ * mirroring {@code org.eclipse.jdt.annotation.DefaultLocation}. Which annotations declare defaults is up to the
+ * {@link NullnessVocabulary} of the resolver.
+ */
+public class NonNullByDefaultScopeResolver {
+
+  public static final TypeReference NONNULLBYDEFAULT = TypeReference.findOrCreate(ClassLoaderReference.Application, "Lorg/eclipse/jdt/annotation/NonNullByDefault");
+
+  public static final int NONE           = 0;
+  public static final int PARAMETER      = 1 << 0;
+  public static final int RETURN_TYPE    = 1 << 1;
+  public static final int FIELD          = 1 << 2;
+  public static final int TYPE_PARAMETER = 1 << 3;
+  public static final int TYPE_BOUND     = 1 << 4;
+  public static final int TYPE_ARGUMENT  = 1 << 5;
+  public static final int ARRAY_CONTENTS = 1 << 6;
+
+  /**
+   * The locations affected by a {@code @NonNullByDefault} without explicit value.
+   */
+  public static final int DEFAULT_LOCATIONS = PARAMETER | RETURN_TYPE | FIELD | TYPE_BOUND | TYPE_ARGUMENT;
+
+  private static final String PACKAGE_INFO = "package-info";
+
+  private final Map<IClass, Integer> classDefaults = new ConcurrentHashMap<>();
+
+  /**
+   * Keyed by loader and package, as packages of the same name in different loaders are different packages.
+   */
+  private final Map<Pair<ClassLoaderReference, Atom>, Integer> packageDefaults = new ConcurrentHashMap<>();
+
+  private final Map<IMethod, Integer> methodDefaults = new ConcurrentHashMap<>();
+
+  private final NullnessVocabulary vocabulary;
+
+  public NonNullByDefaultScopeResolver() {
+    this(NullnessVocabulary.ECLIPSE);
+  }
+
+  public NonNullByDefaultScopeResolver(NullnessVocabulary vocabulary) {
+    this.vocabulary = vocabulary;
+  }
+
+  public NullnessVocabulary getVocabulary() {
+    return vocabulary;
+  }
+
+  /**
+   * @return the default locations in effect for the signature and body of method m
+   */
+  public int defaultsFor(IMethod m) throws InvalidClassFileException {
+    final Integer cached = methodDefaults.get(m);
+    if (cached != null) {
+      return cached;
+    }
+    final int fromParent = defaultsFor(m.getDeclaringClass());
+    final int defaults = fromParent | vocabulary.locationsOf(m.getAnnotations());
+
+    // the scope chain may be resolved concurrently, but always to the same value.
+    methodDefaults.putIfAbsent(m, defaults);
+    return defaults;
+  }
+
+  /**
+   * @return the default locations in effect for the members of class clazz
+   */
+  public int defaultsFor(IClass clazz) throws InvalidClassFileException {
+    final Integer cached = classDefaults.get(clazz);
+    if (cached != null) {
+      return cached;
+    }
+    final ShrikeClass shrikeClass = (ShrikeClass) clazz;
+    final int fromParent;
+    if (shrikeClass.isInnerClass()) {
+      final IMethod enclosingMethod = shrikeClass.getEnclosingMethod();
+      if (enclosingMethod != null) {
+        fromParent = defaultsFor(enclosingMethod);
+      } else {
+        fromParent = defaultsFor(shrikeClass.getEnclosingMethodClass());
+      }
+    } else {
+      fromParent = defaultsForPackage(clazz);
+    }
+    final int defaults = fromParent | vocabulary.locationsOf(shrikeClass.getAnnotations());
+
+    classDefaults.putIfAbsent(clazz, defaults);
+    return defaults;
+  }
+
+  /**
+   * @return the default locations declared in the {@code package-info} of the package of class clazz
+   */
+  public int defaultsForPackage(IClass clazz) {
+    final Atom packge = clazz.getName().getPackage();
+    if (packge == null) {
+      // the default package cannot be annotated.
+      return NONE;
+    }
+    final Pair<ClassLoaderReference, Atom> key = Pair.make(clazz.getClassLoader().getReference(), packge);
+    final Integer cached = packageDefaults.get(key);
+    if (cached != null) {
+      return cached;
+    }
+    final TypeName packageInfoName = TypeName.findOrCreateClassName(packge.toString(), PACKAGE_INFO);
+    final IClass packageInfo = clazz.getClassLoader().lookupClass(packageInfoName);
+    final int defaults = (packageInfo == null) ? NONE : vocabulary.locationsOf(((ShrikeClass) packageInfo).getAnnotations());
+
+    packageDefaults.putIfAbsent(key, defaults);
+    return defaults;
+  }
+
+  public boolean nonNullByDefaultForParameters(IMethod m) throws InvalidClassFileException {
+    return (defaultsFor(m) & PARAMETER) != 0;
+  }
+
+  /**
+   * @return the number of scopes (classes, packages and methods) resolved so far.
+   */
+  public int numberOfResolvedScopes() {
+    return classDefaults.size() + packageDefaults.size() + methodDefaults.size();
+  }
+
+  /**
+   * @return the default locations declared by the {@code @NonNullByDefault} annotations among annotations
+   */
+  public static int locationsOf(Collection<Annotation> annotations) {
+    return NullnessVocabulary.ECLIPSE.locationsOf(annotations);
+  }
+
+  public static int locationOf(String defaultLocation) {
+    switch (defaultLocation) {
+      case "PARAMETER":      return PARAMETER;
+      case "RETURN_TYPE":    return RETURN_TYPE;
+      case "FIELD":          return FIELD;
+      case "TYPE_PARAMETER": return TYPE_PARAMETER;
+      case "TYPE_BOUND":     return TYPE_BOUND;
+      case "TYPE_ARGUMENT":  return TYPE_ARGUMENT;
+      case "ARRAY_CONTENTS": return ARRAY_CONTENTS;
+      default:               return NONE;
+    }
+  }
+}
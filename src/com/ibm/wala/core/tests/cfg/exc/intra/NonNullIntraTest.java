@@ -11,61 +11,65 @@
 package com.ibm.wala.core.tests.cfg.exc.intra;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import org.junit.AfterClass;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
 import com.ibm.wala.cfg.ControlFlowGraph;
 import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
 import com.ibm.wala.cfg.exc.NullPointerAnalysis;
-import com.ibm.wala.cfg.exc.intra.ExplodedCFGNullPointerAnalysis;
 import com.ibm.wala.cfg.exc.intra.IntraprocNullPointerAnalysis;
-import com.ibm.wala.cfg.exc.intra.MethodState;
 import com.ibm.wala.cfg.exc.intra.NullPointerState;
 import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
 import com.ibm.wala.cfg.exc.intra.ParameterState;
-import com.ibm.wala.cfg.exc.intra.SSACFGNullPointerAnalysis;
 import com.ibm.wala.classLoader.ClassLoaderFactory;
 import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
 import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IField;
 import com.ibm.wala.classLoader.IMethod;
-import com.ibm.wala.classLoader.ShrikeCTMethod;
-import com.ibm.wala.classLoader.ShrikeClass;
 import com.ibm.wala.core.tests.util.WalaTestCase;
-import com.ibm.wala.ipa.callgraph.AnalysisCache;
 import com.ibm.wala.ipa.callgraph.AnalysisScope;
 import com.ibm.wala.ipa.cha.ClassHierarchy;
 import com.ibm.wala.ipa.cha.ClassHierarchyException;
-import com.ibm.wala.shrikeCT.AnnotationsReader.ArrayElementValue;
-import com.ibm.wala.shrikeCT.AnnotationsReader.ElementValue;
-import com.ibm.wala.shrikeCT.AnnotationsReader.EnumElementValue;
 import com.ibm.wala.shrikeCT.InvalidClassFileException;
-import com.ibm.wala.shrikeCT.TypeAnnotationsReader.TargetType;
 import com.ibm.wala.ssa.IR;
 import com.ibm.wala.ssa.ISSABasicBlock;
 import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAGetInstruction;
 import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAPutInstruction;
 import com.ibm.wala.ssa.SSAReturnInstruction;
 import com.ibm.wala.ssa.analysis.IExplodedBasicBlock;
 import com.ibm.wala.types.ClassLoaderReference;
 import com.ibm.wala.types.MethodReference;
-import com.ibm.wala.types.TypeName;
 import com.ibm.wala.types.TypeReference;
-import com.ibm.wala.types.annotations.TypeAnnotation.FormalParameterTarget;
 import com.ibm.wala.util.CancelException;
 import com.ibm.wala.util.NullProgressMonitor;
 import com.ibm.wala.util.config.AnalysisScopeReader;
 import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
 import com.ibm.wala.util.io.FileProvider;
-import com.ibm.wala.util.strings.Atom;
 import com.ibm.wala.util.strings.StringStuff;
 import com.ibm.wala.util.warnings.Warnings;
 
@@ -78,7 +82,9 @@ public class NonNullIntraTest extends WalaTestCase {
   private static AnalysisScope scope;
 
   private static ClassHierarchy cha;
-  
+
+  private static NonNullAnalysisFactory analyses;
+
   private static String NONNULL_TESTDATA = "dat" + File.separator + "eclipse-nullannotation.testdata.txt";
 
   @BeforeClass
@@ -90,6 +96,7 @@ public class NonNullIntraTest extends WalaTestCase {
 
     try {
       cha = ClassHierarchy.make(scope, factory);
+      analyses = new NonNullAnalysisFactory(cha);
     } catch (ClassHierarchyException e) {
       throw new Exception();
     }
@@ -100,155 +107,19 @@ public class NonNullIntraTest extends WalaTestCase {
     Warnings.clear();
     scope = null;
     cha = null;
+    analyses = null;
   }
 
   public static void main(String[] args) {
     justThisTest(NonNullIntraTest.class);
   }
 
-  private static final TypeReference NULLABLE = TypeReference.findOrCreate(ClassLoaderReference.Application, "Lorg/eclipse/jdt/annotation/Nullable");
-  private static final TypeReference NONNULL = TypeReference.findOrCreate(ClassLoaderReference.Application, "Lorg/eclipse/jdt/annotation/NonNull"); 
-  private static final TypeReference NONNULLBYDEFAULT = TypeReference.findOrCreate(ClassLoaderReference.Application, "Lorg/eclipse/jdt/annotation/NonNullByDefault");
-  
-  private static ParameterState makeNonNullParameterState(IR ir) throws InvalidClassFileException {
-    final ShrikeCTMethod m = (ShrikeCTMethod) ir.getMethod();
-    final ParameterState state = ParameterState.createDefault(m);
-    
-    boolean nonNullByDefault = nonNullByDefaultForParameters(m);
-    Set<Integer> nullable = new HashSet<>();
-    if (nonNullByDefault) {
-      m.getTypeAnnotationsAtMethodInfo(true)
-      .stream()
-      .filter(ta -> ta.getTypeAnnotationTarget().getClass().equals(FormalParameterTarget.class))
-      .filter(ta ->
-        ta.getAnnotation().getType().equals(NULLABLE)
-       )
-      .forEach(ta -> {
-        final FormalParameterTarget formal = (FormalParameterTarget) ta.getTypeAnnotationTarget();
-        final int stateIndex = formal.getIndex() + (m.isStatic() ? 0 : 1);
-        state.setState(stateIndex, State.UNKNOWN);
-        nullable.add(stateIndex);
-      });
-      for (int p = 0; p < m.getNumberOfParameters(); p++) {
-        final int stateIndex = p + (m.isStatic() ? 0 : 1);
-        if (!nullable.contains(stateIndex)) {
-          state.setState(stateIndex, State.NOT_NULL);
-        }
-      }
-    } else {
-      m.getTypeAnnotationsAtMethodInfo(true)
-      .stream()
-      .filter(ta -> ta.getTypeAnnotationTarget().getClass().equals(FormalParameterTarget.class))
-      .filter(ta ->
-        ta.getAnnotation().getType().equals(NONNULL)
-       )
-      .forEach(ta -> {
-        final FormalParameterTarget formal = (FormalParameterTarget) ta.getTypeAnnotationTarget();
-        final int stateIndex = formal.getIndex() + (m.isStatic() ? 0 : 1);
-        state.setState(stateIndex, State.NOT_NULL);
-     });
-    }
-    return state;
-  }
-  
-  private static IClass packageInfoFor(IClass clazz) {
-    final TypeName name = clazz.getName();
-    final Atom packge = name.getPackage();
-    final TypeName packageInfoName = TypeName.findOrCreateClassName(
-        packge.toString(),
-        "package-info"
-    );
-    return clazz.getClassLoader().lookupClass(packageInfoName);
-  }
-  
-  private static boolean nonNullByDefaultForParameters(ShrikeClass clazz) throws InvalidClassFileException {
-    ShrikeClass packageInfo;
-    boolean nonNullByDefaultFromParent = false;
-    if (clazz.isInnerClass()) {
-      IMethod enclosingMethod = clazz.getEnclosingMethod();
-      if (enclosingMethod != null) {
-        nonNullByDefaultFromParent = nonNullByDefaultForParameters(enclosingMethod);
-      } else {
-        ShrikeClass enclosingClass = (ShrikeClass) clazz.getEnclosingMethodClass();
-        nonNullByDefaultFromParent = nonNullByDefaultForParameters(enclosingClass);
-      }
-    } else if ((packageInfo = (ShrikeClass) packageInfoFor(clazz)) != null) {
-      nonNullByDefaultFromParent = nonNullByDefaultForParameters(packageInfo);
-    }
-    
-    return clazz.getAnnotations()
-      .stream()
-      .filter(a -> a.getType().equals(NONNULLBYDEFAULT))
-      .map(a -> {
-        final Map<String, ElementValue> namedArguments = a.getNamedArguments();
-        boolean isDefault = namedArguments.get("value") == null;
-        if (isDefault) {
-          return true;
-        } else {
-          return false; 
-        }
-      })
-      .reduce(nonNullByDefaultFromParent, Boolean::logicalOr);
-  }
-  
-  private static boolean nonNullByDefaultForParameters(IMethod method) throws InvalidClassFileException {
-    boolean nonNullByDefaultFromParent = false;
-    ShrikeClass enclosingClass = (ShrikeClass) method.getDeclaringClass();
-    nonNullByDefaultFromParent = nonNullByDefaultForParameters(enclosingClass);
-    return method.getAnnotations()
-      .stream()
-      .filter(a -> a.getType().equals(NONNULLBYDEFAULT))
-      .map(a -> {
-        final Map<String, ElementValue> namedArguments = a.getNamedArguments();
-        boolean isDefault = namedArguments.get("value") == null;
-        if (isDefault) {
-          return true;
-        } else {
-          ArrayElementValue value = (ArrayElementValue) namedArguments.get("value");
-          return Arrays.stream(value.vals).map( e -> ((EnumElementValue)e).enumVal).anyMatch("PARAMETER"::equals); 
-        }
-      })
-      .reduce(nonNullByDefaultFromParent, Boolean::logicalOr);
-  }
-
-  
-  private static MethodState makeNonNullMethodState(final ClassHierarchy cha) {
-    return new MethodState() {
-      @Override
-      public boolean throwsException(SSAAbstractInvokeInstruction node) {
-        final MethodReference mref = node.getDeclaredTarget();
-        final ShrikeCTMethod m = (ShrikeCTMethod) cha.resolveMethod(mref);
-        try {
-          return m.getTypeAnnotationsAtMethodInfo(true)
-          .stream()
-          .filter(ta -> ta.getTargetType().equals(TargetType.METHOD_RETURN))
-          .filter(ta -> ta.getAnnotation().getType().equals(NONNULL))
-          .findAny()
-          .isPresent();
-        } catch (InvalidClassFileException e) {
-          return true;
-        }
-      }
-    };
-  }
-  
   private static ExceptionPruningAnalysis<SSAInstruction, IExplodedBasicBlock> createNonNullRespectingExplodedCFGAnalysis(IR ir) throws InvalidClassFileException {
-    return new ExplodedCFGNullPointerAnalysis(
-        NullPointerAnalysis.DEFAULT_IGNORE_EXCEPTIONS,
-        ir,
-        makeNonNullParameterState(ir),
-        makeNonNullMethodState(cha),
-        false
-    );
+    return analyses.createNonNullRespectingExplodedCFGAnalysis(ir);
   }
   
   private static ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> createNonNullRespectingSSACFGAnalysis(IR ir) throws InvalidClassFileException {
-    return new SSACFGNullPointerAnalysis(
-        NullPointerAnalysis.DEFAULT_IGNORE_EXCEPTIONS,
-        ir,
-        makeNonNullParameterState(ir),
-        makeNonNullMethodState(cha)
-    );
+    return analyses.createNonNullRespectingSSACFGAnalysis(ir);
   }
   
   @Test
@@ -256,8 +127,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testParam(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -290,8 +160,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -324,8 +193,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testParam(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -358,8 +226,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -393,8 +260,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -427,8 +293,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testDynamicParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -462,8 +327,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -496,8 +360,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -530,8 +393,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -564,8 +426,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testIf2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -598,8 +459,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIf2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -632,8 +492,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testIf2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -667,8 +526,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testIfContinued(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -701,8 +559,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIfContinued(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -735,8 +592,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testIfContinued(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -769,8 +625,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testIf3(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -802,8 +657,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIf3(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -836,8 +690,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testIf3(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -870,8 +723,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testWhile(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -906,8 +758,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testWhile(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -942,8 +793,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testWhile(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -978,8 +828,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testWhile2(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -1012,8 +861,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testWhile2(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -1046,8 +894,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testWhile2(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -1080,8 +927,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testGet(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -1116,8 +962,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testGet(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -1152,8 +997,7 @@ public class NonNullIntraTest extends WalaTestCase {
     MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testGet(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
 
     IMethod m = cha.resolveMethod(mr);
-    AnalysisCache cache = new AnalysisCache();
-    IR ir = cache.getIR(m);
+    IR ir = analyses.makeIR(m);
     final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
     final int returnVal = returnVal(returnNode);
 
@@ -1183,6 +1027,948 @@ public class NonNullIntraTest extends WalaTestCase {
     }    
   }
 
+  @Test
+  public void testScopeResolverPackageScope() throws InvalidClassFileException {
+    MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.NonNullByDefaultPackageScope.NonNullByDefaultScopeExperiment$Outer$Innter.foo(Ljava/lang/Object;Ljava/lang/Object;)V");
+
+    IMethod m = cha.resolveMethod(mr);
+    NonNullByDefaultScopeResolver resolver = new NonNullByDefaultScopeResolver();
+    final int defaults = resolver.defaultsFor(m);
+
+    Assert.assertEquals(NonNullByDefaultScopeResolver.DEFAULT_LOCATIONS, defaults);
+    Assert.assertEquals(NonNullByDefaultScopeResolver.NONE, resolver.defaultsFor(
+        cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Application, "Lcfg/exc/intra/FieldAccessNonNullByDefault"))));
+
+    final int resolved = resolver.numberOfResolvedScopes();
+    Assert.assertEquals(defaults, resolver.defaultsFor(m));
+    Assert.assertEquals(resolved, resolver.numberOfResolvedScopes());
+  }
+
+  @Test
+  public void testReturnSummaries() {
+    MethodReference nonNull = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    MethodReference unannotated = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testParam(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+
+    NonNullReturnSummaries summaries = new NonNullReturnSummaries(cha);
+    Assert.assertTrue(summaries.returnsNonNull(nonNull));
+    Assert.assertTrue(summaries.returnsNonNull(nonNull));
+    Assert.assertFalse(summaries.returnsNonNull(unannotated));
+
+    Assert.assertEquals(2, summaries.getMisses());
+    Assert.assertEquals(1, summaries.getHits());
+  }
+
+  @Test
+  public void testReturnTypeDefaults() throws Exception {
+    final MethodReference byDefault = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final MethodReference nullable = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final MethodReference fieldsOnly = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIf3(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
+
+    Assert.assertTrue(analyses.getReturnSummaries().returnsNonNull(byDefault));
+    Assert.assertFalse(analyses.getReturnSummaries().returnsNonNull(nullable));
+    Assert.assertFalse(analyses.getReturnSummaries().returnsNonNull(fieldsOnly));
+    Assert.assertFalse(new NonNullReturnSummaries(cha, new NonNullByDefaultScopeResolver(), null, false).returnsNonNull(byDefault));
+
+    // the class level default makes the call in testCall() safe.
+    final IR ir = analyses.makeIR(cha.resolveMethod(StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessReturnDefaults.testCall()I")));
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> intraSSACFG = createNonNullRespectingSSACFGAnalysis(ir);
+    intraSSACFG.compute(new NullProgressMonitor());
+    final SSAInstruction[] instructions = ir.getInstructions();
+    for (int i = 0; i < instructions.length; i++) {
+      if (instructions[i] instanceof SSAGetInstruction) {
+        Assert.assertTrue(intraSSACFG.getCFG().getExceptionalSuccessors(ir.getControlFlowGraph().getBlockForInstruction(i)).isEmpty());
+      }
+    }
+  }
+
+  @Test
+  public void testNullnessVocabulary() throws InvalidClassFileException {
+    final IMethod testParam = cha.resolveMethod(StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessJsr305.testParam(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)I"));
+    final MethodReference make = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessJsr305.make()Lcfg/exc/intra/B");
+    final NullnessVocabulary both = NullnessVocabulary.of(NullnessVocabulary.Family.ECLIPSE, NullnessVocabulary.Family.JSR305);
+
+    Assert.assertEquals(NullAnnotationIndex.NONNULL, both.kindOf(TypeReference.findOrCreate(ClassLoaderReference.Application, "Ljavax/annotation/Nonnull")));
+    Assert.assertEquals(NullAnnotationIndex.UNANNOTATED, NullnessVocabulary.ECLIPSE.kindOf(TypeReference.findOrCreate(ClassLoaderReference.Application, "Ljavax/annotation/Nonnull")));
+
+    // @ParametersAreNonnullByDefault covers b1, but not the @Nullable b2.
+    final Map<Integer, State> states = new NonNullAnalysisFactory(cha, both).makeNonNullParameterState(testParam).getStates();
+    Assert.assertEquals(State.NOT_NULL, states.get(1));
+    Assert.assertNotEquals(State.NOT_NULL, states.get(2));
+    Assert.assertTrue(new NonNullReturnSummaries(cha, new NonNullByDefaultScopeResolver(both), null, true).returnsNonNull(make));
+
+    final NullAnnotationIndex index = NullAnnotationIndex.build(cha, null, both);
+    Assert.assertSame(both, index.getVocabulary());
+    Assert.assertEquals(states, new NonNullAnalysisFactory(cha, index).makeNonNullParameterState(testParam).getStates());
+    Assert.assertTrue(new NonNullReturnSummaries(cha, index).returnsNonNull(make));
+
+    // the Eclipse vocabulary does not know jsr305.
+    Assert.assertNotEquals(State.NOT_NULL, analyses.makeNonNullParameterState(testParam).getStates().get(1));
+    Assert.assertFalse(new NonNullReturnSummaries(cha).returnsNonNull(make));
+
+    // @Nonnull only means non-null when ALWAYS: MAYBE overrides the default, UNKNOWN leaves it to the default.
+    final IMethod testWhen = cha.resolveMethod(StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessJsr305.testWhen(Lcfg/exc/intra/B;Lcfg/exc/intra/B;Lcfg/exc/intra/B;)I"));
+    final MethodReference maybe = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessJsr305.maybe()Lcfg/exc/intra/B");
+    final Map<Integer, State> whenStates = new NonNullAnalysisFactory(cha, both).makeNonNullParameterState(testWhen).getStates();
+    Assert.assertEquals(State.NOT_NULL, whenStates.get(0));
+    Assert.assertNotEquals(State.NOT_NULL, whenStates.get(1));
+    Assert.assertEquals(State.NOT_NULL, whenStates.get(2));
+    Assert.assertEquals(whenStates, new NonNullAnalysisFactory(cha, index).makeNonNullParameterState(testWhen).getStates());
+    Assert.assertFalse(new NonNullReturnSummaries(cha, new NonNullByDefaultScopeResolver(both), null, true).returnsNonNull(maybe));
+    Assert.assertFalse(new NonNullReturnSummaries(cha, index).returnsNonNull(maybe));
+  }
+
+  @Test
+  public void testDriver() {
+    final MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final Map<MethodReference, MethodNullnessResult> results = new ConcurrentHashMap<>();
+    final Set<IMethod> failed = ConcurrentHashMap.newKeySet();
+
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    driver.analyzeAll(new NullPointerAnalysisDriver.MethodResultSink() {
+      @Override
+      public void analyzed(MethodNullnessResult result) {
+        results.put(result.getMethod(), result);
+      }
+
+      @Override
+      public void failed(IMethod m, Exception e) {
+        failed.add(m);
+      }
+    });
+
+    Assert.assertEquals(NullPointerAnalysisDriver.applicationMethods(cha).size(), results.size() + failed.size());
+    Assert.assertFalse(failed.contains(cha.resolveMethod(mr)));
+
+    final MethodNullnessResult result = results.get(mr);
+    Assert.assertEquals(1, result.getNumberOfReturnNodes());
+    final ISSABasicBlock returnNode = returnNode(driver.makeIR(cha.resolveMethod(mr)).getControlFlowGraph());
+    Assert.assertEquals(State.NOT_NULL, result.getReturnState(0, returnVal(returnNode)));
+  }
+
+  @Test
+  public void testAdaptive() throws UnsoundGraphException, CancelException, InvalidClassFileException {
+    MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testIfContinued(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+
+    IMethod m = cha.resolveMethod(mr);
+    IR ir = analyses.makeIR(m);
+    final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
+    final int returnVal = returnVal(returnNode);
+
+    {
+      AdaptiveNullPointerAnalysis adaptive = new AdaptiveNullPointerAnalysis(analyses, Integer.MAX_VALUE);
+      MethodNullnessResult result = adaptive.analyze(ir, new NullProgressMonitor());
+
+      Assert.assertEquals(1, adaptive.getExplodedBySize());
+      Assert.assertEquals(returnNode.getNumber(), result.getReturnNode(0));
+      Assert.assertEquals(State.NOT_NULL, result.getReturnState(0, returnVal));
+    }
+    {
+      AdaptiveNullPointerAnalysis adaptive = new AdaptiveNullPointerAnalysis(analyses, 0);
+      MethodNullnessResult result = adaptive.analyze(ir, new NullProgressMonitor());
+
+      Assert.assertEquals(0, adaptive.getExplodedBySize());
+      Assert.assertEquals(1, adaptive.getAnalyzed());
+      Assert.assertEquals(State.NOT_NULL, result.getReturnState(0, returnVal));
+    }
+    {
+      MethodReference phi = StringStuff.makeMethodReference("cfg.exc.intra.PhiDereference.testPhi(ZLcfg/exc/intra/B;)I");
+      IR phiIR = analyses.makeIR(cha.resolveMethod(phi));
+      Assert.assertTrue(AdaptiveNullPointerAnalysis.mayBenefitFromExplodedCFG(phiIR, analyses.analyzeSSACFG(phiIR, new NullProgressMonitor())));
+
+      AdaptiveNullPointerAnalysis adaptive = new AdaptiveNullPointerAnalysis(analyses, 0);
+      adaptive.analyze(phiIR, new NullProgressMonitor());
+      Assert.assertEquals(1, adaptive.getEscalated());
+    }
+  }
+
+  @Test
+  public void testResultStore() throws Exception {
+    MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    IMethod m = cha.resolveMethod(mr);
+    File file = File.createTempFile("nullness", ".store");
+    file.deleteOnExit();
+
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    final MethodNullnessResult computed;
+    try (PersistentResultStore store = PersistentResultStore.open(file, driver.getAnalyzerName())) {
+      driver.setResultStore(store);
+      computed = driver.analyze(m);
+      Assert.assertEquals(1, store.getMisses());
+    }
+    try (PersistentResultStore store = PersistentResultStore.open(file, driver.getAnalyzerName())) {
+      driver.setResultStore(store);
+      final MethodNullnessResult stored = driver.analyze(m);
+      Assert.assertEquals(1, store.getHits());
+      Assert.assertEquals(0, store.getMisses());
+
+      Assert.assertEquals(computed.getNumberOfPrunedEdges(), stored.getNumberOfPrunedEdges());
+      Assert.assertEquals(computed.getParameterStates(), stored.getParameterStates());
+      for (int v = 1; v <= computed.getMaxValueNumber(); v++) {
+        Assert.assertEquals(computed.getReturnState(0, v), stored.getReturnState(0, v));
+      }
+    }
+
+    // results of another analyzer are not served.
+    final NullPointerAnalysisDriver adaptive = new NullPointerAnalysisDriver(analyses, new AdaptiveNullPointerAnalysis(analyses), ForkJoinPool.commonPool());
+    Assert.assertNotEquals(driver.getAnalyzerName(), adaptive.getAnalyzerName());
+    try (PersistentResultStore store = PersistentResultStore.open(file, adaptive.getAnalyzerName())) {
+      Assert.assertEquals(0, store.size());
+      try {
+        driver.setResultStore(store);
+        Assert.fail("store of another analyzer accepted");
+      } catch (IllegalArgumentException e) {
+        // expected
+      }
+    }
+  }
+
+  @Test
+  public void testResultStoreFlushTwice() throws Exception {
+    final IMethod m = cha.resolveMethod(StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B"));
+    final IMethod other = cha.resolveMethod(StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B"));
+    File file = File.createTempFile("nullness", ".store");
+    file.deleteOnExit();
+
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    try (PersistentResultStore store = PersistentResultStore.open(file, driver.getAnalyzerName())) {
+      driver.setResultStore(store);
+      driver.analyze(m);
+    }
+    final long length;
+    try (PersistentResultStore store = PersistentResultStore.open(file, driver.getAnalyzerName())) {
+      driver.setResultStore(store);
+      driver.analyze(m);
+      driver.analyze(other);
+      store.flush(false);
+      length = file.length();
+      Assert.assertEquals(2, store.size());
+
+      // served from the new file, and written once more each.
+      driver.analyze(other);
+      Assert.assertEquals(2, store.getHits());
+      store.flush(true);
+      Assert.assertEquals(length, file.length());
+      Assert.assertEquals(2, store.size());
+    }
+    Assert.assertEquals(length, file.length());
+    try (PersistentResultStore store = PersistentResultStore.open(file, driver.getAnalyzerName())) {
+      driver.setResultStore(store);
+      Assert.assertEquals(2, store.size());
+      driver.analyze(m);
+      driver.analyze(other);
+      Assert.assertEquals(2, store.getHits());
+      Assert.assertEquals(0, store.getMisses());
+    }
+  }
+
+  @Test
+  public void testDeduplication() throws Exception {
+    final List<IMethod> methods = NullPointerAnalysisDriver.applicationMethods(cha);
+    final List<IMethod> twice = new ArrayList<>(methods);
+    twice.addAll(methods);
+    final Map<MethodReference, MethodNullnessResult> results = new ConcurrentHashMap<>();
+
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    final MethodDeduplicator deduplicator = new MethodDeduplicator();
+    driver.setDeduplicator(deduplicator);
+    driver.analyze(twice, result -> results.put(result.getMethod(), result));
+
+    // every method analyzed without failure is its own duplicate the second time.
+    Assert.assertTrue(deduplicator.getNumberOfDuplicates() >= results.size());
+    Assert.assertTrue(deduplicator.size() <= results.size());
+    Assert.assertTrue(deduplicator.getDeduplicationRatio() >= 0.5);
+
+    final NullPointerAnalysisDriver plain = new NullPointerAnalysisDriver(analyses);
+    for (MethodNullnessResult deduplicated : results.values()) {
+      final MethodNullnessResult computed = plain.analyze(cha.resolveMethod(deduplicated.getMethod()));
+      Assert.assertEquals(computed.getNumberOfPrunedEdges(), deduplicated.getNumberOfPrunedEdges());
+      Assert.assertEquals(computed.getParameterStates(), deduplicated.getParameterStates());
+      Assert.assertEquals(computed.getNumberOfReturnNodes(), deduplicated.getNumberOfReturnNodes());
+      for (int i = 0; i < computed.getNumberOfReturnNodes(); i++) {
+        for (int v = 1; v <= computed.getMaxValueNumber(); v++) {
+          Assert.assertEquals(computed.getReturnState(i, v), deduplicated.getReturnState(i, v));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testFingerprintOfAccessors() throws InvalidClassFileException {
+    final MethodFingerprint getB = fingerprint("cfg.exc.intra.PersonDto.getB()Lcfg/exc/intra/B");
+    final MethodFingerprint getStreet = fingerprint("cfg.exc.intra.AddressDto.getStreet()Lcfg/exc/intra/B");
+    final MethodFingerprint withAge = fingerprint("cfg.exc.intra.PersonDto.withAge(I)Lcfg/exc/intra/PersonDto");
+    final MethodFingerprint withNumber = fingerprint("cfg.exc.intra.AddressDto.withNumber(I)Lcfg/exc/intra/AddressDto");
+
+    // the accessors of the two classes only differ in their own class and field names.
+    Assert.assertEquals(getB, getStreet);
+    Assert.assertEquals(withAge, withNumber);
+    Assert.assertEquals(fingerprint("cfg.exc.intra.PersonDto.getAge()I"), fingerprint("cfg.exc.intra.AddressDto.getNumber()I"));
+    Assert.assertNotEquals(getB, fingerprint("cfg.exc.intra.PersonDto.getAge()I"));
+
+    final MethodDeduplicator deduplicator = new MethodDeduplicator();
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    driver.setDeduplicator(deduplicator);
+    final List<IMethod> getters = Arrays.asList(
+        cha.resolveMethod(StringStuff.makeMethodReference("cfg.exc.intra.PersonDto.getB()Lcfg/exc/intra/B")),
+        cha.resolveMethod(StringStuff.makeMethodReference("cfg.exc.intra.AddressDto.getStreet()Lcfg/exc/intra/B")));
+    final Map<MethodReference, MethodNullnessResult> results = new ConcurrentHashMap<>();
+    driver.analyze(getters, result -> results.put(result.getMethod(), result));
+    Assert.assertEquals(2, results.size());
+    Assert.assertEquals(1, deduplicator.getNumberOfDuplicates());
+  }
+
+  private MethodFingerprint fingerprint(String method) throws InvalidClassFileException {
+    return MethodFingerprint.of(cha.resolveMethod(StringStuff.makeMethodReference(method)), analyses);
+  }
+
+  @Test
+  public void testAnalysisMetrics() throws Exception {
+    final AnalysisMetrics metrics = new AnalysisMetrics(3);
+    final NonNullAnalysisFactory instrumented = new NonNullAnalysisFactory(NonNullTestData.makeClassHierarchy(scope, metrics));
+    instrumented.setMetrics(metrics);
+    Assert.assertEquals(1, metrics.getCount(AnalysisMetrics.Phase.CLASS_HIERARCHY));
+
+    final List<MethodNullnessResult> results = new ArrayList<>();
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(instrumented);
+    driver.analyzeAll(result -> {
+      synchronized (results) {
+        results.add(result);
+      }
+    });
+
+    Assert.assertEquals(results.size(), metrics.getNumberOfMethods());
+    Assert.assertTrue(metrics.getCount(AnalysisMetrics.Phase.IR) >= results.size());
+    Assert.assertTrue(metrics.getCount(AnalysisMetrics.Phase.PARAMETER_STATE) >= results.size());
+    Assert.assertEquals(results.size(), metrics.getCount(AnalysisMetrics.Phase.CFG));
+    Assert.assertTrue(metrics.getCount(AnalysisMetrics.Phase.METHOD_STATE) > 0);
+
+    final List<AnalysisMetrics.MethodTiming> slowest = metrics.getSlowestMethods();
+    Assert.assertEquals(Math.min(3, results.size()), slowest.size());
+    for (int i = 1; i < slowest.size(); i++) {
+      Assert.assertTrue(slowest.get(i - 1).getNanos() >= slowest.get(i).getNanos());
+    }
+    Assert.assertTrue(metrics.getComputePercentile(50) <= metrics.getComputePercentile(99));
+    // the maximum is estimated within 1/8 from above.
+    Assert.assertTrue(metrics.getComputePercentile(100) >= slowest.get(0).getNanos());
+    Assert.assertTrue(metrics.getComputePercentile(100) <= slowest.get(0).getNanos() + slowest.get(0).getNanos() / 8);
+
+    for (long nanos : new long[] { 0, 7, 8, 1000, 123456789, Long.MAX_VALUE }) {
+      Assert.assertTrue(AnalysisMetrics.upperBoundOf(AnalysisMetrics.bucketOf(nanos)) >= nanos);
+    }
+
+    analyses.makeIR(cha.resolveMethod(slowest.get(0).getMethod()));
+    Assert.assertEquals(0, AnalysisMetrics.DISABLED.getCount(AnalysisMetrics.Phase.IR));
+  }
+
+  @Test
+  public void testPrunedEdgeFile() throws Exception {
+    // the load from make() cannot throw, see testReturnTypeDefaults.
+    final MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessReturnDefaults.testCall()I");
+    final File file = File.createTempFile("pruned", ".edges");
+    file.deleteOnExit();
+
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    final PrunedEdgeFile.Collector collector = new PrunedEdgeFile.Collector();
+    driver.analyzeAll(collector);
+    collector.write(file);
+
+    final PrunedEdgeFile edges = PrunedEdgeFile.open(file);
+    Assert.assertEquals(collector.size(), edges.size());
+    Assert.assertNull(edges.getEdges(StringStuff.makeMethodReference("java.lang.Object.toString()Ljava/lang/String;")));
+
+    final IMethod m = cha.resolveMethod(mr);
+    final MethodNullnessResult computed = driver.analyze(m);
+    final PrunedEdgeFile.Edges loaded = edges.getEdges(mr);
+    Assert.assertTrue(computed.getNumberOfPrunedEdges() > 0);
+    Assert.assertEquals(computed.getNumberOfPrunedEdges(), loaded.size());
+    for (int i = 0; i < computed.getNumberOfPrunedEdges(); i++) {
+      Assert.assertTrue(loaded.isPruned(computed.getPrunedEdgeSource(i), computed.getPrunedEdgeTarget(i)));
+    }
+
+    final IR ir = analyses.makeIR(m);
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis = analyses.createFieldAwareSSACFGAnalysis(ir, analyses.makeNonNullParameterState(ir));
+    analysis.compute(new NullProgressMonitor());
+    Assert.assertEquals(PrunedEdgeReport.exceptionalEdges(analysis.getCFG()), PrunedEdgeReport.exceptionalEdges(loaded.prune(ir.getControlFlowGraph())));
+  }
+
+  @Test
+  public void testNullnessService() throws Exception {
+    final MethodReference byDefault = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final MethodReference nullable = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final List<MethodReference> queried = Arrays.asList(byDefault, nullable,
+        StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessReturnDefaults.testCall()I"));
+
+    // concurrent queries analyze each method once.
+    final NullnessService service = new NullnessService(analyses);
+    final ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      pool.submit(() -> IntStream.range(0, 300).parallel().forEach(i -> {
+        final MethodReference m = queried.get(i % queried.size());
+        try {
+          final ISSABasicBlock ret = returnNode(service.getIR(m).getControlFlowGraph());
+          Assert.assertNotNull(service.stateAt(m, ret, returnVal(ret)));
+        } catch (InvalidClassFileException | UnsoundGraphException | CancelException e) {
+          throw new AssertionError(e);
+        }
+      })).get();
+    } finally {
+      pool.shutdown();
+    }
+    Assert.assertEquals(queried.size(), service.getMisses());
+    Assert.assertEquals(2 * 300 - queried.size(), service.getHits());
+    Assert.assertEquals(queried.size(), service.size());
+
+    // the service answers as the analysis it caches does.
+    final IR nullableIR = service.getIR(nullable);
+    final MethodNullnessResult direct = analyses.analyzeSSACFG(analyses.makeIR(cha.resolveMethod(nullable)), new NullProgressMonitor());
+    Assert.assertTrue(direct.getNumberOfReturnNodes() > 0);
+    for (int i = 0; i < direct.getNumberOfReturnNodes(); i++) {
+      final ISSABasicBlock ret = nullableIR.getControlFlowGraph().getNode(direct.getReturnNode(i));
+      for (int v = 1; v <= direct.getMaxValueNumber(); v++) {
+        Assert.assertEquals(direct.getReturnState(i, v), service.stateAt(nullable, ret, v));
+      }
+    }
+    final ISSABasicBlock nullableReturn = returnNode(nullableIR.getControlFlowGraph());
+    Assert.assertEquals(State.NULL, service.stateAt(nullable, nullableReturn, returnVal(nullableReturn)));
+
+    final ISSABasicBlock returnNode = returnNode(service.getIR(byDefault).getControlFlowGraph());
+    Assert.assertEquals(State.NOT_NULL, service.stateAt(byDefault, returnNode, returnVal(returnNode)));
+    // blocks of another IR of the same method are understood as well.
+    final ISSABasicBlock otherReturnNode = returnNode(new IRCache(0).getIR(cha.resolveMethod(byDefault)).getControlFlowGraph());
+    Assert.assertEquals(State.NOT_NULL, service.stateAt(byDefault, otherReturnNode, returnVal(otherReturnNode)));
+
+    service.clear();
+    Assert.assertEquals(0, service.size());
+    service.getCFG(nullable);
+    Assert.assertEquals(queried.size() + 1, service.getMisses());
+  }
+
+  @Test
+  public void testIncremental() throws Exception {
+    final MethodReference testIf = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final NullPointerAnalysisDriver.MethodResultSink ignore = result -> {};
+
+    // work on a copy of the test subjects, so that touching their class files leaves bin alone.
+    final Path binaryDir = Files.createTempDirectory("incremental");
+    final Path subjects = Paths.get("bin", "cfg");
+    try (Stream<Path> files = Files.walk(subjects)) {
+      for (Path from : (Iterable<Path>) files::iterator) {
+        Files.copy(from, binaryDir.resolve("cfg").resolve(subjects.relativize(from).toString()), StandardCopyOption.COPY_ATTRIBUTES);
+      }
+    }
+    try {
+      IncrementalNullPointerAnalysis incremental = new IncrementalNullPointerAnalysis(binaryDir.toFile(), NonNullTestData.makeScope(binaryDir.toFile()));
+      incremental.initialize(ignore);
+      Assert.assertNotNull(incremental.getResult(testIf));
+      Assert.assertTrue(incremental.update(ignore).isEmpty());
+
+      final File classFile = binaryDir.resolve(Paths.get("cfg", "exc", "intra", "FieldAccess.class")).toFile();
+      Assert.assertTrue(classFile.setLastModified(classFile.lastModified() + 1000));
+      final Set<MethodReference> reanalyzed = incremental.update(ignore);
+      Assert.assertTrue(reanalyzed.contains(testIf));
+      Assert.assertFalse(reanalyzed.contains(StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessDynamic.testIf(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B")));
+      Assert.assertNotNull(incremental.getResult(testIf));
+    } finally {
+      try (Stream<Path> files = Files.walk(binaryDir)) {
+        for (Path p : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+          Files.delete(p);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testInterproceduralReturnSummaries() throws Exception {
+    final String clazz = "cfg.exc.intra.FieldAccessInterproc.";
+    final InterproceduralReturnSummaries inferred = new InterproceduralReturnSummaries(analyses);
+    inferred.compute();
+
+    Assert.assertTrue(inferred.returnsNonNull(StringStuff.makeMethodReference(clazz + "make()Lcfg/exc/intra/B")));
+    Assert.assertTrue(inferred.returnsNonNull(StringStuff.makeMethodReference(clazz + "wrap()Lcfg/exc/intra/B")));
+    Assert.assertTrue(inferred.returnsNonNull(StringStuff.makeMethodReference(clazz + "even(I)Lcfg/exc/intra/B")));
+    Assert.assertTrue(inferred.returnsNonNull(StringStuff.makeMethodReference(clazz + "odd(I)Lcfg/exc/intra/B")));
+    Assert.assertFalse(inferred.returnsNonNull(StringStuff.makeMethodReference(clazz + "maybe(Z)Lcfg/exc/intra/B")));
+
+    // b.f = 42 dereferences the result of wrap(), so its exceptional edge is only pruned with the inferred summaries.
+    final IMethod testCall = cha.resolveMethod(StringStuff.makeMethodReference(clazz + "testCall(Z)Lcfg/exc/intra/B"));
+    final IR ir = analyses.makeIR(testCall);
+    ISSABasicBlock put = null;
+    for (ISSABasicBlock bb : ir.getControlFlowGraph()) {
+      if (bb.getLastInstructionIndex() >= 0 && bb.getLastInstruction() instanceof SSAPutInstruction) {
+        put = bb;
+      }
+    }
+    Assert.assertNotNull(put);
+
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> annotated = analyses.createNonNullRespectingSSACFGAnalysis(ir);
+    annotated.compute(new NullProgressMonitor());
+    Assert.assertFalse(annotated.getCFG().getExceptionalSuccessors(put).isEmpty());
+
+    final NonNullAnalysisFactory withInferred = new NonNullAnalysisFactory(analyses, inferred.asReturnSummaries());
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> intraSSACFG = withInferred.createNonNullRespectingSSACFGAnalysis(ir);
+    intraSSACFG.compute(new NullProgressMonitor());
+    Assert.assertTrue(intraSSACFG.getCFG().getExceptionalSuccessors(put).isEmpty());
+  }
+
+  @Test
+  public void testNullStateReports() throws Exception {
+    final MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testIfContinued(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;Lcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final File binary = File.createTempFile("nullness", ".report");
+    binary.deleteOnExit();
+    final File ndjson = File.createTempFile("nullness", ".ndjson");
+    ndjson.deleteOnExit();
+
+    try (NullStateReportWriter writer = new BinaryNullStateReportWriter(binary)) {
+      final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses, NullStateReport.exportingAnalyzer(analyses, writer), ForkJoinPool.commonPool());
+      driver.analyzeAll(result -> {});
+    }
+
+    final IR ir = analyses.makeIR(cha.resolveMethod(mr));
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> intraSSACFG = createNonNullRespectingSSACFGAnalysis(ir);
+    intraSSACFG.compute(new NullProgressMonitor());
+    final NullStateReport expected = NullStateReport.of(ir, intraSSACFG);
+    try (NullStateReportWriter writer = new NdjsonNullStateReportWriter(ndjson)) {
+      writer.write(expected);
+    }
+    Assert.assertTrue(new String(Files.readAllBytes(ndjson.toPath()), StandardCharsets.UTF_8).startsWith("{\"method\":\"" + mr.getSignature() + "\""));
+
+    try (NullStateReportReader reader = new NullStateReportReader(binary)) {
+      Assert.assertEquals(NullPointerAnalysisDriver.applicationMethods(cha).size(), reader.getMethods().size());
+      final NullStateReport report = reader.read(mr);
+      Assert.assertEquals(expected.getNumberOfBlocks(), report.getNumberOfBlocks());
+      for (int i = 0; i < report.getNumberOfBlocks(); i++) {
+        Assert.assertEquals(expected.getBlock(i), report.getBlock(i));
+        for (int v = 1; v <= report.getMaxValueNumber(); v++) {
+          Assert.assertEquals(expected.getState(i, v), report.getState(i, v));
+        }
+      }
+
+      // only the first write to the @Nullable b1 may throw, the later writes to b1 and b3 are safe.
+      final SSAInstruction[] instructions = ir.getInstructions();
+      int dereferences = 0;
+      for (int i = 0; i < instructions.length; i++) {
+        if (instructions[i] != null && NullDereferences.isDereference(instructions[i])) {
+          Assert.assertEquals(dereferences > 0, report.isSafeDereference(i));
+          dereferences++;
+        }
+      }
+      Assert.assertEquals(3, dereferences);
+      Assert.assertEquals(2, report.getNumberOfSafeDereferences());
+    }
+  }
+
+  @Test
+  public void testAnnotationIndex() throws Exception {
+    final NullAnnotationIndex index = NullAnnotationIndex.build(cha);
+    Assert.assertEquals(0, index.getNumberOfInvalidMethods());
+    Assert.assertTrue(index.getFootprint() > 0);
+
+    final MethodReference nonNull = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    Assert.assertEquals(NullAnnotationIndex.NONNULL, index.returnAnnotationOf(index.indexOf(nonNull)));
+
+    // the index must not change the result of any query.
+    final NonNullAnalysisFactory indexed = new NonNullAnalysisFactory(cha, index);
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      Assert.assertTrue(index.contains(m.getReference()));
+      Assert.assertEquals(analyses.defaultsFor(m), indexed.defaultsFor(m));
+      Assert.assertEquals(analyses.makeNonNullParameterState(m).getStates(), indexed.makeNonNullParameterState(m).getStates());
+      Assert.assertEquals(analyses.getReturnSummaries().returnsNonNull(m.getReference()), indexed.getReturnSummaries().returnsNonNull(m.getReference()));
+    }
+  }
+
+  @Test
+  public void testAnalysisBudget() throws Exception {
+    final List<IMethod> methods = NullPointerAnalysisDriver.applicationMethods(cha);
+    final MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccessNonNullByDefault.testParam2(ZLcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+
+    final AnalysisBudget generous = new AnalysisBudget(AnalysisBudget.UNLIMITED, AnalysisBudget.UNLIMITED, AnalysisBudget.UNLIMITED);
+    driver.setBudget(generous);
+    final MethodNullnessResult result = driver.analyze(cha.resolveMethod(mr));
+    final ISSABasicBlock returnNode = returnNode(driver.makeIR(cha.resolveMethod(mr)).getControlFlowGraph());
+    Assert.assertEquals(State.NOT_NULL, result.getReturnState(0, returnVal(returnNode)));
+    Assert.assertEquals(0, generous.getNumberOfOverruns());
+
+    // the batch budget is used up before the first method starts, so every method degrades.
+    final AnalysisBudget exhausted = new AnalysisBudget(AnalysisBudget.UNLIMITED, AnalysisBudget.UNLIMITED, 1);
+    Thread.sleep(1);
+    Assert.assertTrue(exhausted.isExhausted());
+    driver.setBudget(exhausted);
+    final Map<MethodReference, MethodNullnessResult> results = new ConcurrentHashMap<>();
+    final Set<IMethod> failed = ConcurrentHashMap.newKeySet();
+    driver.analyze(methods, new NullPointerAnalysisDriver.MethodResultSink() {
+      @Override
+      public void analyzed(MethodNullnessResult r) {
+        results.put(r.getMethod(), r);
+      }
+
+      @Override
+      public void failed(IMethod m, Exception e) {
+        failed.add(m);
+      }
+    });
+    Assert.assertTrue(failed.isEmpty());
+    Assert.assertEquals(methods.size(), results.size());
+    Assert.assertEquals(methods.size(), exhausted.getOverruns(AnalysisBudget.Limit.TOTAL_TIME));
+    long byClass = 0;
+    for (long n : exhausted.getOverrunsByClass().values()) {
+      byClass += n;
+    }
+    Assert.assertEquals(methods.size(), byClass);
+    final MethodNullnessResult degraded = results.get(mr);
+    Assert.assertEquals(0, degraded.getNumberOfPrunedEdges());
+    Assert.assertEquals(State.BOTH, degraded.getReturnState(0, returnVal(returnNode)));
+
+    // an exploded analyzer reports the same blocks as its conservative result.
+    final MethodNullnessAnalyzer exploded = analyses::analyzeExplodedCFG;
+    final IR ir = driver.makeIR(cha.resolveMethod(mr));
+    final MethodNullnessResult analyzed = exploded.analyze(ir, new NullProgressMonitor());
+    final MethodNullnessResult conservative = exploded.conservative(ir);
+    Assert.assertEquals(analyzed.getNumberOfReturnNodes(), conservative.getNumberOfReturnNodes());
+    for (int i = 0; i < analyzed.getNumberOfReturnNodes(); i++) {
+      Assert.assertEquals(analyzed.getReturnNode(i), conservative.getReturnNode(i));
+    }
+  }
+
+  @Test
+  public void testSparseNullPointerAnalysis() throws InvalidClassFileException, CancelException, UnsoundGraphException {
+    final List<String> subjects = Arrays.asList("Lcfg/exc/intra/FieldAccess", "Lcfg/exc/intra/FieldAccessDynamic",
+        "Lcfg/exc/intra/FieldAccessNonNullByDefault", "Lcfg/exc/intra/NestedLoops", "Lcfg/exc/intra/PhiDereference",
+        "Lcfg/exc/intra/TryCatch");
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (!subjects.contains(m.getDeclaringClass().getName().toString())) {
+        continue;
+      }
+      final IR ir = analyses.makeIR(m);
+      final ParameterState parameterState = analyses.makeNonNullParameterState(ir);
+      final SparseNullPointerAnalysis sparse = analyses.createSparseSSACFGAnalysis(ir, parameterState);
+      final NullPointerSolver dense = new NullPointerSolver(ir,
+          SparseNullPointerAnalysis.withoutIgnoredExceptions(ir, NullPointerAnalysis.DEFAULT_IGNORE_EXCEPTIONS),
+          parameterState, analyses.getReturnSummaries().asMethodState(), NullPointerSolver.Order.REVERSE_POSTORDER);
+      dense.compute(new NullProgressMonitor());
+      sparse.compute(new NullProgressMonitor());
+      for (ISSABasicBlock bb : ir.getControlFlowGraph()) {
+        Assert.assertEquals(m.getSignature() + " at " + bb, dense.getState(bb), sparse.getState(bb));
+      }
+
+      // the same graph, and the same state of every value in every block, as the analysis of WALA.
+      final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> intraSSACFG = analyses.createNonNullRespectingSSACFGAnalysis(ir, parameterState);
+      intraSSACFG.compute(new NullProgressMonitor());
+      final ControlFlowGraph<SSAInstruction, ISSABasicBlock> expectedCFG = intraSSACFG.getCFG();
+      Assert.assertEquals(m.getSignature(), expectedCFG.getNumberOfNodes(), sparse.getCFG().getNumberOfNodes());
+      for (ISSABasicBlock bb : expectedCFG) {
+        Assert.assertTrue(m.getSignature() + " at " + bb, sparse.getCFG().containsNode(bb));
+        Assert.assertEquals(m.getSignature() + " at " + bb, new HashSet<>(expectedCFG.getExceptionalSuccessors(bb)),
+            new HashSet<>(sparse.getCFG().getExceptionalSuccessors(bb)));
+        final NullPointerState expected = intraSSACFG.getState(bb);
+        final PackedNullPointerState actual = sparse.getState(bb);
+        Assert.assertEquals(m.getSignature() + " at " + bb, expected == null, actual == null);
+        if (expected == null) {
+          continue;
+        }
+        for (int v = 1; v <= ir.getSymbolTable().getMaxValueNumber(); v++) {
+          Assert.assertEquals(m.getSignature() + " at " + bb + ", v" + v, expected.getState(v), actual.getState(v));
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testSolverExceptionalEdges() throws InvalidClassFileException, CancelException, UnsoundGraphException {
+    final MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.TryCatch.testCatch(Lcfg/exc/intra/B;Lcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final IR ir = analyses.makeIR(cha.resolveMethod(mr));
+    final ParameterState parameterState = analyses.makeNonNullParameterState(ir);
+    final NullPointerSolver solver = new NullPointerSolver(ir, parameterState, analyses.getReturnSummaries().asMethodState(),
+        NullPointerSolver.Order.REVERSE_POSTORDER);
+    solver.compute(new NullProgressMonitor());
+
+    // the invokes keep their exceptional edges, so both analyses see the same graph.
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> intraSSACFG = analyses.createNonNullRespectingSSACFGAnalysis(ir, parameterState);
+    intraSSACFG.compute(new NullProgressMonitor());
+    int compared = 0;
+    for (ISSABasicBlock bb : intraSSACFG.getCFG()) {
+      final NullPointerState expected = intraSSACFG.getState(bb);
+      if (expected == null) {
+        continue;
+      }
+      Assert.assertNotNull(bb.toString(), solver.getState(bb));
+      for (int v = 1; v <= ir.getSymbolTable().getMaxValueNumber(); v++) {
+        Assert.assertEquals(bb + ", v" + v, expected.getState(v), solver.getState(bb).getState(v));
+      }
+      compared++;
+    }
+    Assert.assertTrue(compared > 0);
+
+    // the @NonNull b1 is still not null in the handler, although the invokes on b1 and b2 may throw.
+    final ISSABasicBlock handler = ir.getControlFlowGraph().getExceptionalSuccessors(ir.getBasicBlockForInstruction(
+        findInvoke(ir, 0))).get(0);
+    Assert.assertEquals(State.NOT_NULL, solver.getState(handler).getState(ir.getSymbolTable().getParameter(0)));
+  }
+
+  private static SSAInstruction findInvoke(IR ir, int n) {
+    int seen = 0;
+    for (SSAInstruction instruction : ir.getInstructions()) {
+      if (instruction instanceof SSAAbstractInvokeInstruction && seen++ == n) {
+        return instruction;
+      }
+    }
+    throw new IllegalArgumentException("No invoke " + n + " in " + ir.getMethod());
+  }
+
+  @Test
+  public void testSolverOrder() throws InvalidClassFileException, CancelException {
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (!m.getDeclaringClass().getName().toString().equals("Lcfg/exc/intra/NestedLoops") || m.isInit()) {
+        continue;
+      }
+      final IR ir = analyses.makeIR(m);
+      final ParameterState parameterState = analyses.makeNonNullParameterState(ir);
+      final NullPointerSolver fifo = new NullPointerSolver(ir, parameterState, analyses.getReturnSummaries().asMethodState(),
+          NullPointerSolver.Order.FIFO);
+      final NullPointerSolver rpo = new NullPointerSolver(ir, parameterState, analyses.getReturnSummaries().asMethodState(),
+          NullPointerSolver.Order.REVERSE_POSTORDER);
+      fifo.compute(new NullProgressMonitor());
+      rpo.compute(new NullProgressMonitor());
+      Assert.assertTrue(rpo.getNumberOfEvaluations() <= fifo.getNumberOfEvaluations());
+      for (ISSABasicBlock bb : ir.getControlFlowGraph()) {
+        Assert.assertEquals(fifo.getState(bb), rpo.getState(bb));
+      }
+      // packed states take at most one word per 32 values and block, and blocks may share them.
+      final long words = PackedNullPointerState.words(ir.getSymbolTable().getMaxValueNumber());
+      Assert.assertTrue(rpo.sizeOfStates() <= rpo.getNumberOfStates() * (16L + 8L * words));
+    }
+
+    final MethodReference mr = StringStuff.makeMethodReference("cfg.exc.intra.FieldAccess.testWhile2(ZLcfg/exc/intra/B;)Lcfg/exc/intra/B");
+    final IR ir = analyses.makeIR(cha.resolveMethod(mr));
+    final NullPointerSolver solver = new NullPointerSolver(ir, analyses.makeNonNullParameterState(ir),
+        analyses.getReturnSummaries().asMethodState(), NullPointerSolver.Order.REVERSE_POSTORDER);
+    solver.compute(new NullProgressMonitor());
+    final ISSABasicBlock returnNode = returnNode(ir.getControlFlowGraph());
+    Assert.assertEquals(State.NOT_NULL, solver.getState(returnNode).getState(returnVal(returnNode)));
+  }
+
+  @Test
+  public void testPackedNullPointerState() {
+    final State[] lattice = { State.UNKNOWN, State.NULL, State.NOT_NULL, State.BOTH };
+    final int maxValueNumber = 100;
+    for (State a : lattice) {
+      for (State b : lattice) {
+        final PackedNullPointerState left = new PackedNullPointerState(maxValueNumber);
+        final PackedNullPointerState right = new PackedNullPointerState(maxValueNumber);
+        left.setState(maxValueNumber, a);
+        right.setState(maxValueNumber, b);
+        final State expected = (a == b || b == State.UNKNOWN) ? a : (a == State.UNKNOWN) ? b : State.BOTH;
+        Assert.assertEquals(expected != a, left.meet(right));
+        Assert.assertEquals(expected, left.getState(maxValueNumber));
+        Assert.assertEquals(State.UNKNOWN, left.getState(maxValueNumber - 1));
+      }
+    }
+
+    final PackedNullPointerState original = new PackedNullPointerState(maxValueNumber);
+    original.setState(33, State.NOT_NULL);
+    final PackedNullPointerState copy = original.copy();
+    Assert.assertTrue(copy.sharesWordsWith(original));
+    Assert.assertFalse(copy.setState(33, State.NOT_NULL));
+    Assert.assertTrue(copy.sharesWordsWith(original));
+    Assert.assertTrue(copy.setState(34, State.NULL));
+    Assert.assertFalse(copy.sharesWordsWith(original));
+    Assert.assertEquals(State.UNKNOWN, original.getState(34));
+    Assert.assertEquals(State.NULL, copy.getState(34));
+    Assert.assertEquals(State.NOT_NULL, copy.getState(33));
+  }
+
+  @Test
+  public void testIRCache() {
+    final List<IMethod> methods = NullPointerAnalysisDriver.applicationMethods(cha);
+    final IMethod first = methods.get(0);
+    Assert.assertSame(analyses.makeIR(first), analyses.makeIR(first));
+    Assert.assertSame(analyses.makeIR(first), new NonNullAnalysisFactory(analyses, analyses.getReturnSummaries()).makeIR(first));
+
+    final IRCache unbounded = new IRCache(Long.MAX_VALUE);
+    for (IMethod m : methods) {
+      unbounded.getIR(m);
+      unbounded.getIR(m);
+    }
+    Assert.assertEquals(methods.size(), unbounded.getMisses());
+    Assert.assertEquals(methods.size(), unbounded.getHits());
+
+    final long capacity = unbounded.getSize() / 4;
+    final IRCache bounded = new IRCache(capacity);
+    for (IMethod m : methods) {
+      bounded.getIR(m);
+    }
+    Assert.assertTrue(bounded.getSize() <= capacity);
+    Assert.assertTrue(bounded.getEvictions() > 0);
+    Assert.assertEquals(methods.size(), bounded.getMisses());
+    final IMethod last = methods.get(methods.size() - 1);
+    final IR lastIR = bounded.getIR(last);
+    Assert.assertEquals(IRCache.sizeOf(lastIR) <= capacity ? 1 : 0, bounded.getHits());
+  }
+
+  @Test
+  public void testPrimordialSnapshot() throws Exception {
+    final File snapshot = File.createTempFile("primordial", ".jar");
+    try {
+      final int classes = PrimordialSnapshot.write(cha, snapshot);
+      final long written = snapshot.lastModified();
+      final ClassHierarchy reloaded = PrimordialSnapshot.makeClassHierarchy(NonNullTestData.NONNULL_TESTDATA, snapshot);
+      Assert.assertTrue(PrimordialSnapshot.isSnapshot(reloaded));
+      Assert.assertFalse(PrimordialSnapshot.isSnapshot(cha));
+      // the fingerprints of JDK and application match, so the snapshot is neither validated nor rewritten.
+      Assert.assertEquals(written, snapshot.lastModified());
+      Assert.assertTrue(reloaded.getNumberOfClasses() < cha.getNumberOfClasses());
+      int primordial = 0;
+      for (IClass c : reloaded) {
+        if (c.getClassLoader().getReference().equals(ClassLoaderReference.Primordial)) {
+          primordial++;
+        }
+      }
+      Assert.assertEquals(classes, primordial);
+
+      final List<IMethod> expected = NullPointerAnalysisDriver.applicationMethods(cha);
+      final List<IMethod> actual = NullPointerAnalysisDriver.applicationMethods(reloaded);
+      Assert.assertEquals(expected.size(), actual.size());
+
+      final NullAnnotationIndex fullIndex = NullAnnotationIndex.build(cha);
+      final NullAnnotationIndex snapshotIndex = NullAnnotationIndex.build(reloaded);
+      final NonNullReturnSummaries fullSummaries = new NonNullReturnSummaries(cha, fullIndex);
+      final NonNullReturnSummaries snapshotSummaries = new NonNullReturnSummaries(reloaded, snapshotIndex);
+      for (IMethod m : actual) {
+        final IMethod original = cha.resolveMethod(m.getReference());
+        Assert.assertNotNull(original);
+        Assert.assertEquals(
+            ParameterStateBuilder.build(original, fullIndex, fullIndex.indexOf(original.getReference())).getStates(),
+            ParameterStateBuilder.build(m, snapshotIndex, snapshotIndex.indexOf(m.getReference())).getStates());
+        Assert.assertEquals(fullSummaries.returnsNonNull(m.getReference()), snapshotSummaries.returnsNonNull(m.getReference()));
+      }
+
+      try {
+        new InterproceduralReturnSummaries(new NonNullAnalysisFactory(reloaded, snapshotIndex));
+        Assert.fail("Expected a snapshot hierarchy to be refused");
+      } catch (IllegalArgumentException e) {
+        // the possible targets of calls are incomplete.
+      }
+    } finally {
+      snapshot.delete();
+    }
+  }
+
+  @Test
+  public void testParallelStartup() throws Exception {
+    final ParallelStartup startup = ParallelStartup.start(NonNullTestData.NONNULL_TESTDATA);
+    Assert.assertTrue(startup.getTimings().keySet().containsAll(Arrays.asList("scope", "hierarchy", "index", "total")));
+
+    final NullAnnotationIndex sequential = NullAnnotationIndex.build(startup.getClassHierarchy());
+    final NullAnnotationIndex parallel = startup.getIndex();
+    Assert.assertEquals(sequential.size(), parallel.size());
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(startup.getClassHierarchy())) {
+      final int s = sequential.indexOf(m.getReference());
+      final int p = parallel.indexOf(m.getReference());
+      Assert.assertEquals(sequential.defaultsOf(s), parallel.defaultsOf(p));
+      Assert.assertEquals(sequential.returnAnnotationOf(s), parallel.returnAnnotationOf(p));
+      Assert.assertEquals(sequential.nonNullParameters(s, 0), parallel.nonNullParameters(p, 0));
+      Assert.assertEquals(sequential.nullableParameters(s, 0), parallel.nullableParameters(p, 0));
+    }
+
+    final NullnessVocabulary jsr305 = NullnessVocabulary.of(NullnessVocabulary.Family.JSR305);
+    Assert.assertSame(jsr305, ParallelStartup.start(NonNullTestData.NONNULL_TESTDATA, ForkJoinPool.commonPool(), jsr305)
+        .getIndex().getVocabulary());
+  }
+
+  @Test
+  public void testParameterStateBuilderAllocation() {
+    Assume.assumeTrue(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled());
+    final long thread = Thread.currentThread().getId();
+
+    final NullAnnotationIndex index = NullAnnotationIndex.build(cha);
+    final List<IMethod> methods = NullPointerAnalysisDriver.applicationMethods(cha);
+    final int[] ids = new int[methods.size()];
+    final int[][] stateIndices = new int[methods.size()][];
+    final State[][] states = new State[methods.size()][];
+    for (int i = 0; i < methods.size(); i++) {
+      ids[i] = index.indexOf(methods.get(i).getReference());
+      final Map<Integer, State> expected = ParameterStateBuilder.build(methods.get(i), index, ids[i]).getStates();
+      stateIndices[i] = new int[expected.size()];
+      states[i] = new State[expected.size()];
+      int j = 0;
+      for (Map.Entry<Integer, State> e : expected.entrySet()) {
+        stateIndices[i][j] = e.getKey();
+        states[i][j] = e.getValue();
+        j++;
+      }
+    }
+
+    // the reference does the unavoidable work: create the state, and set each (cached) index once.
+    final ParameterState[] sink = new ParameterState[methods.size()];
+    final int warmup = 10;
+    final int rounds = 20;
+    long built = 0;
+    long reference = 0;
+    for (int round = 0; round < warmup + rounds; round++) {
+      final long start = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < methods.size(); i++) {
+        sink[i] = ParameterStateBuilder.build(methods.get(i), index, ids[i]);
+      }
+      final long middle = threads.getThreadAllocatedBytes(thread);
+      for (int i = 0; i < methods.size(); i++) {
+        final ParameterState state = ParameterState.createDefault(methods.get(i));
+        for (int j = 0; j < stateIndices[i].length; j++) {
+          state.setState(stateIndices[i][j], states[i][j]);
+        }
+        sink[i] = state;
+      }
+      final long end = threads.getThreadAllocatedBytes(thread);
+      if (round >= warmup) {
+        built += middle - start;
+        reference += end - middle;
+      }
+    }
+
+    // building allocates nothing beyond the reference; the slack per round, independent of the number of methods,
+    // only covers reading the allocation counter.
+    Assert.assertTrue("allocated " + built + " bytes, expected " + reference, built - reference <= 64L * rounds);
+  }
+
+  @Test
+  public void testFieldNullness() throws Exception {
+    final String clazz = "cfg.exc.intra.FieldAccessFieldDefaults.";
+    Assert.assertTrue(isFieldLoadSafe(StringStuff.makeMethodReference(clazz + "testGet()I")));
+    Assert.assertFalse(isFieldLoadSafe(StringStuff.makeMethodReference(clazz + "testGetNullable()I")));
+    Assert.assertTrue(isFieldLoadSafe(StringStuff.makeMethodReference(clazz + "testGetStatic(Z)I")));
+    // FIELD defaults apply to the fields declared in their scope, not to those read there.
+    Assert.assertFalse(isFieldLoadSafe(StringStuff.makeMethodReference(clazz + "testGetUnannotatedClass(Lcfg/exc/intra/B;)I")));
+
+    final NullAnnotationIndex index = NullAnnotationIndex.build(cha);
+    final FieldNullness indexed = new NonNullAnalysisFactory(cha, index).getFieldNullness();
+    for (IClass c : cha) {
+      if (c.getClassLoader().getReference().equals(ClassLoaderReference.Application)) {
+        for (IField f : c.getAllFields()) {
+          Assert.assertEquals(analyses.getFieldNullness().isNonNull(f.getReference()), indexed.isNonNull(f.getReference()));
+        }
+      }
+    }
+  }
+
+  /**
+   * @return true iff the load of B.f in the method mr may not throw, according to the field aware analysis
+   */
+  private static boolean isFieldLoadSafe(MethodReference mr) throws Exception {
+    final IR ir = analyses.makeIR(cha.resolveMethod(mr));
+    final FieldAwareNullPointerAnalysis analysis = analyses.createFieldAwareSSACFGAnalysis(ir, analyses.makeNonNullParameterState(ir));
+    analysis.compute(new NullProgressMonitor());
+    final SSAInstruction[] instructions = ir.getInstructions();
+    for (int i = 0; i < instructions.length; i++) {
+      if (instructions[i] instanceof SSAGetInstruction && ((SSAGetInstruction) instructions[i]).getDeclaredField().getName().toString().equals("f")) {
+        final ISSABasicBlock bb = ir.getControlFlowGraph().getBlockForInstruction(i);
+        Assert.assertEquals(analysis.isNonNullByField(((SSAGetInstruction) instructions[i]).getRef()), analysis.getCFG().getExceptionalSuccessors(bb).isEmpty());
+        return analysis.getCFG().getExceptionalSuccessors(bb).isEmpty();
+      }
+    }
+    throw new AssertionError("no load of B.f in " + mr);
+  }
+
   public static ISSABasicBlock returnNode(ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg) {
       Collection<ISSABasicBlock> returnNodes = cfg.getNormalPredecessors(cfg.exit());
       Assert.assertEquals(1, returnNodes.size());
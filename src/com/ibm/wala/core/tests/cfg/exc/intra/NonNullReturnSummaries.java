@@ -0,0 +1,174 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.cfg.exc.intra.MethodState;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.ShrikeCTMethod;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.shrikeCT.TypeAnnotationsReader.TargetType;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.types.annotations.TypeAnnotation;
+
+/**
+ * Caches, per invoked {@link MethodReference}, whether the resolved callee returns non-null: either because its
+ * return type is annotated {@code @NonNull}, or because {@link NonNullByDefaultScopeResolver#RETURN_TYPE} is among
+ * the {@code @NonNullByDefault} locations of the callee, and its return type is not annotated {@code @Nullable}.
+ *
+ * The type annotations of a callee are decoded once, no matter how many call sites refer to it or how often
+ * the analyses revisit them during their fixpoint iteration. Instances are thread-safe and are meant to be
+ * shared for the lifetime of the {@link IClassHierarchy} they were created for.
+ */
+public class NonNullReturnSummaries {
+
+  public static final TypeReference NONNULL = TypeReference.findOrCreate(ClassLoaderReference.Application, "Lorg/eclipse/jdt/annotation/NonNull");
+
+  private final IClassHierarchy cha;
+
+  private final NonNullByDefaultScopeResolver scopeResolver;
+
+  private final NullAnnotationIndex index;
+
+  private final boolean honorReturnTypeDefaults;
+
+  private final Map<MethodReference, Boolean> summaries = new ConcurrentHashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final MethodState methodState = new MethodState() {
+    @Override
+    public boolean throwsException(SSAAbstractInvokeInstruction node) {
+      return returnsNonNull(node.getDeclaredTarget());
+    }
+  };
+
+  public NonNullReturnSummaries(IClassHierarchy cha) {
+    this(cha, null);
+  }
+
+  /**
+   * Creates summaries that take the annotations of callees in index from index.
+   */
+  public NonNullReturnSummaries(IClassHierarchy cha, NullAnnotationIndex index) {
+    this(cha, new NonNullByDefaultScopeResolver((index == null) ? NullnessVocabulary.ECLIPSE : index.getVocabulary()), index, true);
+  }
+
+  /**
+   * @param honorReturnTypeDefaults if false, only explicit {@code @NonNull} returns count, as in earlier versions
+   */
+  public NonNullReturnSummaries(IClassHierarchy cha, NonNullByDefaultScopeResolver scopeResolver, NullAnnotationIndex index,
+      boolean honorReturnTypeDefaults) {
+    this.cha = cha;
+    this.scopeResolver = scopeResolver;
+    this.index = index;
+    this.honorReturnTypeDefaults = honorReturnTypeDefaults;
+  }
+
+  public IClassHierarchy getClassHierarchy() {
+    return cha;
+  }
+
+  /**
+   * @return the kind of these summaries and the options they answer with, see
+   *         {@link NullPointerAnalysisDriver#getAnalyzerName()}
+   */
+  public String getName() {
+    return getClass().getName() + (honorReturnTypeDefaults ? "" : "[explicit returns only]") + " of "
+        + scopeResolver.getVocabulary();
+  }
+
+  /**
+   * @return a {@link MethodState} answering from this cache
+   */
+  public MethodState asMethodState() {
+    return methodState;
+  }
+
+  public boolean returnsNonNull(MethodReference mref) {
+    final Boolean cached = summaries.get(mref);
+    if (cached != null) {
+      hits.incrementAndGet();
+      return cached;
+    }
+    misses.incrementAndGet();
+    final boolean nonNull = computeReturnsNonNull(mref);
+    summaries.putIfAbsent(mref, nonNull);
+    return nonNull;
+  }
+
+  protected boolean computeReturnsNonNull(MethodReference mref) {
+    final IMethod m = cha.resolveMethod(mref);
+    if (!(m instanceof ShrikeCTMethod)) {
+      // unresolvable or synthetic callees carry no annotations.
+      return false;
+    }
+    if (!m.getReturnType().isReferenceType()) {
+      return false;
+    }
+    final int id = (index == null) ? -1 : index.indexOf(m.getReference());
+    if (id >= 0) {
+      return isNonNull(index.returnAnnotationOf(id), index.defaultsOf(id));
+    }
+    try {
+      final NullnessVocabulary vocabulary = scopeResolver.getVocabulary();
+      byte annotation = NullAnnotationIndex.UNANNOTATED;
+      for (TypeAnnotation ta : ((ShrikeCTMethod) m).getTypeAnnotationsAtMethodInfo(true)) {
+        if (ta.getTargetType().equals(TargetType.METHOD_RETURN)) {
+          final byte kind = vocabulary.kindOf(ta.getAnnotation().getType());
+          if (kind != NullAnnotationIndex.UNANNOTATED) {
+            annotation = kind;
+          }
+        }
+      }
+      if (annotation == NullAnnotationIndex.UNANNOTATED) {
+        annotation = vocabulary.returnDeclarationKindOf((ShrikeCTMethod) m);
+      }
+      final boolean needsDefaults = annotation == NullAnnotationIndex.UNANNOTATED && honorReturnTypeDefaults;
+      return isNonNull(annotation, needsDefaults ? scopeResolver.defaultsFor(m) : NonNullByDefaultScopeResolver.NONE);
+    } catch (InvalidClassFileException e) {
+      return true;
+    }
+  }
+
+  private boolean isNonNull(byte annotation, int defaults) {
+    if (annotation != NullAnnotationIndex.UNANNOTATED || !honorReturnTypeDefaults) {
+      return annotation == NullAnnotationIndex.NONNULL;
+    }
+    return (defaults & NonNullByDefaultScopeResolver.RETURN_TYPE) != 0;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public int size() {
+    return summaries.size();
+  }
+
+  @Override
+  public String toString() {
+    return "NonNullReturnSummaries[callees: " + size() + ", hits: " + getHits() + ", misses: " + getMisses() + "]";
+  }
+}
@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.ibm.wala.classLoader.BinaryDirectoryTreeModule;
+import com.ibm.wala.classLoader.ClassLoaderFactory;
+import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.config.AnalysisScopeReader;
+import com.ibm.wala.util.io.FileProvider;
+
+/**
+ * Loads the class hierarchy of the annotated test subjects in testsrc, for use outside of {@link NonNullIntraTest}.
+ */
+public class NonNullTestData {
+
+  public static final String NONNULL_TESTDATA = "dat" + File.separator + "eclipse-nullannotation.testdata.txt";
+
+  private NonNullTestData() {}
+
+  public static AnalysisScope makeScope() throws IOException {
+    return makeScope(NONNULL_TESTDATA);
+  }
+
+  /**
+   * @param scopeFile an analysis scope in the format of {@link #NONNULL_TESTDATA}
+   */
+  public static AnalysisScope makeScope(String scopeFile) throws IOException {
+    return makeScope(scopeFile, AnalysisMetrics.DISABLED);
+  }
+
+  /**
+   * Reads scopeFile, timed as {@link AnalysisMetrics.Phase#SCOPE}.
+   */
+  public static AnalysisScope makeScope(String scopeFile, AnalysisMetrics metrics) throws IOException {
+    final long start = metrics.start();
+    final AnalysisScope scope = AnalysisScopeReader.readJavaScope(scopeFile,
+        (new FileProvider()).getFile("J2SEClassHierarchyExclusions.txt"), NonNullTestData.class.getClassLoader());
+    metrics.stop(AnalysisMetrics.Phase.SCOPE, start);
+    return scope;
+  }
+
+  /**
+   * @return the primordial part of {@link #NONNULL_TESTDATA}, with applicationDir as the application
+   */
+  public static AnalysisScope makeScope(File applicationDir) throws IOException {
+    final AnalysisScope scope = AnalysisScopeReader.makePrimordialScope((new FileProvider()).getFile("J2SEClassHierarchyExclusions.txt"));
+    scope.addToScope(ClassLoaderReference.Application, new BinaryDirectoryTreeModule(applicationDir));
+    return scope;
+  }
+
+  public static ClassHierarchy makeClassHierarchy(AnalysisScope scope) throws ClassHierarchyException {
+    return makeClassHierarchy(scope, AnalysisMetrics.DISABLED);
+  }
+
+  /**
+   * Builds the hierarchy of scope, timed as {@link AnalysisMetrics.Phase#CLASS_HIERARCHY}.
+   */
+  public static ClassHierarchy makeClassHierarchy(AnalysisScope scope, AnalysisMetrics metrics) throws ClassHierarchyException {
+    final long start = metrics.start();
+    ClassLoaderFactory factory = new ClassLoaderFactoryImpl(scope.getExclusions());
+    final ClassHierarchy cha = ClassHierarchy.make(scope, factory);
+    metrics.stop(AnalysisMetrics.Phase.CLASS_HIERARCHY, start);
+    return cha;
+  }
+
+  public static ClassHierarchy makeClassHierarchy() throws IOException, ClassHierarchyException {
+    return makeClassHierarchy(makeScope());
+  }
+}
@@ -0,0 +1,388 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IField;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.ShrikeCTMethod;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.shrikeCT.TypeAnnotationsReader.TargetType;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.annotations.Annotation;
+import com.ibm.wala.types.annotations.TypeAnnotation;
+import com.ibm.wala.types.annotations.TypeAnnotation.FormalParameterTarget;
+
+/**
+ * The null annotations of all methods of a class hierarchy, extracted in a single pass right after the
+ * hierarchy was built, so that analyses never decode class files (or see an {@link InvalidClassFileException}).
+ *
+ * Per method, the index stores the effective {@code @NonNullByDefault} locations (see
+ * {@link NonNullByDefaultScopeResolver}), the annotation of the return type, and bitmasks of the parameters
+ * annotated {@code @NonNull} and {@code @Nullable}. Bit i of the masks stands for {@link com.ibm.wala.cfg.exc.intra.ParameterState}
+ * index i, i.e. parameter i - 1 of instance methods and parameter i of static methods. Masks take one long per
+ * 64 parameter indices; method i owns the words {@code maskStart[i] .. maskStart[i + 1] - 1}.
+ *
+ * Fields that never hold null (see {@link FieldNullness}) are kept in a set.
+ *
+ * Classes of the primordial loader are not indexed, they carry no null annotations. Methods whose annotations
+ * cannot be decoded are indexed as unannotated and counted by {@link #getNumberOfInvalidMethods()}.
+ * An index is immutable once built and may be shared by concurrent analyses.
+ */
+public final class NullAnnotationIndex {
+
+  public static final byte UNANNOTATED = 0;
+  public static final byte NONNULL     = 1;
+  public static final byte NULLABLE    = 2;
+
+  private final Map<MethodReference, Integer> ids;
+
+  private final int[] defaults;
+
+  private final byte[] returns;
+
+  private final int[] maskStart;
+
+  private final long[] nonNullMasks;
+
+  private final long[] nullableMasks;
+
+  private final Set<FieldReference> nonNullFields;
+
+  private final int numberOfInvalidMethods;
+
+  private final long buildNanos;
+
+  private final NullnessVocabulary vocabulary;
+
+  private NullAnnotationIndex(Map<MethodReference, Integer> ids, int[] defaults, byte[] returns, int[] maskStart,
+      long[] nonNullMasks, long[] nullableMasks, Set<FieldReference> nonNullFields, int numberOfInvalidMethods, long buildNanos,
+      NullnessVocabulary vocabulary) {
+    this.ids = ids;
+    this.defaults = defaults;
+    this.returns = returns;
+    this.maskStart = maskStart;
+    this.nonNullMasks = nonNullMasks;
+    this.nullableMasks = nullableMasks;
+    this.nonNullFields = nonNullFields;
+    this.numberOfInvalidMethods = numberOfInvalidMethods;
+    this.buildNanos = buildNanos;
+    this.vocabulary = vocabulary;
+  }
+
+  /**
+   * Indexes all methods declared by non-primordial classes of cha, on the calling thread.
+   */
+  public static NullAnnotationIndex build(IClassHierarchy cha) {
+    return build(cha, null);
+  }
+
+  /**
+   * Indexes all methods declared by non-primordial classes of cha, decoding the classes in parallel on pool.
+   *
+   * @param pool the pool to decode on, or null to decode on the calling thread
+   */
+  public static NullAnnotationIndex build(IClassHierarchy cha, ForkJoinPool pool) {
+    return build(cha, pool, NullnessVocabulary.ECLIPSE);
+  }
+
+  /**
+   * Indexes all methods declared by non-primordial classes of cha, recognizing the annotations of vocabulary.
+   *
+   * @param pool the pool to decode on, or null to decode on the calling thread
+   */
+  public static NullAnnotationIndex build(IClassHierarchy cha, ForkJoinPool pool, NullnessVocabulary vocabulary) {
+    final long start = System.nanoTime();
+    final NonNullByDefaultScopeResolver scopeResolver = new NonNullByDefaultScopeResolver(vocabulary);
+    final List<IClass> classes = new ArrayList<>();
+    for (IClass c : cha) {
+      if (!c.getClassLoader().getReference().equals(ClassLoaderReference.Primordial)) {
+        classes.add(c);
+      }
+    }
+    return assemble(decode(classes, scopeResolver, pool), System.nanoTime() - start, vocabulary);
+  }
+
+  /**
+   * Decodes the annotations of classes, which must belong to a finished hierarchy: the scope resolver looks up their
+   * enclosing classes.
+   *
+   * @param pool the pool to decode on, or null to decode on the calling thread
+   */
+  static List<ClassEntry> decode(List<IClass> classes, NonNullByDefaultScopeResolver scopeResolver, ForkJoinPool pool) {
+    if (pool == null) {
+      return classes.stream().map(c -> decode(c, scopeResolver)).collect(Collectors.toList());
+    }
+    // a parallel stream started from within pool runs on pool.
+    return pool.submit(() -> classes.parallelStream().map(c -> decode(c, scopeResolver)).collect(Collectors.toList())).join();
+  }
+
+  /**
+   * @param entries    the decoded classes; of classes with the same methods, the first one is indexed
+   * @param buildNanos the time taken so far, reported by {@link #getBuildNanos()}
+   */
+  static NullAnnotationIndex assemble(List<ClassEntry> entries, long buildNanos, NullnessVocabulary vocabulary) {
+    final long start = System.nanoTime();
+    final Map<MethodReference, Integer> ids = new HashMap<>();
+    final Set<FieldReference> nonNullFields = new HashSet<>();
+    int[] defaults = new int[1024];
+    byte[] returns = new byte[1024];
+    int[] maskStart = new int[1025];
+    long[] nonNullMasks = new long[1024];
+    long[] nullableMasks = new long[1024];
+    int size = 0;
+    int invalid = 0;
+
+    for (ClassEntry entry : entries) {
+      nonNullFields.addAll(entry.nonNullFields);
+      invalid += entry.invalid;
+      for (int i = 0; i < entry.methods.size(); i++) {
+        final MethodReference m = entry.methods.get(i);
+        if (ids.containsKey(m)) {
+          continue;
+        }
+        final long[] nonNull = entry.nonNullMasks.get(i);
+        final long[] nullable = entry.nullableMasks.get(i);
+        if (size == defaults.length) {
+          defaults = Arrays.copyOf(defaults, 2 * size);
+          returns = Arrays.copyOf(returns, 2 * size);
+          maskStart = Arrays.copyOf(maskStart, 2 * size + 1);
+        }
+        final int first = maskStart[size];
+        if (first + nonNull.length > nonNullMasks.length) {
+          nonNullMasks = Arrays.copyOf(nonNullMasks, 2 * (first + nonNull.length));
+          nullableMasks = Arrays.copyOf(nullableMasks, 2 * (first + nonNull.length));
+        }
+        System.arraycopy(nonNull, 0, nonNullMasks, first, nonNull.length);
+        System.arraycopy(nullable, 0, nullableMasks, first, nullable.length);
+        maskStart[size + 1] = first + nonNull.length;
+        defaults[size] = entry.defaults.get(i);
+        returns[size] = entry.returns.get(i);
+        ids.put(m, size);
+        size++;
+      }
+    }
+
+    final int words = maskStart[size];
+    return new NullAnnotationIndex(ids, Arrays.copyOf(defaults, size), Arrays.copyOf(returns, size),
+        Arrays.copyOf(maskStart, size + 1), Arrays.copyOf(nonNullMasks, words), Arrays.copyOf(nullableMasks, words),
+        nonNullFields, invalid, buildNanos + System.nanoTime() - start, vocabulary);
+  }
+
+  /**
+   * The annotations of the members of a single class, as decoded by {@link #decode(IClass, NonNullByDefaultScopeResolver)}.
+   */
+  static final class ClassEntry {
+    final IClass clazz;
+    final List<MethodReference> methods = new ArrayList<>();
+    final List<Integer> defaults = new ArrayList<>();
+    final List<Byte> returns = new ArrayList<>();
+    final List<long[]> nonNullMasks = new ArrayList<>();
+    final List<long[]> nullableMasks = new ArrayList<>();
+    final List<FieldReference> nonNullFields = new ArrayList<>();
+    int invalid = 0;
+
+    ClassEntry(IClass clazz) {
+      this.clazz = clazz;
+    }
+  }
+
+  private static ClassEntry decode(IClass c, NonNullByDefaultScopeResolver scopeResolver) {
+    final ClassEntry entry = new ClassEntry(c);
+    for (IField f : c.getDeclaredInstanceFields()) {
+      if (FieldNullness.isNonNull(f, scopeResolver)) {
+        entry.nonNullFields.add(f.getReference());
+      }
+    }
+    for (IField f : c.getDeclaredStaticFields()) {
+      if (FieldNullness.isNonNull(f, scopeResolver)) {
+        entry.nonNullFields.add(f.getReference());
+      }
+    }
+    for (IMethod m : c.getDeclaredMethods()) {
+      final int words = (m.getNumberOfParameters() + 64) / 64;
+      long[] nonNull = new long[words];
+      long[] nullable = new long[words];
+      int methodDefaults = NonNullByDefaultScopeResolver.NONE;
+      byte returnAnnotation = UNANNOTATED;
+      try {
+        if (m instanceof ShrikeCTMethod) {
+          final ShrikeCTMethod sm = (ShrikeCTMethod) m;
+          final NullnessVocabulary vocabulary = scopeResolver.getVocabulary();
+          methodDefaults = scopeResolver.defaultsFor(m);
+          final int offset = m.isStatic() ? 0 : 1;
+          for (TypeAnnotation ta : sm.getTypeAnnotationsAtMethodInfo(true)) {
+            final byte annotation = vocabulary.kindOf(ta.getAnnotation().getType());
+            if (annotation == UNANNOTATED) {
+              continue;
+            }
+            if (ta.getTypeAnnotationTarget() instanceof FormalParameterTarget) {
+              final int index = ((FormalParameterTarget) ta.getTypeAnnotationTarget()).getIndex() + offset;
+              final long[] masks = (annotation == NONNULL) ? nonNull : nullable;
+              masks[index >> 6] |= 1L << (index & 63);
+            } else if (ta.getTargetType().equals(TargetType.METHOD_RETURN)) {
+              returnAnnotation = annotation;
+            }
+          }
+          if (returnAnnotation == UNANNOTATED) {
+            returnAnnotation = vocabulary.returnDeclarationKindOf(sm);
+          }
+          final Collection<Annotation>[] parameterAnnotations = vocabulary.parameterAnnotationsOf(sm);
+          if (parameterAnnotations != null) {
+            for (int i = 0; i < parameterAnnotations.length; i++) {
+              final byte annotation = vocabulary.kindOf(parameterAnnotations[i]);
+              if (annotation != UNANNOTATED) {
+                final int index = i + offset;
+                final long[] masks = (annotation == NONNULL) ? nonNull : nullable;
+                masks[index >> 6] |= 1L << (index & 63);
+              }
+            }
+          }
+        }
+      } catch (InvalidClassFileException e) {
+        nonNull = new long[words];
+        nullable = new long[words];
+        methodDefaults = NonNullByDefaultScopeResolver.NONE;
+        returnAnnotation = UNANNOTATED;
+        entry.invalid++;
+      }
+      entry.methods.add(m.getReference());
+      entry.defaults.add(methodDefaults);
+      entry.returns.add(returnAnnotation);
+      entry.nonNullMasks.add(nonNull);
+      entry.nullableMasks.add(nullable);
+    }
+    return entry;
+  }
+
+  /**
+   * @return the vocabulary the annotations were recognized with
+   */
+  public NullnessVocabulary getVocabulary() {
+    return vocabulary;
+  }
+
+  /**
+   * @return the index of m, or -1 if m was not indexed
+   */
+  public int indexOf(MethodReference m) {
+    final Integer id = ids.get(m);
+    return (id == null) ? -1 : id;
+  }
+
+  public boolean contains(MethodReference m) {
+    return ids.containsKey(m);
+  }
+
+  /**
+   * @return the effective {@code @NonNullByDefault} locations of method number id
+   */
+  public int defaultsOf(int id) {
+    return defaults[id];
+  }
+
+  /**
+   * @return {@link #NONNULL}, {@link #NULLABLE} or {@link #UNANNOTATED}
+   */
+  public byte returnAnnotationOf(int id) {
+    return returns[id];
+  }
+
+  /**
+   * @return {@link #NONNULL}, {@link #NULLABLE} or {@link #UNANNOTATED}
+   */
+  public byte parameterAnnotationOf(int id, int stateIndex) {
+    final int word = maskStart[id] + (stateIndex >> 6);
+    if (word >= maskStart[id + 1]) {
+      return UNANNOTATED;
+    }
+    final long bit = 1L << (stateIndex & 63);
+    if ((nonNullMasks[word] & bit) != 0) {
+      return NONNULL;
+    } else if ((nullableMasks[word] & bit) != 0) {
+      return NULLABLE;
+    } else {
+      return UNANNOTATED;
+    }
+  }
+
+  /**
+   * @return the bits 64 * word .. 64 * word + 63 of the {@code @NonNull} parameter mask of method number id
+   */
+  public long nonNullParameters(int id, int word) {
+    final int w = maskStart[id] + word;
+    return (w < maskStart[id + 1]) ? nonNullMasks[w] : 0L;
+  }
+
+  /**
+   * @return the bits 64 * word .. 64 * word + 63 of the {@code @Nullable} parameter mask of method number id
+   */
+  public long nullableParameters(int id, int word) {
+    final int w = maskStart[id] + word;
+    return (w < maskStart[id + 1]) ? nullableMasks[w] : 0L;
+  }
+
+  /**
+   * @return true iff the fields of clazz were indexed
+   */
+  public boolean containsClass(IClass clazz) {
+    return !clazz.getClassLoader().getReference().equals(ClassLoaderReference.Primordial);
+  }
+
+  /**
+   * @param field the reference of a resolved field, i.e. with its declaring class
+   */
+  public boolean isNonNullField(FieldReference field) {
+    return nonNullFields.contains(field);
+  }
+
+  public int size() {
+    return defaults.length;
+  }
+
+  public int getNumberOfInvalidMethods() {
+    return numberOfInvalidMethods;
+  }
+
+  public long getBuildNanos() {
+    return buildNanos;
+  }
+
+  /**
+   * @return an estimate of the heap occupied by this index, in bytes
+   */
+  public long getFootprint() {
+    // a HashMap entry with a boxed Integer costs about 48 bytes on a 64-bit JVM with compressed oops.
+    final long map = 4L * Integer.highestOneBit(Math.max(1, ids.size() * 4 / 3)) * 2 + 48L * ids.size();
+    final long fields = 4L * Integer.highestOneBit(Math.max(1, nonNullFields.size() * 4 / 3)) * 2 + 32L * nonNullFields.size();
+    return map + fields + 4L * defaults.length + returns.length + 4L * maskStart.length + 8L * (nonNullMasks.length + nullableMasks.length);
+  }
+
+  @Override
+  public String toString() {
+    return "NullAnnotationIndex[methods: " + size() + ", invalid: " + numberOfInvalidMethods
+        + ", built in " + (buildNanos / 1000000) + "ms, ~" + (getFootprint() / 1024) + "KiB]";
+  }
+}
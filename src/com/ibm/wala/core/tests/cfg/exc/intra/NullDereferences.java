@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAAbstractThrowInstruction;
+import com.ibm.wala.ssa.SSAArrayLengthInstruction;
+import com.ibm.wala.ssa.SSAArrayReferenceInstruction;
+import com.ibm.wala.ssa.SSAFieldAccessInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAMonitorInstruction;
+
+/**
+ * Identifies the instructions that throw a {@link NullPointerException} when a reference they use is null.
+ */
+public class NullDereferences {
+
+  public static final int NO_DEREFERENCE = -1;
+
+  private NullDereferences() {}
+
+  /**
+   * @return the value number dereferenced by instruction, or {@link #NO_DEREFERENCE}
+   */
+  public static int dereferencedValue(SSAInstruction instruction) {
+    if (instruction instanceof SSAFieldAccessInstruction) {
+      final SSAFieldAccessInstruction access = (SSAFieldAccessInstruction) instruction;
+      return access.isStatic() ? NO_DEREFERENCE : access.getRef();
+    } else if (instruction instanceof SSAAbstractInvokeInstruction) {
+      final SSAAbstractInvokeInstruction invoke = (SSAAbstractInvokeInstruction) instruction;
+      return invoke.isStatic() ? NO_DEREFERENCE : invoke.getReceiver();
+    } else if (instruction instanceof SSAArrayReferenceInstruction) {
+      return ((SSAArrayReferenceInstruction) instruction).getArrayRef();
+    } else if (instruction instanceof SSAArrayLengthInstruction) {
+      return ((SSAArrayLengthInstruction) instruction).getArrayRef();
+    } else if (instruction instanceof SSAMonitorInstruction) {
+      return ((SSAMonitorInstruction) instruction).getRef();
+    } else if (instruction instanceof SSAAbstractThrowInstruction) {
+      return ((SSAAbstractThrowInstruction) instruction).getException();
+    } else {
+      return NO_DEREFERENCE;
+    }
+  }
+
+  public static boolean isDereference(SSAInstruction instruction) {
+    return dereferencedValue(instruction) != NO_DEREFERENCE;
+  }
+}
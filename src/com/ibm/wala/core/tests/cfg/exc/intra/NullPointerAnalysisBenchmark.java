@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.util.NullProgressMonitor;
+
+/**
+ * Measures the phases of the annotation aware null pointer analyses, per method and per MB of bytecode:
+ * <ol>
+ * <li>{@link ClassHierarchy} construction,</li>
+ * <li>{@link NonNullAnalysisFactory#makeNonNullParameterState(IR)},</li>
+ * <li>compute of the exploded CFG analysis vs. compute of the SSA CFG analysis.</li>
+ * </ol>
+ *
+ * Usage: {@code NullPointerAnalysisBenchmark [scopeFile [classPrefix]]}. Without arguments, the
+ * {@code cfg.exc.intra} subjects of {@link NonNullTestData#NONNULL_TESTDATA} are measured. Larger inputs can be
+ * produced with {@link SyntheticCorpusGenerator}.
+ */
+public class NullPointerAnalysisBenchmark {
+
+  private static final int WARMUP = 5;
+
+  private static final int ITERATIONS = 20;
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    final String classPrefix = args.length > 1 ? args[1] : "Lcfg/exc/intra/";
+
+    final AnalysisScope scope = NonNullTestData.makeScope(scopeFile);
+    final ClassHierarchy[] cha = new ClassHierarchy[1];
+    final long chaTime = Benchmarks.measure(1, 3, () -> cha[0] = NonNullTestData.makeClassHierarchy(scope));
+
+    final NonNullAnalysisFactory analyses = new NonNullAnalysisFactory(cha[0]);
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    final List<IR> irs = new ArrayList<>();
+    long bytecode = 0;
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha[0])) {
+      if (m.getDeclaringClass().getName().toString().startsWith(classPrefix)) {
+        irs.add(driver.makeIR(m));
+        bytecode += Benchmarks.bytecodeSize(m);
+      }
+    }
+    System.out.println("methods: " + irs.size() + ", bytecode: " + bytecode + " bytes");
+
+    final long parameterStateTime = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (IR ir : irs) {
+        analyses.makeNonNullParameterState(ir);
+      }
+    });
+    final long explodedTime = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (IR ir : irs) {
+        analyses.createNonNullRespectingExplodedCFGAnalysis(ir).compute(new NullProgressMonitor());
+      }
+    });
+    final long ssaTime = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (IR ir : irs) {
+        analyses.createNonNullRespectingSSACFGAnalysis(ir).compute(new NullProgressMonitor());
+      }
+    });
+
+    Benchmarks.report("ClassHierarchy.make", chaTime, irs.size(), bytecode);
+    Benchmarks.report("makeNonNullParameterState", parameterStateTime, irs.size(), bytecode);
+    Benchmarks.report("ExplodedCFGNullPointerAnalysis.compute", explodedTime, irs.size(), bytecode);
+    Benchmarks.report("SSACFGNullPointerAnalysis.compute", ssaTime, irs.size(), bytecode);
+  }
+}
@@ -0,0 +1,274 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.ibm.wala.cfg.exc.intra.SSACFGNullPointerAnalysis;
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.NullProgressMonitor;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+
+/**
+ * Runs a {@link MethodNullnessAnalyzer}, by default the annotation aware {@link SSACFGNullPointerAnalysis}, on
+ * many methods in parallel, and streams each result to a {@link MethodResultSink} as soon as it is available.
+ *
+ * Workers share the caches of one {@link NonNullAnalysisFactory}, including its {@link IRCache}: the {@link IR} of
+ * each method is taken from the cache, or built and added to it, so that analyses of the same method share it. The
+ * cache is bounded by its capacity and holds its IRs softly, so memory use does not grow with the number of methods.
+ *
+ * With an {@link AnalysisBudget}, a method that exceeds its budget, or is started after the budget of the batch ran
+ * out, gets the {@link MethodNullnessAnalyzer#conservative(IR)} result instead of failing. Building the IR of a
+ * method counts toward its budget.
+ *
+ * With a {@link MethodDeduplicator}, methods sharing a {@link MethodFingerprint} are analyzed once.
+ */
+public class NullPointerAnalysisDriver {
+
+  /**
+   * Receives the results of a batch run. Sinks are called concurrently from the worker threads.
+   */
+  public interface MethodResultSink {
+
+    void analyzed(MethodNullnessResult result);
+
+    default void failed(IMethod m, Exception e) {
+    }
+  }
+
+  private final NonNullAnalysisFactory analyses;
+
+  private final ForkJoinPool pool;
+
+  private final MethodNullnessAnalyzer analyzer;
+
+  private PersistentResultStore resultStore;
+
+  private AnalysisBudget budget;
+
+  private MethodDeduplicator deduplicator;
+
+  public NullPointerAnalysisDriver(NonNullAnalysisFactory analyses, MethodNullnessAnalyzer analyzer, ForkJoinPool pool) {
+    this.analyses = analyses;
+    this.analyzer = analyzer;
+    this.pool = pool;
+  }
+
+  public NullPointerAnalysisDriver(NonNullAnalysisFactory analyses, ForkJoinPool pool) {
+    this(analyses, MethodNullnessAnalyzer.named("SSACFG", analyses::analyzeSSACFG), pool);
+  }
+
+  public NullPointerAnalysisDriver(NonNullAnalysisFactory analyses) {
+    this(analyses, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Reuses the results in store, and adds new results to it.
+   *
+   * @throws IllegalArgumentException if store was not opened for {@link #getAnalyzerName()}
+   */
+  public void setResultStore(PersistentResultStore store) {
+    if (store != null && !store.getAnalyzer().equals(getAnalyzerName())) {
+      throw new IllegalArgumentException("Store of " + store.getAnalyzer() + " for a driver of " + getAnalyzerName());
+    }
+    this.resultStore = store;
+  }
+
+  /**
+   * @return the name of the analyzer of this driver, and of the return summaries of its factory, under which its
+   *         results are stored in a {@link PersistentResultStore}
+   */
+  public String getAnalyzerName() {
+    return analyzer.getName() + " with " + analyses.getReturnSummaries().getName();
+  }
+
+  /**
+   * Enforces budget on all methods analyzed from now on.
+   */
+  public void setBudget(AnalysisBudget budget) {
+    this.budget = budget;
+  }
+
+  public AnalysisBudget getBudget() {
+    return budget;
+  }
+
+  /**
+   * Analyzes only the first of the methods sharing a {@link MethodFingerprint} from now on, and reports its result
+   * for the others. Results cut short by the budget are shared as well, as the duplicates would exceed it alike.
+   * Since the fingerprint does not cover the analyzer, drivers with different analyzers must not share a deduplicator;
+   * result stores are checked for this, see {@link #setResultStore(PersistentResultStore)}.
+   */
+  public void setDeduplicator(MethodDeduplicator deduplicator) {
+    this.deduplicator = deduplicator;
+  }
+
+  public MethodDeduplicator getDeduplicator() {
+    return deduplicator;
+  }
+
+  /**
+   * @return all non-abstract, non-native methods declared by classes of the application loader
+   */
+  public static List<IMethod> applicationMethods(IClassHierarchy cha) {
+    final List<IMethod> methods = new ArrayList<>();
+    for (IClass c : cha) {
+      if (!c.getClassLoader().getReference().equals(ClassLoaderReference.Application)) {
+        continue;
+      }
+      for (IMethod m : c.getDeclaredMethods()) {
+        if (!m.isAbstract() && !m.isNative()) {
+          methods.add(m);
+        }
+      }
+    }
+    return methods;
+  }
+
+  /**
+   * Analyzes all application methods, see {@link #applicationMethods(IClassHierarchy)}.
+   */
+  public void analyzeAll(MethodResultSink sink) {
+    analyze(applicationMethods(analyses.getClassHierarchy()), sink);
+  }
+
+  /**
+   * Analyzes methods on the pool of this driver, and blocks until all of them have been reported to sink.
+   */
+  public void analyze(List<IMethod> methods, MethodResultSink sink) {
+    pool.invoke(new AnalyzeRange(methods, 0, methods.size(), sink));
+  }
+
+  public IR makeIR(IMethod m) {
+    return analyses.makeIR(m);
+  }
+
+  /**
+   * Analyzes m, unless the result store or the deduplicator of this driver holds a result for its
+   * {@link MethodFingerprint}.
+   */
+  public MethodNullnessResult analyze(IMethod m) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    if (resultStore == null && deduplicator == null) {
+      return analyzeWithinBudget(m);
+    }
+    final MethodFingerprint key = MethodFingerprint.of(m, analyses);
+    if (deduplicator == null) {
+      return analyzeOrLoad(m, key);
+    }
+    return deduplicator.analyze(m, key, () -> analyzeOrLoad(m, key));
+  }
+
+  private MethodNullnessResult analyzeOrLoad(IMethod m, MethodFingerprint key)
+      throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    if (resultStore == null) {
+      return analyzeWithinBudget(m);
+    }
+    final MethodNullnessResult stored = resultStore.get(m.getReference(), key);
+    if (stored != null) {
+      return stored;
+    }
+    final AnalysisBudget.Monitor monitor = (budget == null) ? null : budget.start();
+    final MethodNullnessResult result = analyzeWithinBudget(m, monitor);
+    if (monitor == null || monitor.getExceededLimit() == null) {
+      // conservative results would hide the real one from later runs.
+      resultStore.put(key, result);
+    }
+    return result;
+  }
+
+  private MethodNullnessResult analyzeWithinBudget(IMethod m) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    return analyzeWithinBudget(m, (budget == null) ? null : budget.start());
+  }
+
+  private MethodNullnessResult analyzeWithinBudget(IMethod m, AnalysisBudget.Monitor monitor)
+      throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    if (monitor == null) {
+      return analyzer.analyze(makeIR(m), new NullProgressMonitor());
+    }
+    IR ir = null;
+    try {
+      // the IR is built on the clock of the method, and not analyzed if that used up its budget.
+      checkCanceled(monitor);
+      ir = makeIR(m);
+      checkCanceled(monitor);
+      return analyzer.analyze(ir, monitor);
+    } catch (CancelException e) {
+      if (monitor.getExceededLimit() == null) {
+        throw e;
+      }
+      budget.overrun(m, monitor);
+      // the conservative result still needs the blocks of the IR.
+      return analyzer.conservative((ir != null) ? ir : makeIR(m));
+    }
+  }
+
+  private static void checkCanceled(AnalysisBudget.Monitor monitor) throws CancelException {
+    if (monitor.isCanceled()) {
+      throw CancelException.make(monitor.getCancelMessage());
+    }
+  }
+
+  private void analyze(IMethod m, MethodResultSink sink) {
+    final MethodNullnessResult result;
+    try {
+      result = analyze(m);
+    } catch (InvalidClassFileException | UnsoundGraphException | CancelException | RuntimeException e) {
+      sink.failed(m, e);
+      return;
+    }
+    sink.analyzed(result);
+  }
+
+  /**
+   * Splits a range of methods in halves until a single method is left, so idle workers can steal the
+   * remaining halves of long running ranges.
+   */
+  private final class AnalyzeRange extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<IMethod> methods;
+
+    private final int from;
+
+    private final int to;
+
+    private final MethodResultSink sink;
+
+    AnalyzeRange(List<IMethod> methods, int from, int to, MethodResultSink sink) {
+      this.methods = methods;
+      this.from = from;
+      this.to = to;
+      this.sink = sink;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from <= 1) {
+        if (to > from) {
+          analyze(methods.get(from), sink);
+        }
+      } else {
+        final int mid = (from + to) >>> 1;
+        invokeAll(new AnalyzeRange(methods, from, mid, sink), new AnalyzeRange(methods, mid, to, sink));
+      }
+    }
+  }
+}
@@ -0,0 +1,421 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.Util;
+import com.ibm.wala.cfg.exc.intra.MethodState;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.shrikeBT.IConditionalBranchInstruction;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAConditionalBranchInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSANewInstruction;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.ssa.SymbolTable;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+
+/**
+ * An intra-procedural null pointer dataflow on the {@link ISSABasicBlock}s of an {@link IR}, with the transfer
+ * functions of {@link com.ibm.wala.cfg.exc.intra.SSACFGNullPointerAnalysis}, on {@link PackedNullPointerState}s,
+ * and with a choice of the order in which blocks are (re)evaluated.
+ *
+ * The node transfer function of a block meets the uses of each of its phis; the edge transfer functions apply the
+ * effect of the last instruction of the source block: a dereferenced value is {@link State#NOT_NULL} on normal
+ * edges, a comparison with null refines its operand on both branches, a new object is not null, and so is the
+ * result of an invoke for which the {@link MethodState} holds. Exceptional edges leave the state unchanged, as
+ * invokes, array accesses and monitors may also throw while the value they dereference is not null.
+ */
+public class NullPointerSolver {
+
+  public enum Order {
+    /**
+     * Blocks are evaluated in the order they were added to the worklist, as the WALA dataflow solver does.
+     */
+    FIFO,
+    /**
+     * The pending block first in reverse postorder is evaluated next, so the body of a loop is stable before its
+     * exits are evaluated.
+     */
+    REVERSE_POSTORDER
+  }
+
+  private final IR ir;
+
+  private final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg;
+
+  private final ParameterState parameterState;
+
+  private final MethodState methodState;
+
+  private final Order order;
+
+  private final int maxValueNumber;
+
+  /** the largest number of a block of the IR, which cfg may not contain */
+  private final int maxBlockNumber;
+
+  private PackedNullPointerState[] out;
+
+  private int evaluations = 0;
+
+  public NullPointerSolver(IR ir, ParameterState parameterState, MethodState methodState, Order order) {
+    this(ir, ir.getControlFlowGraph(), parameterState, methodState, order);
+  }
+
+  /**
+   * @param cfg the control flow graph of ir, or a subgraph of it such as
+   *          {@link SparseNullPointerAnalysis#withoutIgnoredExceptions}
+   */
+  public NullPointerSolver(IR ir, ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg, ParameterState parameterState,
+      MethodState methodState, Order order) {
+    this.ir = ir;
+    this.cfg = cfg;
+    this.parameterState = parameterState;
+    this.methodState = methodState;
+    this.order = order;
+    this.maxValueNumber = ir.getSymbolTable().getMaxValueNumber();
+    this.maxBlockNumber = ir.getControlFlowGraph().getMaxNumber();
+  }
+
+  /**
+   * Iterates to the fixpoint.
+   *
+   * @return the number of block evaluations
+   */
+  public int compute(IProgressMonitor monitor) throws CancelException {
+    out = new PackedNullPointerState[maxBlockNumber + 1];
+    evaluations = 0;
+    final Worklist worklist = (order == Order.FIFO) ? new FifoWorklist() : new ReversePostorderWorklist();
+    for (ISSABasicBlock bb : cfg) {
+      worklist.add(bb.getNumber());
+    }
+    final int entry = cfg.entry().getNumber();
+    while (!worklist.isEmpty()) {
+      MonitorUtil.throwExceptionIfCanceled(monitor);
+      final int b = worklist.next();
+      final ISSABasicBlock bb = cfg.getNode(b);
+      final PackedNullPointerState in = (b == entry) ? initialState() : in(bb);
+      if (in == null) {
+        // no predecessor was reached yet.
+        continue;
+      }
+      evaluations++;
+      applyPhis(bb, in);
+      if (!in.equals(out[b])) {
+        out[b] = in;
+        for (Iterator<ISSABasicBlock> it = cfg.getSuccNodes(bb); it.hasNext();) {
+          worklist.add(it.next().getNumber());
+        }
+      }
+    }
+    return evaluations;
+  }
+
+  PackedNullPointerState initialState() {
+    final SymbolTable symbolTable = ir.getSymbolTable();
+    final PackedNullPointerState state = new PackedNullPointerState(maxValueNumber);
+    for (int v = 1; v <= maxValueNumber; v++) {
+      if (symbolTable.isNullConstant(v)) {
+        state.setState(v, State.NULL);
+      } else if (symbolTable.isStringConstant(v)) {
+        state.setState(v, State.NOT_NULL);
+      }
+    }
+    for (Map.Entry<Integer, State> e : parameterState.getStates().entrySet()) {
+      state.setState(symbolTable.getParameter(e.getKey()), e.getValue());
+    }
+    return state;
+  }
+
+  private PackedNullPointerState in(ISSABasicBlock bb) {
+    PackedNullPointerState in = null;
+    for (Iterator<ISSABasicBlock> it = cfg.getPredNodes(bb); it.hasNext();) {
+      final ISSABasicBlock pred = it.next();
+      final PackedNullPointerState predOut = out[pred.getNumber()];
+      if (predOut == null) {
+        continue;
+      }
+      final PackedNullPointerState edge = predOut.copy();
+      edgeEffects(pred, bb, edge::setState);
+      if (in == null) {
+        in = edge;
+      } else {
+        in.meet(edge);
+      }
+    }
+    return in;
+  }
+
+  private static void applyPhis(ISSABasicBlock bb, PackedNullPointerState state) {
+    for (Iterator<SSAPhiInstruction> it = bb.iteratePhis(); it.hasNext();) {
+      final SSAPhiInstruction phi = it.next();
+      if (phi == null) {
+        continue;
+      }
+      State s = State.UNKNOWN;
+      for (int i = 0; i < phi.getNumberOfUses(); i++) {
+        s = meet(s, state.getState(phi.getUse(i)));
+      }
+      state.setState(phi.getDef(), s);
+    }
+  }
+
+  static State meet(State a, State b) {
+    if (a == b || b == State.UNKNOWN) {
+      return a;
+    }
+    return (a == State.UNKNOWN) ? b : State.BOTH;
+  }
+
+  /**
+   * Receives the states the edge transfer function of an edge sets.
+   */
+  interface EdgeEffect {
+    void set(int valueNumber, State s);
+  }
+
+  /**
+   * Reports the effects of the edge transfer function of src -&gt; dst to effect, in the order they apply.
+   */
+  void edgeEffects(ISSABasicBlock src, ISSABasicBlock dst, EdgeEffect effect) {
+    if (src.getLastInstructionIndex() < 0) {
+      return;
+    }
+    final SSAInstruction last = src.getLastInstruction();
+    if (last == null) {
+      return;
+    }
+    if (last instanceof SSAConditionalBranchInstruction) {
+      branchEffects((SSAConditionalBranchInstruction) last, src, dst, effect);
+      return;
+    }
+    final boolean normal = cfg.getNormalSuccessors(src).contains(dst);
+    if (!normal) {
+      return;
+    }
+    final int dereferenced = NullDereferences.dereferencedValue(last);
+    if (dereferenced != NullDereferences.NO_DEREFERENCE) {
+      effect.set(dereferenced, State.NOT_NULL);
+    }
+    if (last instanceof SSANewInstruction) {
+      effect.set(last.getDef(), State.NOT_NULL);
+    } else if (last instanceof SSAAbstractInvokeInstruction) {
+      final SSAAbstractInvokeInstruction invoke = (SSAAbstractInvokeInstruction) last;
+      if (invoke.hasDef() && methodState.throwsException(invoke)) {
+        effect.set(invoke.getDef(), State.NOT_NULL);
+      }
+    }
+  }
+
+  private void branchEffects(SSAConditionalBranchInstruction branch, ISSABasicBlock src, ISSABasicBlock dst, EdgeEffect effect) {
+    final SymbolTable symbolTable = ir.getSymbolTable();
+    final int v;
+    if (symbolTable.isNullConstant(branch.getUse(0))) {
+      v = branch.getUse(1);
+    } else if (symbolTable.isNullConstant(branch.getUse(1))) {
+      v = branch.getUse(0);
+    } else {
+      return;
+    }
+    final boolean isNull;
+    if (branch.getOperator() == IConditionalBranchInstruction.Operator.EQ) {
+      isNull = true;
+    } else if (branch.getOperator() == IConditionalBranchInstruction.Operator.NE) {
+      isNull = false;
+    } else {
+      return;
+    }
+    if (Util.endsWithConditionalBranch(cfg, src) && Util.getTakenSuccessor(cfg, src) == dst) {
+      effect.set(v, isNull ? State.NULL : State.NOT_NULL);
+    } else if (Util.endsWithConditionalBranch(cfg, src) && Util.getNotTakenSuccessor(cfg, src) == dst) {
+      effect.set(v, isNull ? State.NOT_NULL : State.NULL);
+    }
+  }
+
+  /**
+   * @return the state after the phis of bb, and before the effect of its last instruction, or null if bb was not
+   *         reached
+   */
+  public PackedNullPointerState getState(ISSABasicBlock bb) {
+    return out[bb.getNumber()];
+  }
+
+  /**
+   * @return true iff the last instruction of bb dereferences a value that is {@link State#NOT_NULL}
+   */
+  public boolean isSafeDereference(ISSABasicBlock bb) {
+    if (out[bb.getNumber()] == null || bb.getLastInstructionIndex() < 0 || bb.getLastInstruction() == null) {
+      return false;
+    }
+    final int v = NullDereferences.dereferencedValue(bb.getLastInstruction());
+    return v != NullDereferences.NO_DEREFERENCE && out[bb.getNumber()].getState(v) == State.NOT_NULL;
+  }
+
+  /**
+   * @return the approximate number of bytes of the block states of the last {@link #compute(IProgressMonitor)},
+   *         counting words shared between states once
+   */
+  public long sizeOfStates() {
+    final Set<long[]> counted = Collections.newSetFromMap(new IdentityHashMap<long[], Boolean>());
+    long bytes = 0;
+    for (PackedNullPointerState state : out) {
+      if (state != null && counted.add(state.getWords())) {
+        bytes += state.sizeOfWords();
+      }
+    }
+    return bytes;
+  }
+
+  /**
+   * @return the number of block states of the last {@link #compute(IProgressMonitor)}, i.e. of reached blocks
+   */
+  public int getNumberOfStates() {
+    int states = 0;
+    for (PackedNullPointerState state : out) {
+      if (state != null) {
+        states++;
+      }
+    }
+    return states;
+  }
+
+  /**
+   * @return the number of block evaluations of the last {@link #compute(IProgressMonitor)}
+   */
+  public int getNumberOfEvaluations() {
+    return evaluations;
+  }
+
+  public Order getOrder() {
+    return order;
+  }
+
+  /**
+   * @return the numbers of the blocks reachable from the entry of cfg, in reverse postorder
+   */
+  static int[] reversePostorder(ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg) {
+    final int[] postorder = new int[cfg.getMaxNumber() + 1];
+    int size = 0;
+    final BitSet visited = new BitSet();
+    final ArrayDeque<ISSABasicBlock> stack = new ArrayDeque<>();
+    final ArrayDeque<Iterator<ISSABasicBlock>> successors = new ArrayDeque<>();
+    stack.push(cfg.entry());
+    successors.push(cfg.getSuccNodes(cfg.entry()));
+    visited.set(cfg.entry().getNumber());
+    while (!stack.isEmpty()) {
+      final Iterator<ISSABasicBlock> it = successors.peek();
+      if (it.hasNext()) {
+        final ISSABasicBlock succ = it.next();
+        if (!visited.get(succ.getNumber())) {
+          visited.set(succ.getNumber());
+          stack.push(succ);
+          successors.push(cfg.getSuccNodes(succ));
+        }
+      } else {
+        postorder[size++] = stack.pop().getNumber();
+        successors.pop();
+      }
+    }
+    final int[] reversed = new int[size];
+    for (int i = 0; i < size; i++) {
+      reversed[i] = postorder[size - 1 - i];
+    }
+    return reversed;
+  }
+
+  private interface Worklist {
+    void add(int block);
+    int next();
+    boolean isEmpty();
+  }
+
+  private final class FifoWorklist implements Worklist {
+    private final ArrayDeque<Integer> queue = new ArrayDeque<>();
+    private final BitSet pending = new BitSet();
+
+    @Override
+    public void add(int block) {
+      if (!pending.get(block)) {
+        pending.set(block);
+        queue.add(block);
+      }
+    }
+
+    @Override
+    public int next() {
+      final int block = queue.poll();
+      pending.clear(block);
+      return block;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return queue.isEmpty();
+    }
+  }
+
+  /**
+   * A priority worklist keyed by the reverse postorder rank of the blocks; blocks unreachable from the entry come last.
+   */
+  private final class ReversePostorderWorklist implements Worklist {
+    private final int[] rank = new int[maxBlockNumber + 1];
+    private final int[] blockOfRank = new int[maxBlockNumber + 1];
+    private final BitSet pending = new BitSet();
+
+    ReversePostorderWorklist() {
+      final int[] order = reversePostorder(cfg);
+      final BitSet visited = new BitSet();
+      int r = 0;
+      for (int b : order) {
+        visited.set(b);
+        rank[b] = r;
+        blockOfRank[r++] = b;
+      }
+      for (int b = 0; b < rank.length; b++) {
+        if (!visited.get(b)) {
+          rank[b] = r;
+          blockOfRank[r++] = b;
+        }
+      }
+    }
+
+    @Override
+    public void add(int block) {
+      pending.set(rank[block]);
+    }
+
+    @Override
+    public int next() {
+      final int r = pending.nextSetBit(0);
+      pending.clear(r);
+      return blockOfRank[r];
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return pending.isEmpty();
+    }
+  }
+}
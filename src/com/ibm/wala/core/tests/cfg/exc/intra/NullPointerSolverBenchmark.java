@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.util.NullProgressMonitor;
+
+/**
+ * Compares the block evaluations and wall time of {@link NullPointerSolver} in {@link NullPointerSolver.Order#FIFO}
+ * and {@link NullPointerSolver.Order#REVERSE_POSTORDER} order, with {@code SSACFGNullPointerAnalysis.compute} as a
+ * reference, and the memory of the packed block states of the solver with that of one {@code State[]} per block.
+ *
+ * Usage: {@code NullPointerSolverBenchmark [scopeFile [classPrefix]]}. By default, the loop nests of
+ * {@code cfg.exc.intra.NestedLoops} are measured.
+ */
+public class NullPointerSolverBenchmark {
+
+  private static final int WARMUP = 5;
+
+  private static final int ITERATIONS = 50;
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    final String classPrefix = args.length > 1 ? args[1] : "Lcfg/exc/intra/NestedLoops";
+
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(NonNullTestData.makeScope(scopeFile));
+    final NonNullAnalysisFactory analyses = new NonNullAnalysisFactory(cha);
+    final List<IR> irs = new ArrayList<>();
+    final List<ParameterState> parameterStates = new ArrayList<>();
+    long bytecode = 0;
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (m.getDeclaringClass().getName().toString().startsWith(classPrefix)) {
+        irs.add(analyses.makeIR(m));
+        parameterStates.add(analyses.makeNonNullParameterState(m));
+        bytecode += Benchmarks.bytecodeSize(m);
+      }
+    }
+    System.out.println("methods: " + irs.size() + ", bytecode: " + bytecode + " bytes");
+
+    for (NullPointerSolver.Order order : NullPointerSolver.Order.values()) {
+      long evaluations = 0;
+      long packedBytes = 0;
+      long arrayBytes = 0;
+      for (int i = 0; i < irs.size(); i++) {
+        final NullPointerSolver solver = new NullPointerSolver(irs.get(i), parameterStates.get(i),
+            analyses.getReturnSummaries().asMethodState(), order);
+        evaluations += solver.compute(new NullProgressMonitor());
+        packedBytes += solver.sizeOfStates();
+        // a State[] of all value numbers, with compressed references.
+        arrayBytes += solver.getNumberOfStates() * (16L + 4L * (irs.get(i).getSymbolTable().getMaxValueNumber() + 1));
+      }
+      final long time = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+        for (int i = 0; i < irs.size(); i++) {
+          new NullPointerSolver(irs.get(i), parameterStates.get(i), analyses.getReturnSummaries().asMethodState(), order)
+              .compute(new NullProgressMonitor());
+        }
+      });
+      Benchmarks.report("NullPointerSolver " + order, time, irs.size(), bytecode);
+      System.out.println(String.format("%-40s %12d evaluations", "", evaluations));
+      System.out.println(String.format("%-40s %12d bytes of states, %d as State[]", "", packedBytes, arrayBytes));
+    }
+
+    final long reference = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (int i = 0; i < irs.size(); i++) {
+        analyses.createNonNullRespectingSSACFGAnalysis(irs.get(i), parameterStates.get(i)).compute(new NullProgressMonitor());
+      }
+    });
+    Benchmarks.report("SSACFGNullPointerAnalysis.compute", reference, irs.size(), bytecode);
+  }
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.intra.NullPointerState;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * The {@link NullPointerState} of every value number at every reachable basic block of a method, and the
+ * dereferences that were proven not to throw a {@link NullPointerException}.
+ *
+ * Unlike {@link MethodNullnessResult}, reports are meant to be written out by a {@link NullStateReportWriter}
+ * and dropped right away, see {@link #exportingAnalyzer(NonNullAnalysisFactory, NullStateReportWriter)}.
+ */
+public final class NullStateReport {
+
+  private final MethodReference method;
+
+  private final int maxValueNumber;
+
+  private final int[] blocks;
+
+  private final PackedNullPointerState[] blockStates;
+
+  private final int[] safeDereferences;
+
+  /**
+   * @param blocks           numbers of the reachable basic blocks
+   * @param blockStates      for each block, the state of every value number 0..maxValueNumber after the block
+   * @param safeDereferences indices into {@link IR#getInstructions()} of the dereferences proven safe, ascending
+   */
+  public NullStateReport(MethodReference method, int maxValueNumber, int[] blocks, State[][] blockStates, int[] safeDereferences) {
+    this(method, maxValueNumber, blocks, pack(blockStates), safeDereferences);
+  }
+
+  /**
+   * @param blockStates for each block, the states after the block, which may share their words with each other
+   */
+  public NullStateReport(MethodReference method, int maxValueNumber, int[] blocks, PackedNullPointerState[] blockStates, int[] safeDereferences) {
+    if (blocks.length != blockStates.length) {
+      throw new IllegalArgumentException("Expected one state per block");
+    }
+    this.method = method;
+    this.maxValueNumber = maxValueNumber;
+    this.blocks = blocks;
+    this.blockStates = blockStates;
+    this.safeDereferences = safeDereferences;
+  }
+
+  private static PackedNullPointerState[] pack(State[][] blockStates) {
+    final PackedNullPointerState[] packed = new PackedNullPointerState[blockStates.length];
+    for (int i = 0; i < blockStates.length; i++) {
+      packed[i] = PackedNullPointerState.of(blockStates[i]);
+    }
+    return packed;
+  }
+
+  /**
+   * Extracts the report of an already computed analysis on the {@link ISSABasicBlock}s of ir.
+   *
+   * Since every dereference ends its basic block, a dereference is safe iff all exceptional edges of its block
+   * were pruned, or its value is {@link State#NOT_NULL} after every normal predecessor. The latter misses values
+   * that are only refined on a conditional edge, or defined by a phi of the same block, so it is conservative.
+   *
+   * The state of a block that equals the state of one of its predecessors shares its words with it.
+   */
+  public static NullStateReport of(IR ir, ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis) {
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> original = ir.getControlFlowGraph();
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> pruned = analysis.getCFG();
+    final int maxValueNumber = ir.getSymbolTable().getMaxValueNumber();
+
+    int[] blocks = new int[pruned.getNumberOfNodes()];
+    PackedNullPointerState[] blockStates = new PackedNullPointerState[blocks.length];
+    final PackedNullPointerState[] byNumber = new PackedNullPointerState[original.getMaxNumber() + 1];
+    int size = 0;
+    for (ISSABasicBlock bb : pruned) {
+      final NullPointerState state = analysis.getState(bb);
+      if (state == null) {
+        continue;
+      }
+      if (size == blocks.length) {
+        blocks = Arrays.copyOf(blocks, 2 * size + 1);
+        blockStates = Arrays.copyOf(blockStates, 2 * size + 1);
+      }
+      blocks[size] = bb.getNumber();
+      PackedNullPointerState packed = PackedNullPointerState.of(state, maxValueNumber);
+      for (Iterator<ISSABasicBlock> it = pruned.getPredNodes(bb); it.hasNext();) {
+        final PackedNullPointerState pred = byNumber[it.next().getNumber()];
+        if (packed.equals(pred)) {
+          packed = pred.copy();
+          break;
+        }
+      }
+      byNumber[bb.getNumber()] = packed;
+      blockStates[size] = packed;
+      size++;
+    }
+
+    final SSAInstruction[] instructions = ir.getInstructions();
+    int[] safe = new int[8];
+    int safeSize = 0;
+    for (int i = 0; i < instructions.length; i++) {
+      final SSAInstruction instruction = instructions[i];
+      final int v = (instruction == null) ? NullDereferences.NO_DEREFERENCE : NullDereferences.dereferencedValue(instruction);
+      if (v == NullDereferences.NO_DEREFERENCE) {
+        continue;
+      }
+      final ISSABasicBlock bb = original.getBlockForInstruction(i);
+      if (pruned.containsNode(bb) && isSafe(original, pruned, analysis, bb, v)) {
+        if (safeSize == safe.length) {
+          safe = Arrays.copyOf(safe, 2 * safeSize);
+        }
+        safe[safeSize++] = i;
+      }
+    }
+
+    return new NullStateReport(ir.getMethod().getReference(), maxValueNumber, Arrays.copyOf(blocks, size),
+        Arrays.copyOf(blockStates, size), Arrays.copyOf(safe, safeSize));
+  }
+
+  private static boolean isSafe(ControlFlowGraph<SSAInstruction, ISSABasicBlock> original, ControlFlowGraph<SSAInstruction, ISSABasicBlock> pruned,
+      ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis, ISSABasicBlock bb, int v) {
+    if (!original.getExceptionalSuccessors(bb).isEmpty() && pruned.getExceptionalSuccessors(bb).isEmpty()) {
+      return true;
+    }
+    boolean any = false;
+    for (Iterator<ISSABasicBlock> it = pruned.getPredNodes(bb); it.hasNext();) {
+      final ISSABasicBlock pred = it.next();
+      final List<ISSABasicBlock> normal = pruned.getNormalSuccessors(pred);
+      if (!normal.contains(bb)) {
+        continue;
+      }
+      final NullPointerState state = analysis.getState(pred);
+      if (state == null || state.getState(v) != State.NOT_NULL) {
+        return false;
+      }
+      any = true;
+    }
+    return any;
+  }
+
+  /**
+   * @return an analyzer for {@link NullPointerAnalysisDriver} that writes the report of every method it analyzes to writer
+   */
+  public static MethodNullnessAnalyzer exportingAnalyzer(NonNullAnalysisFactory analyses, NullStateReportWriter writer) {
+    return (ir, monitor) -> {
+      final ParameterState parameterState = analyses.makeNonNullParameterState(ir);
+      final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis = analyses.createFieldAwareSSACFGAnalysis(ir, parameterState);
+      analysis.compute(monitor);
+      try {
+        writer.write(of(ir, analysis));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      return MethodNullnessResult.of(ir, analysis, parameterState);
+    };
+  }
+
+  public MethodReference getMethod() {
+    return method;
+  }
+
+  public int getMaxValueNumber() {
+    return maxValueNumber;
+  }
+
+  public int getNumberOfBlocks() {
+    return blocks.length;
+  }
+
+  /**
+   * @return the number of the i-th reachable basic block
+   */
+  public int getBlock(int i) {
+    return blocks[i];
+  }
+
+  public State getState(int i, int valueNumber) {
+    return blockStates[i].getState(valueNumber);
+  }
+
+  /**
+   * @return the states after the i-th reachable basic block
+   */
+  public PackedNullPointerState getStates(int i) {
+    return blockStates[i];
+  }
+
+  /**
+   * @return the state of valueNumber after the basic block with the given number, or null if it is unreachable
+   */
+  public State getStateAtBlock(int blockNumber, int valueNumber) {
+    for (int i = 0; i < blocks.length; i++) {
+      if (blocks[i] == blockNumber) {
+        return blockStates[i].getState(valueNumber);
+      }
+    }
+    return null;
+  }
+
+  public int getNumberOfSafeDereferences() {
+    return safeDereferences.length;
+  }
+
+  /**
+   * @return the index into {@link IR#getInstructions()} of the i-th safe dereference
+   */
+  public int getSafeDereference(int i) {
+    return safeDereferences[i];
+  }
+
+  public boolean isSafeDereference(int instructionIndex) {
+    return Arrays.binarySearch(safeDereferences, instructionIndex) >= 0;
+  }
+
+  @Override
+  public String toString() {
+    return "NullStateReport(" + method + ", " + blocks.length + " blocks, " + safeDereferences.length + " safe dereferences)";
+  }
+}
@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Random access to the reports written by {@link BinaryNullStateReportWriter}. Opening a file only reads its index;
+ * {@link #read(MethodReference)} then seeks to and decodes the report of a single method.
+ */
+public class NullStateReportReader implements Closeable {
+
+  private final RandomAccessFile file;
+
+  private final Map<String, Long> offsets;
+
+  public NullStateReportReader(File f) throws IOException {
+    this.file = new RandomAccessFile(f, "r");
+    boolean ok = false;
+    try {
+      if (file.length() < 24 || file.readInt() != BinaryNullStateReportWriter.MAGIC) {
+        throw new IOException("Not a null state report: " + f);
+      }
+      final int version = file.readInt();
+      if (version != BinaryNullStateReportWriter.VERSION) {
+        throw new IOException("Unsupported version " + version + " of " + f);
+      }
+      file.seek(file.length() - 12);
+      final long indexOffset = file.readLong();
+      if (file.readInt() != BinaryNullStateReportWriter.MAGIC) {
+        throw new IOException("Incomplete null state report: " + f);
+      }
+
+      file.seek(indexOffset);
+      final DataInputStream index = new DataInputStream(Channels.newInputStream(file.getChannel()));
+      final int numberOfMethods = index.readInt();
+      offsets = new HashMap<>(2 * numberOfMethods);
+      for (int i = 0; i < numberOfMethods; i++) {
+        final String signature = index.readUTF();
+        offsets.put(signature, index.readLong());
+      }
+      ok = true;
+    } finally {
+      if (!ok) {
+        file.close();
+      }
+    }
+  }
+
+  /**
+   * @return the signatures of all methods in the file
+   */
+  public Set<String> getMethods() {
+    return Collections.unmodifiableSet(offsets.keySet());
+  }
+
+  public boolean contains(MethodReference method) {
+    return offsets.containsKey(method.getSignature());
+  }
+
+  /**
+   * @return the report for method, or null if the file does not contain one
+   */
+  public synchronized NullStateReport read(MethodReference method) throws IOException {
+    final Long offset = offsets.get(method.getSignature());
+    if (offset == null) {
+      return null;
+    }
+    file.seek(offset);
+    final byte[] record = new byte[file.readInt()];
+    file.readFully(record);
+    final DataInputStream in = new DataInputStream(new ByteArrayInputStream(record));
+
+    in.readUTF();
+    final int maxValueNumber = in.readInt();
+
+    final int numberOfBlocks = in.readInt();
+    final int[] blocks = new int[numberOfBlocks];
+    final State[][] blockStates = new State[numberOfBlocks][];
+    final byte[] packed = new byte[MethodNullnessResultCodec.packedLength(maxValueNumber)];
+    for (int i = 0; i < numberOfBlocks; i++) {
+      blocks[i] = in.readInt();
+      in.readFully(packed);
+      blockStates[i] = MethodNullnessResultCodec.unpack(packed, maxValueNumber);
+    }
+
+    final int[] safeDereferences = new int[in.readInt()];
+    for (int i = 0; i < safeDereferences.length; i++) {
+      safeDereferences[i] = in.readInt();
+    }
+
+    return new NullStateReport(method, maxValueNumber, blocks, blockStates, safeDereferences);
+  }
+
+  @Override
+  public void close() throws IOException {
+    file.close();
+  }
+}
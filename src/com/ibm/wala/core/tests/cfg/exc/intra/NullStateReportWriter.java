@@ -0,0 +1,25 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Streams {@link NullStateReport}s to a file, one method at a time. Implementations are thread safe, and buffer at
+ * most a fixed number of bytes, so memory use does not depend on the number of methods written.
+ */
+public interface NullStateReportWriter extends Closeable {
+
+  int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+  void write(NullStateReport report) throws IOException;
+}
@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.NullProgressMonitor;
+import com.ibm.wala.util.graph.GraphIntegrity.UnsoundGraphException;
+
+/**
+ * Answers nullness queries on demand: a method is analyzed, with the analysis of
+ * {@link NonNullAnalysisFactory#analyzeSSACFG}, on the first query about it, and its analysis is kept for later
+ * queries.
+ *
+ * Concurrent queries about a method that is being analyzed wait for that analysis, so each method is analyzed at
+ * most once as long as its analysis is kept. Analyses are softly referenced and dropped by the garbage collector
+ * under memory pressure; a method queried again afterwards is analyzed again, which counts as a miss. Instances
+ * are thread-safe.
+ */
+public class NullnessService {
+
+  /**
+   * The analysis of a method, together with the IR it was computed on.
+   */
+  private static final class Analyzed {
+
+    private final IR ir;
+
+    private final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis;
+
+    Analyzed(IR ir, ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis) {
+      this.ir = ir;
+      this.analysis = analysis;
+    }
+  }
+
+  private static final class Entry extends SoftReference<CompletableFuture<Analyzed>> {
+
+    private final MethodReference method;
+
+    Entry(MethodReference method, CompletableFuture<Analyzed> future, ReferenceQueue<CompletableFuture<Analyzed>> queue) {
+      super(future, queue);
+      this.method = method;
+    }
+  }
+
+  private final NonNullAnalysisFactory analyses;
+
+  private final ConcurrentHashMap<MethodReference, Entry> entries = new ConcurrentHashMap<>();
+
+  private final ReferenceQueue<CompletableFuture<Analyzed>> cleared = new ReferenceQueue<>();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private final AtomicLong evictions = new AtomicLong();
+
+  public NullnessService(NonNullAnalysisFactory analyses) {
+    this.analyses = analyses;
+  }
+
+  /**
+   * @param bb          a block of {@link #getIR(MethodReference)}, or of an IR of m built with the same options
+   * @param valueNumber a value number of that IR
+   * @return the state of valueNumber after bb, or {@link State#UNKNOWN} if bb is unreachable once exceptional edges
+   *         have been pruned
+   * @throws IllegalArgumentException if m cannot be resolved, or bb is not a block of its IR
+   */
+  public State stateAt(MethodReference m, ISSABasicBlock bb, int valueNumber)
+      throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    final Analyzed analyzed = analyzed(m);
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg = analyzed.analysis.getCFG();
+    // blocks are looked up by number, so that blocks of an IR built again after an eviction are understood.
+    if (bb.getNumber() < 0 || bb.getNumber() > analyzed.ir.getControlFlowGraph().getMaxNumber()) {
+      throw new IllegalArgumentException("No block " + bb.getNumber() + " in " + m);
+    }
+    final ISSABasicBlock own = analyzed.ir.getControlFlowGraph().getNode(bb.getNumber());
+    if (!cfg.containsNode(own)) {
+      return State.UNKNOWN;
+    }
+    return analyzed.analysis.getState(own).getState(valueNumber);
+  }
+
+  /**
+   * @return the IR the queries about m are answered on
+   */
+  public IR getIR(MethodReference m) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    return analyzed(m).ir;
+  }
+
+  /**
+   * @return the control flow graph of m without the exceptional edges that cannot be taken
+   */
+  public ControlFlowGraph<SSAInstruction, ISSABasicBlock> getCFG(MethodReference m)
+      throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    return analyzed(m).analysis.getCFG();
+  }
+
+  private Analyzed analyzed(MethodReference m) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    purge();
+    while (true) {
+      final Entry e = entries.get(m);
+      final CompletableFuture<Analyzed> existing = (e == null) ? null : e.get();
+      if (existing != null) {
+        hits.incrementAndGet();
+        return join(existing);
+      }
+      final CompletableFuture<Analyzed> mine = new CompletableFuture<>();
+      final Entry entry = new Entry(m, mine, cleared);
+      final boolean installed = (e == null) ? entries.putIfAbsent(m, entry) == null : entries.replace(m, e, entry);
+      if (!installed) {
+        // another thread got in first, wait for its analysis.
+        continue;
+      }
+      if (e != null) {
+        // the garbage collector dropped the previous analysis, and purge() has not seen it yet.
+        evictions.incrementAndGet();
+      }
+      misses.incrementAndGet();
+      try {
+        final Analyzed analyzed = analyze(m);
+        mine.complete(analyzed);
+        return analyzed;
+      } catch (InvalidClassFileException | UnsoundGraphException | CancelException | RuntimeException ex) {
+        // the next query tries again, waiting ones fail alike.
+        entries.remove(m, entry);
+        mine.completeExceptionally(ex);
+        throw ex;
+      }
+    }
+  }
+
+  private Analyzed analyze(MethodReference mref) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    final IMethod m = analyses.getClassHierarchy().resolveMethod(mref);
+    if (m == null) {
+      throw new IllegalArgumentException("Cannot resolve " + mref);
+    }
+    final IR ir = analyses.makeIR(m);
+    final ParameterState parameterState = analyses.makeNonNullParameterState(ir);
+    final AnalysisMetrics metrics = analyses.getMetrics();
+    final long start = metrics.start();
+    final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis = analyses.createFieldAwareSSACFGAnalysis(ir, parameterState);
+    metrics.stop(AnalysisMetrics.Phase.CFG, start);
+    final long computeStart = metrics.start();
+    analysis.compute(new NullProgressMonitor());
+    metrics.computed(mref, computeStart);
+    return new Analyzed(ir, analysis);
+  }
+
+  private static Analyzed join(CompletableFuture<Analyzed> future) throws InvalidClassFileException, UnsoundGraphException, CancelException {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      final Throwable cause = e.getCause();
+      if (cause instanceof InvalidClassFileException) {
+        throw (InvalidClassFileException) cause;
+      } else if (cause instanceof UnsoundGraphException) {
+        throw (UnsoundGraphException) cause;
+      } else if (cause instanceof CancelException) {
+        throw (CancelException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Removes the entries whose analyses the garbage collector dropped.
+   */
+  private void purge() {
+    Object ref;
+    while ((ref = cleared.poll()) != null) {
+      final Entry e = (Entry) ref;
+      if (entries.remove(e.method, e)) {
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Drops all analyses, without counting them as evictions.
+   */
+  public void clear() {
+    entries.clear();
+  }
+
+  /**
+   * @return the number of methods whose analysis is kept, or being computed
+   */
+  public int size() {
+    purge();
+    return entries.size();
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of analyses started
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public long getEvictions() {
+    return evictions.get();
+  }
+
+  public NonNullAnalysisFactory getAnalyses() {
+    return analyses;
+  }
+
+  @Override
+  public String toString() {
+    return "NullnessService[entries: " + size() + ", hits: " + getHits() + ", misses: " + getMisses() + ", evictions: "
+        + getEvictions() + "]";
+  }
+}
@@ -0,0 +1,260 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.classLoader.ShrikeCTMethod;
+import com.ibm.wala.shrikeCT.AnnotationsReader.ArrayElementValue;
+import com.ibm.wala.shrikeCT.AnnotationsReader.ElementValue;
+import com.ibm.wala.shrikeCT.AnnotationsReader.EnumElementValue;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.types.annotations.Annotation;
+
+/**
+ * The annotation types that mark references as non-null or nullable, and those that declare non-null defaults,
+ * possibly from several annotation families at once.
+ *
+ * The type names are resolved once, for each of the standard class loaders, into {@link TypeReference}s. Since
+ * those are canonical, an annotation is classified by a single identity lookup, no matter how many families the
+ * vocabulary covers.
+ *
+ * Families whose annotations are declaration annotations, like jsr305, are also looked up among the declaration
+ * annotations of methods, parameters and fields; see {@link #readsDeclarationAnnotations()}. There, a non-null
+ * annotation with a {@code when} element only counts as non-null for {@code When.ALWAYS}, see
+ * {@link #kindOf(Annotation)}.
+ */
+public final class NullnessVocabulary {
+
+  /**
+   * Default locations taken from the {@code value} argument of the annotation, as for {@code @NonNullByDefault}.
+   */
+  public static final int FROM_VALUE = -1;
+
+  public enum Family {
+    /** {@code org.eclipse.jdt.annotation}, type annotations */
+    ECLIPSE(false,
+        new String[] { "Lorg/eclipse/jdt/annotation/NonNull" },
+        new String[] { "Lorg/eclipse/jdt/annotation/Nullable" },
+        new String[] { "Lorg/eclipse/jdt/annotation/NonNullByDefault" }, new int[] { FROM_VALUE }),
+    /** {@code javax.annotation} of jsr305, declaration annotations */
+    JSR305(true,
+        new String[] { "Ljavax/annotation/Nonnull" },
+        new String[] { "Ljavax/annotation/Nullable", "Ljavax/annotation/CheckForNull" },
+        new String[] { "Ljavax/annotation/ParametersAreNonnullByDefault" }, new int[] { NonNullByDefaultScopeResolver.PARAMETER }),
+    /** {@code org.checkerframework.checker.nullness.qual}, type annotations */
+    CHECKER(false,
+        new String[] { "Lorg/checkerframework/checker/nullness/qual/NonNull" },
+        new String[] { "Lorg/checkerframework/checker/nullness/qual/Nullable" },
+        new String[0], new int[0]);
+
+    private final boolean declarationAnnotations;
+    private final String[] nonNull;
+    private final String[] nullable;
+    private final String[] byDefault;
+    private final int[] byDefaultLocations;
+
+    private Family(boolean declarationAnnotations, String[] nonNull, String[] nullable, String[] byDefault, int[] byDefaultLocations) {
+      this.declarationAnnotations = declarationAnnotations;
+      this.nonNull = nonNull;
+      this.nullable = nullable;
+      this.byDefault = byDefault;
+      this.byDefaultLocations = byDefaultLocations;
+    }
+  }
+
+  /**
+   * The Eclipse annotations only, as understood by this package before vocabularies were configurable.
+   */
+  public static final NullnessVocabulary ECLIPSE = of(Family.ECLIPSE);
+
+  private static final ClassLoaderReference[] LOADERS = {
+      ClassLoaderReference.Application, ClassLoaderReference.Extension, ClassLoaderReference.Primordial };
+
+  private final Set<String> nonNullNames;
+
+  private final Set<String> nullableNames;
+
+  private final Map<String, Integer> byDefaultNames;
+
+  private final boolean declarationAnnotations;
+
+  private final IdentityHashMap<TypeReference, Byte> kinds = new IdentityHashMap<>();
+
+  private final IdentityHashMap<TypeReference, Integer> defaults = new IdentityHashMap<>();
+
+  /**
+   * @param nonNull                names of the non-null annotation types, as in {@code Ljavax/annotation/Nonnull}
+   * @param nullable               names of the nullable annotation types
+   * @param byDefault              names of the default annotation types, with their locations or {@link #FROM_VALUE}
+   * @param declarationAnnotations whether to look at declaration annotations, not only at type annotations
+   */
+  public NullnessVocabulary(Collection<String> nonNull, Collection<String> nullable, Map<String, Integer> byDefault,
+      boolean declarationAnnotations) {
+    this.nonNullNames = Collections.unmodifiableSet(new LinkedHashSet<>(nonNull));
+    this.nullableNames = Collections.unmodifiableSet(new LinkedHashSet<>(nullable));
+    this.byDefaultNames = Collections.unmodifiableMap(new LinkedHashMap<>(byDefault));
+    this.declarationAnnotations = declarationAnnotations;
+    for (ClassLoaderReference loader : LOADERS) {
+      for (String name : nonNull) {
+        kinds.put(TypeReference.findOrCreate(loader, name), NullAnnotationIndex.NONNULL);
+      }
+      for (String name : nullable) {
+        kinds.put(TypeReference.findOrCreate(loader, name), NullAnnotationIndex.NULLABLE);
+      }
+      for (Map.Entry<String, Integer> e : byDefault.entrySet()) {
+        defaults.put(TypeReference.findOrCreate(loader, e.getKey()), e.getValue());
+      }
+    }
+  }
+
+  public static NullnessVocabulary of(Family... families) {
+    final Set<String> nonNull = new LinkedHashSet<>();
+    final Set<String> nullable = new LinkedHashSet<>();
+    final Map<String, Integer> byDefault = new LinkedHashMap<>();
+    boolean declarationAnnotations = false;
+    for (Family f : families) {
+      nonNull.addAll(Arrays.asList(f.nonNull));
+      nullable.addAll(Arrays.asList(f.nullable));
+      for (int i = 0; i < f.byDefault.length; i++) {
+        byDefault.put(f.byDefault[i], f.byDefaultLocations[i]);
+      }
+      declarationAnnotations |= f.declarationAnnotations;
+    }
+    return new NullnessVocabulary(nonNull, nullable, byDefault, declarationAnnotations);
+  }
+
+  /**
+   * @return {@link NullAnnotationIndex#NONNULL}, {@link NullAnnotationIndex#NULLABLE} or
+   *         {@link NullAnnotationIndex#UNANNOTATED}, regardless of the elements of the annotation
+   */
+  public byte kindOf(TypeReference annotationType) {
+    final Byte kind = kinds.get(annotationType);
+    return (kind == null) ? NullAnnotationIndex.UNANNOTATED : kind;
+  }
+
+  /**
+   * @return the kind of a, where a non-null annotation whose {@code when} element, as in
+   *         {@code @javax.annotation.Nonnull(when = ...)}, is {@code MAYBE} or {@code NEVER} is
+   *         {@link NullAnnotationIndex#NULLABLE}, and one whose {@code when} is {@code UNKNOWN} or not understood is
+   *         {@link NullAnnotationIndex#UNANNOTATED}; only {@code ALWAYS}, the default, keeps it
+   *         {@link NullAnnotationIndex#NONNULL}
+   */
+  public byte kindOf(Annotation a) {
+    final byte kind = kindOf(a.getType());
+    final ElementValue when = (kind == NullAnnotationIndex.NONNULL) ? a.getNamedArguments().get("when") : null;
+    if (when == null) {
+      return kind;
+    } else if (!(when instanceof EnumElementValue)) {
+      return NullAnnotationIndex.UNANNOTATED;
+    }
+    switch (((EnumElementValue) when).enumVal) {
+      case "ALWAYS":
+        return NullAnnotationIndex.NONNULL;
+      case "MAYBE":
+      case "NEVER":
+        return NullAnnotationIndex.NULLABLE;
+      default:
+        return NullAnnotationIndex.UNANNOTATED;
+    }
+  }
+
+  /**
+   * @return the kind of the first nullness annotation among annotations, or {@link NullAnnotationIndex#UNANNOTATED}
+   */
+  public byte kindOf(Collection<Annotation> annotations) {
+    if (annotations != null) {
+      for (Annotation a : annotations) {
+        final byte kind = kindOf(a);
+        if (kind != NullAnnotationIndex.UNANNOTATED) {
+          return kind;
+        }
+      }
+    }
+    return NullAnnotationIndex.UNANNOTATED;
+  }
+
+  /**
+   * @return the default locations declared by the default annotations among annotations
+   */
+  public int locationsOf(Collection<Annotation> annotations) {
+    int locations = NonNullByDefaultScopeResolver.NONE;
+    for (Annotation a : annotations) {
+      final Integer fixed = defaults.get(a.getType());
+      if (fixed == null) {
+        continue;
+      }
+      locations |= (fixed == FROM_VALUE) ? locationsOf(a.getNamedArguments().get("value")) : fixed;
+    }
+    return locations;
+  }
+
+  private static int locationsOf(ElementValue value) {
+    if (value == null) {
+      return NonNullByDefaultScopeResolver.DEFAULT_LOCATIONS;
+    } else if (value instanceof ArrayElementValue) {
+      int locations = NonNullByDefaultScopeResolver.NONE;
+      for (ElementValue v : ((ArrayElementValue) value).vals) {
+        locations |= locationsOf(v);
+      }
+      return locations;
+    } else if (value instanceof EnumElementValue) {
+      return NonNullByDefaultScopeResolver.locationOf(((EnumElementValue) value).enumVal);
+    } else {
+      return NonNullByDefaultScopeResolver.NONE;
+    }
+  }
+
+  /**
+   * @return the declaration annotations of the parameters of m, or null if this vocabulary does not read them
+   */
+  public Collection<Annotation>[] parameterAnnotationsOf(ShrikeCTMethod m) throws InvalidClassFileException {
+    return declarationAnnotations ? m.getParameterAnnotations() : null;
+  }
+
+  /**
+   * @return the kind of the declaration annotations of m, which apply to its return type, or
+   *         {@link NullAnnotationIndex#UNANNOTATED} if this vocabulary does not read them
+   */
+  public byte returnDeclarationKindOf(ShrikeCTMethod m) throws InvalidClassFileException {
+    return declarationAnnotations ? kindOf(m.getAnnotations()) : NullAnnotationIndex.UNANNOTATED;
+  }
+
+  public boolean readsDeclarationAnnotations() {
+    return declarationAnnotations;
+  }
+
+  public Set<String> getNonNullAnnotations() {
+    return nonNullNames;
+  }
+
+  public Set<String> getNullableAnnotations() {
+    return nullableNames;
+  }
+
+  public Map<String, Integer> getDefaultAnnotations() {
+    return byDefaultNames;
+  }
+
+  @Override
+  public String toString() {
+    return "NullnessVocabulary[nonnull: " + nonNullNames + ", nullable: " + nullableNames + ", defaults: " + byDefaultNames.keySet() + "]";
+  }
+}
@@ -0,0 +1,101 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.ShrikeCTMethod;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.types.annotations.Annotation;
+import com.ibm.wala.types.annotations.TypeAnnotation;
+
+/**
+ * Compares classifying the annotations of the test data by the equality checks against the Eclipse annotations
+ * used before vocabularies were configurable, by the Eclipse vocabulary, and by a vocabulary of all families;
+ * and the time to build a {@link NullAnnotationIndex} with either vocabulary.
+ */
+public class NullnessVocabularyBenchmark {
+
+  private static final int WARMUP = 200;
+
+  private static final int ITERATIONS = 2000;
+
+  private static final int INDEX_WARMUP = 5;
+
+  private static final int INDEX_ITERATIONS = 20;
+
+  public static void main(String[] args) throws Exception {
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy();
+    final List<TypeReference> annotations = new ArrayList<>();
+    for (IClass c : cha) {
+      if (!c.getClassLoader().getReference().equals(ClassLoaderReference.Application)) {
+        continue;
+      }
+      for (IMethod m : c.getDeclaredMethods()) {
+        if (!(m instanceof ShrikeCTMethod)) {
+          continue;
+        }
+        for (TypeAnnotation ta : ((ShrikeCTMethod) m).getTypeAnnotationsAtMethodInfo(true)) {
+          annotations.add(ta.getAnnotation().getType());
+        }
+        for (Annotation a : m.getAnnotations()) {
+          annotations.add(a.getType());
+        }
+      }
+    }
+    final TypeReference[] types = annotations.toArray(new TypeReference[annotations.size()]);
+    System.out.println("annotations: " + types.length);
+
+    final NullnessVocabulary all = NullnessVocabulary.of(NullnessVocabulary.Family.values());
+    // the sums of the kinds classified by each variant, over all runs.
+    final long[] checksums = new long[3];
+    final long equalsChain = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (TypeReference t : types) {
+        if (t.equals(NonNullReturnSummaries.NONNULL)) {
+          checksums[0] += NullAnnotationIndex.NONNULL;
+        } else if (t.equals(NonNullAnalysisFactory.NULLABLE)) {
+          checksums[0] += NullAnnotationIndex.NULLABLE;
+        }
+      }
+    });
+    final long eclipse = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (TypeReference t : types) {
+        checksums[1] += NullnessVocabulary.ECLIPSE.kindOf(t);
+      }
+    });
+    final long allFamilies = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (TypeReference t : types) {
+        checksums[2] += all.kindOf(t);
+      }
+    });
+    if (checksums[0] != checksums[1]) {
+      throw new IllegalStateException("the Eclipse vocabulary and the equality checks differ");
+    }
+    final int n = Math.max(1, types.length);
+    System.out.println("equals chain:  " + (equalsChain / n) + " ns/annotation");
+    System.out.println("eclipse:       " + (eclipse / n) + " ns/annotation");
+    System.out.println("all families:  " + (allFamilies / n) + " ns/annotation");
+    System.out.println("checksums:     " + checksums[1] + ", all families " + checksums[2]);
+
+    final long[] indexed = new long[2];
+    final long eclipseIndex = Benchmarks.measure(INDEX_WARMUP, INDEX_ITERATIONS,
+        () -> indexed[0] = NullAnnotationIndex.build(cha, null, NullnessVocabulary.ECLIPSE).size());
+    final long allIndex = Benchmarks.measure(INDEX_WARMUP, INDEX_ITERATIONS,
+        () -> indexed[1] = NullAnnotationIndex.build(cha, null, all).size());
+    System.out.println("index, eclipse:      " + (eclipseIndex / 1000) + " us, " + indexed[0] + " methods");
+    System.out.println("index, all families: " + (allIndex / 1000) + " us, " + indexed[1] + " methods");
+  }
+}
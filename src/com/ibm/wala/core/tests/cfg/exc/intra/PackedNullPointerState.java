@@ -0,0 +1,261 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.Arrays;
+
+import com.ibm.wala.cfg.exc.intra.NullPointerState;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+
+/**
+ * The {@link State}s of value numbers 0..maxValueNumber, packed 2 bits per value into a {@code long[]}.
+ *
+ * The encoding is chosen such that the meet of the lattice is a bitwise or: {@link State#UNKNOWN} is 00,
+ * {@link State#NULL} 01, {@link State#NOT_NULL} 10 and {@link State#BOTH} 11. So meet, copy and equality work on
+ * 32 values per word. {@link MethodNullnessResultCodec} and the reports use the same encoding, see
+ * {@link #encode(State)}.
+ *
+ * {@link #copy()} shares the words with the copy, and each of the two takes a private copy of them when it is first
+ * modified. States that do not change while flowing through a block thus cost no memory of their own.
+ *
+ * {@link NullPointerSolver} and {@link SparseNullPointerAnalysis} compute their block states in this form, and
+ * {@link NullStateReport} stores them.
+ */
+public final class PackedNullPointerState {
+
+  private static final int UNKNOWN = 0;
+  private static final int NULL = 1;
+  private static final int NOT_NULL = 2;
+  private static final int BOTH = 3;
+
+  private static final State[] STATES = { State.UNKNOWN, State.NULL, State.NOT_NULL, State.BOTH };
+
+  private final int maxValueNumber;
+
+  private long[] words;
+
+  /**
+   * true iff words is not shared with another state
+   */
+  private boolean owned;
+
+  /**
+   * Creates a state with all values {@link State#UNKNOWN}.
+   */
+  public PackedNullPointerState(int maxValueNumber) {
+    this(maxValueNumber, new long[words(maxValueNumber)], true);
+  }
+
+  private PackedNullPointerState(int maxValueNumber, long[] words, boolean owned) {
+    this.maxValueNumber = maxValueNumber;
+    this.words = words;
+    this.owned = owned;
+  }
+
+  /**
+   * @return the number of words holding the states of value numbers 0..maxValueNumber
+   */
+  public static int words(int maxValueNumber) {
+    return (maxValueNumber >> 5) + 1;
+  }
+
+  public static PackedNullPointerState of(NullPointerState state, int maxValueNumber) {
+    final PackedNullPointerState packed = new PackedNullPointerState(maxValueNumber);
+    for (int v = 1; v <= maxValueNumber; v++) {
+      packed.words[v >> 5] |= (long) encode(state.getState(v)) << ((v & 31) << 1);
+    }
+    return packed;
+  }
+
+  /**
+   * @param states the state of every value number 0..states.length - 1, may contain null for {@link State#UNKNOWN}
+   */
+  public static PackedNullPointerState of(State[] states) {
+    final PackedNullPointerState packed = new PackedNullPointerState(states.length - 1);
+    for (int v = 0; v < states.length; v++) {
+      packed.words[v >> 5] |= (long) encode(states[v]) << ((v & 31) << 1);
+    }
+    return packed;
+  }
+
+  /**
+   * @return the 2 bit code of s, 0 for null
+   */
+  public static int encode(State s) {
+    if (s == null) {
+      return UNKNOWN;
+    }
+    switch (s) {
+      case UNKNOWN:  return UNKNOWN;
+      case NULL:     return NULL;
+      case NOT_NULL: return NOT_NULL;
+      case BOTH:     return BOTH;
+      default: throw new IllegalArgumentException("Unknown state " + s);
+    }
+  }
+
+  /**
+   * @return the state of the 2 bit code in the lowest bits of code
+   */
+  public static State decode(int code) {
+    return STATES[code & 3];
+  }
+
+  public int getMaxValueNumber() {
+    return maxValueNumber;
+  }
+
+  public State getState(int valueNumber) {
+    return STATES[(int) (words[valueNumber >> 5] >>> ((valueNumber & 31) << 1)) & 3];
+  }
+
+  /**
+   * @return true iff the state of valueNumber changed
+   */
+  public boolean setState(int valueNumber, State s) {
+    final int shift = (valueNumber & 31) << 1;
+    final long word = words[valueNumber >> 5];
+    final long updated = (word & ~(3L << shift)) | ((long) encode(s) << shift);
+    if (updated == word) {
+      return false;
+    }
+    own();
+    words[valueNumber >> 5] = updated;
+    return true;
+  }
+
+  /**
+   * Meets other into this state.
+   *
+   * @return true iff this state changed
+   */
+  public boolean meet(PackedNullPointerState other) {
+    checkSize(other);
+    final long[] o = other.words;
+    if (o == words) {
+      return false;
+    }
+    int i = 0;
+    while (i < words.length && (words[i] | o[i]) == words[i]) {
+      i++;
+    }
+    if (i == words.length) {
+      return false;
+    }
+    own();
+    for (; i < words.length; i++) {
+      words[i] |= o[i];
+    }
+    return true;
+  }
+
+  /**
+   * @return a state equal to this one, sharing its words until either is modified
+   */
+  public PackedNullPointerState copy() {
+    owned = false;
+    return new PackedNullPointerState(maxValueNumber, words, false);
+  }
+
+  /**
+   * Makes this state equal to other, sharing its words until either is modified.
+   */
+  public void copyState(PackedNullPointerState other) {
+    checkSize(other);
+    other.owned = false;
+    words = other.words;
+    owned = false;
+  }
+
+  /**
+   * @return the states of value numbers 0..maxValueNumber, indexed by value number
+   */
+  public State[] toStates() {
+    final State[] states = new State[maxValueNumber + 1];
+    for (int v = 0; v <= maxValueNumber; v++) {
+      states[v] = getState(v);
+    }
+    return states;
+  }
+
+  /**
+   * @return true iff this state shares its words with another state
+   */
+  public boolean isShared() {
+    return !owned;
+  }
+
+  /**
+   * @return true iff this state and other share their words
+   */
+  public boolean sharesWordsWith(PackedNullPointerState other) {
+    return words == other.words;
+  }
+
+  /**
+   * The words of this state, for telling apart states that share them. Must not be modified.
+   */
+  long[] getWords() {
+    return words;
+  }
+
+  /**
+   * @return the approximate number of bytes of the words of this state, whether shared or not
+   */
+  public long sizeOfWords() {
+    return 16L + 8L * words.length;
+  }
+
+  private void own() {
+    if (!owned) {
+      words = words.clone();
+      owned = true;
+    }
+  }
+
+  private void checkSize(PackedNullPointerState other) {
+    if (other.maxValueNumber != maxValueNumber) {
+      throw new IllegalArgumentException("States of different size: " + maxValueNumber + " vs. " + other.maxValueNumber);
+    }
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PackedNullPointerState)) {
+      return false;
+    }
+    final PackedNullPointerState other = (PackedNullPointerState) obj;
+    return maxValueNumber == other.maxValueNumber && (words == other.words || Arrays.equals(words, other.words));
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * maxValueNumber + Arrays.hashCode(words);
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder sb = new StringBuilder("<");
+    for (int v = 1; v <= maxValueNumber; v++) {
+      final State s = getState(v);
+      if (s != State.UNKNOWN) {
+        if (sb.length() > 1) {
+          sb.append(", ");
+        }
+        sb.append(v).append(": ").append(s);
+      }
+    }
+    return sb.append('>').toString();
+  }
+}
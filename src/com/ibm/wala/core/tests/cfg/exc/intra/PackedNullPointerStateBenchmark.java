@@ -0,0 +1,203 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.NullProgressMonitor;
+
+/**
+ * Compares the memory and the meet/copy throughput of per-block states as {@code State[]}, the representation of
+ * {@link com.ibm.wala.cfg.exc.intra.NullPointerState}, with {@link PackedNullPointerState}.
+ *
+ * The states are those computed for the methods of the {@code cfg.exc.intra} subjects, widened to the given
+ * number of value numbers by repeating them, which mimics the generated methods with 20k+ values. One round
+ * recomputes the state of every block from the states of its predecessors in the pruned CFG, as one iteration of
+ * the dataflow solver does.
+ *
+ * Usage: {@code PackedNullPointerStateBenchmark [valueNumbers [scopeFile [classPrefix]]]}.
+ */
+public class PackedNullPointerStateBenchmark {
+
+  private static final int WARMUP = 5;
+
+  private static final int ITERATIONS = 20;
+
+  /**
+   * Bytes of an array header, and of a compressed reference.
+   */
+  private static final int ARRAY_HEADER = 16;
+  private static final int REFERENCE = 4;
+
+  private static final class Subject {
+    final State[][] states;
+    final PackedNullPointerState[] packed;
+    final int[][] preds;
+
+    Subject(State[][] states, PackedNullPointerState[] packed, int[][] preds) {
+      this.states = states;
+      this.packed = packed;
+      this.preds = preds;
+    }
+  }
+
+  public static void main(String[] args) throws Exception {
+    final int valueNumbers = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    final String scopeFile = args.length > 1 ? args[1] : NonNullTestData.NONNULL_TESTDATA;
+    final String classPrefix = args.length > 2 ? args[2] : "Lcfg/exc/intra/";
+
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(NonNullTestData.makeScope(scopeFile));
+    final NonNullAnalysisFactory analyses = new NonNullAnalysisFactory(cha);
+    final List<Subject> subjects = new ArrayList<>();
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (m.getDeclaringClass().getName().toString().startsWith(classPrefix)) {
+        subjects.add(subject(analyses, analyses.makeIR(m), valueNumbers));
+      }
+    }
+
+    long arrayBytes = 0;
+    long packedBytes = 0;
+    long blocks = 0;
+    for (Subject s : subjects) {
+      for (int i = 0; i < s.states.length; i++) {
+        arrayBytes += ARRAY_HEADER + (long) REFERENCE * s.states[i].length;
+        if (!containsSharedWith(s.packed, i)) {
+          packedBytes += s.packed[i].sizeOfWords();
+        }
+        blocks++;
+      }
+    }
+
+    final long arrayTime = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (Subject s : subjects) {
+        for (int i = 0; i < s.states.length; i++) {
+          final State[] result = meetArrays(s.states, s.preds[i]);
+          if (result == null) {
+            throw new IllegalStateException();
+          }
+        }
+      }
+    });
+    final long packedTime = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (Subject s : subjects) {
+        for (int i = 0; i < s.packed.length; i++) {
+          final PackedNullPointerState result = meetPacked(s.packed, s.preds[i], valueNumbers);
+          if (result == null) {
+            throw new IllegalStateException();
+          }
+        }
+      }
+    });
+
+    System.out.println("methods: " + subjects.size() + ", blocks: " + blocks + ", value numbers per state: " + valueNumbers);
+    System.out.println(String.format("%-28s %12d KiB %12.0f ns/method", "State[]", arrayBytes >> 10, (double) arrayTime / Math.max(1, subjects.size())));
+    System.out.println(String.format("%-28s %12d KiB %12.0f ns/method", "PackedNullPointerState", packedBytes >> 10, (double) packedTime / Math.max(1, subjects.size())));
+  }
+
+  /**
+   * @return true iff the words of the i-th state are shared with a state before it, and thus already counted
+   */
+  private static boolean containsSharedWith(PackedNullPointerState[] packed, int i) {
+    for (int j = 0; j < i; j++) {
+      if (packed[j].sharesWordsWith(packed[i])) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static Subject subject(NonNullAnalysisFactory analyses, IR ir, int valueNumbers) throws Exception {
+    final FieldAwareNullPointerAnalysis analysis = analyses.createFieldAwareSSACFGAnalysis(ir, analyses.makeNonNullParameterState(ir));
+    analysis.compute(new NullProgressMonitor());
+    final NullStateReport report = NullStateReport.of(ir, analysis);
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg = analysis.getCFG();
+
+    final int n = report.getNumberOfBlocks();
+    final State[][] states = new State[n][];
+    final PackedNullPointerState[] packed = new PackedNullPointerState[n];
+    final int[] indexOfBlock = new int[cfg.getMaxNumber() + 1];
+    for (int i = 0; i < n; i++) {
+      states[i] = new State[valueNumbers + 1];
+      for (int v = 1; v <= valueNumbers; v++) {
+        states[i][v] = report.getState(i, 1 + (v - 1) % Math.max(1, report.getMaxValueNumber()));
+      }
+      indexOfBlock[report.getBlock(i)] = i + 1;
+      final PackedNullPointerState p = PackedNullPointerState.of(states[i]);
+      // keep the sharing of the report between blocks with equal states.
+      PackedNullPointerState shared = null;
+      for (int j = 0; j < i && shared == null; j++) {
+        if (report.getStates(j).sharesWordsWith(report.getStates(i))) {
+          shared = packed[j].copy();
+        }
+      }
+      packed[i] = (shared != null) ? shared : p;
+    }
+
+    final int[][] preds = new int[n][];
+    for (int i = 0; i < n; i++) {
+      final ISSABasicBlock bb = cfg.getNode(report.getBlock(i));
+      final List<Integer> ps = new ArrayList<>();
+      for (Iterator<ISSABasicBlock> it = cfg.getPredNodes(bb); it.hasNext();) {
+        final int pred = indexOfBlock[it.next().getNumber()];
+        if (pred > 0) {
+          ps.add(pred - 1);
+        }
+      }
+      preds[i] = new int[ps.size()];
+      for (int j = 0; j < preds[i].length; j++) {
+        preds[i][j] = ps.get(j);
+      }
+    }
+    return new Subject(states, packed, preds);
+  }
+
+  /**
+   * The meet of the states of preds, value by value, as {@link com.ibm.wala.cfg.exc.intra.NullPointerState} does it.
+   */
+  private static State[] meetArrays(State[][] states, int[] preds) {
+    if (preds.length == 0) {
+      return new State[states[0].length];
+    }
+    final State[] result = states[preds[0]].clone();
+    for (int p = 1; p < preds.length; p++) {
+      final State[] other = states[preds[p]];
+      for (int v = 1; v < result.length; v++) {
+        final State old = result[v];
+        final State s = other[v];
+        if (old == State.BOTH || old == s || s == State.UNKNOWN) {
+          continue;
+        }
+        result[v] = (old == State.UNKNOWN) ? s : State.BOTH;
+      }
+    }
+    return result;
+  }
+
+  private static PackedNullPointerState meetPacked(PackedNullPointerState[] states, int[] preds, int maxValueNumber) {
+    if (preds.length == 0) {
+      return new PackedNullPointerState(maxValueNumber);
+    }
+    final PackedNullPointerState result = states[preds[0]].copy();
+    for (int p = 1; p < preds.length; p++) {
+      result.meet(states[preds[p]]);
+    }
+    return result;
+  }
+}
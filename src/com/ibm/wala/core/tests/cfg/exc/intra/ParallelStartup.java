@@ -0,0 +1,207 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.classLoader.ClassLoaderFactoryImpl;
+import com.ibm.wala.classLoader.IClassLoader;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.types.ClassLoaderReference;
+
+/**
+ * Starts an analysis session on many cores: while {@link ClassHierarchy#make} parses the class files of the scope,
+ * which WALA does on a single thread, the pool reads the same class files ahead, so that the hierarchy finds them in
+ * the file system cache. Once the hierarchy is built, the pool decodes the {@link NullAnnotationIndex} entries of its
+ * classes in parallel.
+ *
+ * The loaders of a hierarchy cannot be built in parallel, as each one looks up the classes of its parent while
+ * loading. Nor can the index be decoded while they load: {@link NonNullByDefaultScopeResolver} looks up the enclosing
+ * classes of inner classes, which reads the hierarchy under construction. So only the prefetch, which reads raw class
+ * files, overlaps the hierarchy. The time spent in each phase is recorded in {@link #getTimings()}; {@link StartupBenchmark} compares
+ * the whole to a sequential start.
+ *
+ * Usage: {@code ParallelStartup [scopeFile]}, printing the timings.
+ */
+public class ParallelStartup {
+
+  /**
+   * Stops the prefetch as soon as the application loader has been created, i.e. all class files of the scope have
+   * been read.
+   */
+  private static final class PrefetchStoppingClassLoaderFactory extends ClassLoaderFactoryImpl {
+
+    private final AtomicBoolean stopPrefetch;
+
+    PrefetchStoppingClassLoaderFactory(AnalysisScope scope, AtomicBoolean stopPrefetch) {
+      super(scope.getExclusions());
+      this.stopPrefetch = stopPrefetch;
+    }
+
+    @Override
+    public IClassLoader getLoader(ClassLoaderReference classLoaderReference, IClassHierarchy cha, AnalysisScope scope)
+        throws IOException {
+      final IClassLoader loader = super.getLoader(classLoaderReference, cha, scope);
+      if (classLoaderReference.equals(ClassLoaderReference.Application)) {
+        stopPrefetch.set(true);
+      }
+      return loader;
+    }
+  }
+
+  private final ClassHierarchy cha;
+
+  private final NullAnnotationIndex index;
+
+  private final NonNullAnalysisFactory analyses;
+
+  private final Map<String, Long> timings;
+
+  private final long prefetchedBytes;
+
+  private ParallelStartup(ClassHierarchy cha, NullAnnotationIndex index, Map<String, Long> timings, long prefetchedBytes) {
+    this.cha = cha;
+    this.index = index;
+    this.analyses = new NonNullAnalysisFactory(cha, index);
+    this.timings = Collections.unmodifiableMap(timings);
+    this.prefetchedBytes = prefetchedBytes;
+  }
+
+  /**
+   * @param vocabulary the annotations the index recognizes
+   */
+  public static ParallelStartup start(String scopeFile, ForkJoinPool pool, NullnessVocabulary vocabulary)
+      throws IOException, ClassHierarchyException {
+    final Map<String, Long> timings = new LinkedHashMap<>();
+    final long start = System.nanoTime();
+
+    final AnalysisScope scope = NonNullTestData.makeScope(scopeFile);
+    final long scopeRead = System.nanoTime();
+    timings.put("scope", scopeRead - start);
+
+    final AtomicLong prefetchedBytes = new AtomicLong();
+    final AtomicBoolean stop = new AtomicBoolean();
+    final List<CompletableFuture<Void>> prefetch = new ArrayList<>();
+    for (ClassLoaderReference loader : scope.getLoaders()) {
+      for (Module module : scope.getModules(loader)) {
+        prefetch.add(CompletableFuture.runAsync(() -> prefetchedBytes.addAndGet(prefetch(module, stop)), pool));
+      }
+    }
+    final CompletableFuture<Void> prefetched = CompletableFuture.allOf(prefetch.toArray(new CompletableFuture<?>[prefetch.size()]));
+
+    // the prefetch only helps the loaders, so it stops as soon as they are done, not to compete with the index.
+    final ClassHierarchy cha = ClassHierarchy.make(scope, new PrefetchStoppingClassLoaderFactory(scope, stop));
+    final long hierarchyBuilt = System.nanoTime();
+    timings.put("hierarchy", hierarchyBuilt - scopeRead);
+
+    stop.set(true);
+    prefetched.cancel(false);
+    final NullAnnotationIndex index = NullAnnotationIndex.build(cha, pool, vocabulary);
+    final long indexBuilt = System.nanoTime();
+    timings.put("index", indexBuilt - hierarchyBuilt);
+    timings.put("total", indexBuilt - start);
+
+    return new ParallelStartup(cha, index, timings, prefetchedBytes.get());
+  }
+
+  public static ParallelStartup start(String scopeFile, ForkJoinPool pool) throws IOException, ClassHierarchyException {
+    return start(scopeFile, pool, NullnessVocabulary.ECLIPSE);
+  }
+
+  public static ParallelStartup start(String scopeFile) throws IOException, ClassHierarchyException {
+    return start(scopeFile, ForkJoinPool.commonPool());
+  }
+
+  /**
+   * Reads all class files of module, and drops their contents.
+   *
+   * @return the number of bytes read
+   */
+  private static long prefetch(Module module, AtomicBoolean stop) {
+    final byte[] buffer = new byte[1 << 16];
+    long bytes = 0;
+    for (Iterator<? extends ModuleEntry> it = module.getEntries(); it.hasNext() && !stop.get();) {
+      final ModuleEntry entry = it.next();
+      if (entry.isModuleFile()) {
+        bytes += prefetch(entry.asModule(), stop);
+      } else if (entry.isClassFile()) {
+        try (InputStream in = entry.getInputStream()) {
+          int read;
+          while ((read = in.read(buffer)) != -1) {
+            bytes += read;
+          }
+        } catch (IOException e) {
+          // the hierarchy will report unreadable files itself.
+        }
+      }
+    }
+    return bytes;
+  }
+
+  public ClassHierarchy getClassHierarchy() {
+    return cha;
+  }
+
+  public NullAnnotationIndex getIndex() {
+    return index;
+  }
+
+  /**
+   * @return a factory using {@link #getIndex()}
+   */
+  public NonNullAnalysisFactory getAnalyses() {
+    return analyses;
+  }
+
+  /**
+   * @return the wall time of the phases scope, hierarchy (overlapped by the prefetch), index (the parallel decoding,
+   *         and the assembly) and their total, in nanoseconds
+   */
+  public Map<String, Long> getTimings() {
+    return timings;
+  }
+
+  public long getPrefetchedBytes() {
+    return prefetchedBytes;
+  }
+
+  @Override
+  public String toString() {
+    final StringBuilder b = new StringBuilder();
+    for (Map.Entry<String, Long> e : timings.entrySet()) {
+      b.append(String.format("%-10s %10.1f ms%n", e.getKey(), e.getValue() / 1e6));
+    }
+    b.append(String.format("prefetched %10.1f MB%n", prefetchedBytes / (1024.0 * 1024.0)));
+    b.append(index).append('\n');
+    return b.toString();
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    System.out.print(start(scopeFile));
+  }
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.classLoader.IMethod;
+
+/**
+ * Builds the {@link ParameterState} of a method from bitmasks of its {@code @NonNull} and {@code @Nullable}
+ * parameters, where bit i stands for the parameter with state index i (see {@link NullAnnotationIndex}).
+ *
+ * Apart from the {@link ParameterState} itself, building allocates nothing: bits are visited with
+ * {@link Long#numberOfTrailingZeros(long)}, and the state indices of all methods with less than 128 parameters
+ * are boxed from the {@link Integer} cache by {@link ParameterState#setState(int, State)}.
+ */
+public final class ParameterStateBuilder {
+
+  private ParameterStateBuilder() {}
+
+  /**
+   * @return the words of a parameter mask needed for all state indices of m
+   */
+  public static int words(IMethod m) {
+    return (Math.max(maxStateIndex(m), 0) >> 6) + 1;
+  }
+
+  private static int maxStateIndex(IMethod m) {
+    return m.getNumberOfParameters() - 1 + (m.isStatic() ? 0 : 1);
+  }
+
+  /**
+   * For methods with {@link #words(IMethod)} == 1.
+   *
+   * @param nonNullByDefault whether the {@code @NonNullByDefault} locations of m include
+   *                         {@link NonNullByDefaultScopeResolver#PARAMETER}
+   */
+  public static ParameterState build(IMethod m, boolean nonNullByDefault, long nonNull, long nullable) {
+    if (words(m) != 1) {
+      throw new IllegalArgumentException("Too many parameters for a single mask: " + m);
+    }
+    final ParameterState state = ParameterState.createDefault(m);
+    apply(state, m, 0, nonNullByDefault, nonNull, nullable);
+    return state;
+  }
+
+  public static ParameterState build(IMethod m, boolean nonNullByDefault, long[] nonNull, long[] nullable) {
+    final ParameterState state = ParameterState.createDefault(m);
+    for (int word = 0; word < words(m); word++) {
+      apply(state, m, word, nonNullByDefault, word < nonNull.length ? nonNull[word] : 0L, word < nullable.length ? nullable[word] : 0L);
+    }
+    return state;
+  }
+
+  /**
+   * @param id the index of m in index
+   */
+  public static ParameterState build(IMethod m, NullAnnotationIndex index, int id) {
+    final ParameterState state = ParameterState.createDefault(m);
+    final boolean nonNullByDefault = (index.defaultsOf(id) & NonNullByDefaultScopeResolver.PARAMETER) != 0;
+    for (int word = 0; word < words(m); word++) {
+      apply(state, m, word, nonNullByDefault, index.nonNullParameters(id, word), index.nullableParameters(id, word));
+    }
+    return state;
+  }
+
+  /**
+   * Applies the state indices 64 * word .. 64 * word + 63.
+   *
+   * Under {@code @NonNullByDefault}, {@code @Nullable} parameters are UNKNOWN and all others NOT_NULL;
+   * otherwise only {@code @NonNull} parameters are NOT_NULL.
+   */
+  private static void apply(ParameterState state, IMethod m, int word, boolean nonNullByDefault, long nonNull, long nullable) {
+    final int base = word << 6;
+    if (nonNullByDefault) {
+      set(state, base, nullable, State.UNKNOWN);
+      set(state, base, range(base, m.isStatic() ? 0 : 1, maxStateIndex(m)) & ~nullable, State.NOT_NULL);
+    } else {
+      set(state, base, nonNull, State.NOT_NULL);
+    }
+  }
+
+  private static void set(ParameterState state, int base, long bits, State s) {
+    while (bits != 0) {
+      state.setState(base + Long.numberOfTrailingZeros(bits), s);
+      bits &= bits - 1;
+    }
+  }
+
+  /**
+   * @return the bits of the state indices first .. last within the word starting at base
+   */
+  private static long range(int base, int first, int last) {
+    final int from = Math.max(first - base, 0);
+    final int to = Math.min(last - base, 63);
+    if (from > to) {
+      return 0L;
+    }
+    final long upTo = (to == 63) ? -1L : (1L << (to + 1)) - 1;
+    return upTo & (-1L << from);
+  }
+}
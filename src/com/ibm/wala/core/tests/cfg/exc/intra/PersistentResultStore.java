@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * Persistent store of {@link MethodNullnessResult}s, keyed by {@link MethodFingerprint}.
+ *
+ * A store holds the results of a single analyzer, named as in {@link NullPointerAnalysisDriver#getAnalyzerName()}:
+ * the fingerprint does not cover the analyzer, so a file written for another analyzer yields an empty store, and is
+ * replaced by its first flush.
+ *
+ * Since a fingerprint covers the bytecode of a method as well as every annotation its result depends on
+ * (including {@code @NonNullByDefault} on enclosing classes and {@code package-info}), a changed method simply
+ * misses, and its stale entry is dropped by the next {@link #flush(boolean)} that discards unused entries.
+ *
+ * The store file is memory-mapped on {@link #open(File)}; only the keys are read eagerly, each result is decoded
+ * on its first lookup. New results are kept in memory until {@link #flush(boolean)} or {@link #close()}, which
+ * atomically replace the file and map the new one in place of the old. Lookups and insertions are thread-safe.
+ *
+ * File format (big-endian): {@code int MAGIC, int VERSION, short length, byte[length] analyzer name in UTF-8,
+ * int #entries}, then per entry
+ * {@code long high, long low, int length, byte[length]} in the format of {@link MethodNullnessResultCodec}.
+ */
+public class PersistentResultStore implements Closeable {
+
+  private static final int MAGIC = 0x4E4E5253;
+
+  private static final int VERSION = 3;
+
+  /**
+   * The mapped store file, and the offset of the length of each entry in it.
+   */
+  private static final class Mapping {
+    final ByteBuffer mapped;
+    final Map<MethodFingerprint, Integer> offsets;
+
+    Mapping(ByteBuffer mapped, Map<MethodFingerprint, Integer> offsets) {
+      this.mapped = mapped;
+      this.offsets = offsets;
+    }
+  }
+
+  private final File file;
+
+  private final String analyzer;
+
+  /**
+   * replaced as a whole by {@link #flush(boolean)}, so that lookups see either the old file or the new one
+   */
+  private volatile Mapping mapping;
+
+  private final Map<MethodFingerprint, byte[]> added = new ConcurrentHashMap<>();
+
+  private final Set<MethodFingerprint> used = ConcurrentHashMap.newKeySet();
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  private PersistentResultStore(File file, String analyzer, Mapping mapping) {
+    this.file = file;
+    this.analyzer = analyzer;
+    this.mapping = mapping;
+  }
+
+  /**
+   * Opens the store of the results of analyzer in file. A missing file, one of an outdated format, or one written
+   * for another analyzer yields an empty store.
+   */
+  public static PersistentResultStore open(File file, String analyzer) throws IOException {
+    return new PersistentResultStore(file, analyzer, map(file, analyzer));
+  }
+
+  private static Mapping map(File file, String analyzer) throws IOException {
+    final Map<MethodFingerprint, Integer> offsets = new HashMap<>();
+    if (!file.isFile() || file.length() < 12) {
+      return new Mapping(null, offsets);
+    }
+
+    final MappedByteBuffer mapped;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      // the mapping stays valid after the channel has been closed.
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+      return new Mapping(null, offsets);
+    }
+    final byte[] name = new byte[mapped.getShort() & 0xFFFF];
+    mapped.get(name);
+    if (!analyzer.equals(new String(name, StandardCharsets.UTF_8))) {
+      return new Mapping(null, offsets);
+    }
+    final int entries = mapped.getInt();
+    for (int i = 0; i < entries; i++) {
+      final MethodFingerprint key = new MethodFingerprint(mapped.getLong(), mapped.getLong());
+      final int length = mapped.getInt();
+      offsets.put(key, mapped.position() - 4);
+      mapped.position(mapped.position() + length);
+    }
+    return new Mapping(mapped, offsets);
+  }
+
+  /**
+   * @return the stored result for key, reported for method, or null if there is none
+   */
+  public MethodNullnessResult get(MethodReference method, MethodFingerprint key) {
+    final byte[] bytes = added.get(key);
+    if (bytes != null) {
+      hits.incrementAndGet();
+      return MethodNullnessResultCodec.read(method, ByteBuffer.wrap(bytes));
+    }
+    final Mapping m = mapping;
+    final Integer offset = m.offsets.get(key);
+    if (offset == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    hits.incrementAndGet();
+    used.add(key);
+    final ByteBuffer in = m.mapped.duplicate();
+    in.position(offset + 4);
+    return MethodNullnessResultCodec.read(method, in);
+  }
+
+  public void put(MethodFingerprint key, MethodNullnessResult result) {
+    if (mapping.offsets.containsKey(key)) {
+      used.add(key);
+      return;
+    }
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      MethodNullnessResultCodec.write(result, out);
+    } catch (IOException e) {
+      // writing to memory never fails
+      throw new IllegalStateException(e);
+    }
+    added.putIfAbsent(key, bytes.toByteArray());
+  }
+
+  /**
+   * Writes all results to the store file, and maps the new file. The results written are no longer pending, so a
+   * second flush without new results rewrites the same entries.
+   *
+   * @param dropUnused if true, only the results looked up or added since {@link #open(File)} are kept
+   */
+  public synchronized void flush(boolean dropUnused) throws IOException {
+    // lookups and additions may go on concurrently, so the count written must come from the same snapshot as the
+    // entries written.
+    final Mapping m = mapping;
+    final Set<MethodFingerprint> retained = dropUnused ? new HashSet<>(used) : m.offsets.keySet();
+    final Map<MethodFingerprint, byte[]> addedNow = new HashMap<>(added);
+    final File tmp = new File(file.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      final byte[] name = analyzer.getBytes(StandardCharsets.UTF_8);
+      out.writeShort(name.length);
+      out.write(name);
+      out.writeInt(retained.size() + addedNow.size());
+      for (MethodFingerprint key : retained) {
+        final ByteBuffer in = m.mapped.duplicate();
+        in.position(m.offsets.get(key));
+        final byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        writeEntry(out, key, bytes);
+      }
+      for (Map.Entry<MethodFingerprint, byte[]> e : addedNow.entrySet()) {
+        writeEntry(out, e.getKey(), e.getValue());
+      }
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+    // the new results count as added since open, for a later flush dropping the unused ones.
+    used.addAll(addedNow.keySet());
+    mapping = map(file, analyzer);
+    added.keySet().removeAll(addedNow.keySet());
+  }
+
+  private static void writeEntry(DataOutputStream out, MethodFingerprint key, byte[] bytes) throws IOException {
+    out.writeLong(key.getHigh());
+    out.writeLong(key.getLow());
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Flushes new results, if any. Unused results are kept, as the last run may have analyzed only part of the
+   * program; call {@link #flush(boolean)} after a full run to drop them.
+   */
+  @Override
+  public void close() throws IOException {
+    if (!added.isEmpty()) {
+      flush(false);
+    }
+  }
+
+  /**
+   * @return the name of the analyzer whose results this store holds
+   */
+  public String getAnalyzer() {
+    return analyzer;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  public int size() {
+    return mapping.offsets.size() + added.size();
+  }
+}
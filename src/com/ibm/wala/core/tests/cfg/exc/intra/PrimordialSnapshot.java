@@ -0,0 +1,546 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.ZipEntry;
+
+import com.ibm.wala.classLoader.IBytecodeMethod;
+import com.ibm.wala.classLoader.IClass;
+import com.ibm.wala.classLoader.IField;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.classLoader.JarFileModule;
+import com.ibm.wala.classLoader.Module;
+import com.ibm.wala.classLoader.ModuleEntry;
+import com.ibm.wala.classLoader.ShrikeClass;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ipa.cha.ClassHierarchyException;
+import com.ibm.wala.ipa.cha.IClassHierarchy;
+import com.ibm.wala.shrikeBT.ExceptionHandler;
+import com.ibm.wala.shrikeCT.InvalidClassFileException;
+import com.ibm.wala.types.ClassLoaderReference;
+import com.ibm.wala.types.FieldReference;
+import com.ibm.wala.types.MethodReference;
+import com.ibm.wala.types.TypeName;
+import com.ibm.wala.types.TypeReference;
+
+/**
+ * A jar holding only the primordial classes that the application classes of a scope can observe, so that later
+ * processes parse a few hundred classes instead of the whole standard library.
+ *
+ * A primordial class is kept if it is in {@code java.lang}, is a {@link Throwable}, or is referenced by an
+ * application class (as a supertype, in a signature, as a field, callee or caught exception), together with all of
+ * its supertypes. Application classes are never part of the snapshot; they are parsed from the scope each time.
+ * Besides the class files, the snapshot records
+ * <ul>
+ * <li>a fingerprint of the JDK it was taken from: {@code java.home}, {@code java.version}, and the path, size and
+ * modification time of each primordial jar (digesting their contents would cost as much as parsing them). A
+ * snapshot of another JDK is rebuilt.</li>
+ * <li>a digest of the class files of the application. While it matches, the snapshot is used right away.</li>
+ * <li>the references that could not be resolved in the full hierarchy. Once the application changed,
+ * {@link #makeClassHierarchy(String, File)} decodes it to tell a stale snapshot from a reference that is
+ * unresolvable anyway, and rebuilds the snapshot only in the former case.</li>
+ * </ul>
+ * The snapshot is read into memory, so a hierarchy built from it holds no open file.
+ *
+ * Primordial classes carry no Eclipse null annotations, so the {@link NullAnnotationIndex} of a hierarchy built from
+ * the snapshot equals that of the full one. Its call targets, however, do not: subclasses of library classes that
+ * the application never mentions are missing, so {@link IClassHierarchy#getPossibleTargets(MethodReference)} may
+ * return a partial set. Intraprocedural analyses only resolve declared targets and are unaffected, while
+ * {@link InterproceduralReturnSummaries} refuses such a hierarchy (see {@link #isSnapshot(IClassHierarchy)}).
+ */
+public class PrimordialSnapshot {
+
+  private static final int VERSION = 2;
+
+  private static final String METADATA = "META-INF/snapshot.txt";
+
+  private static final String CLASS_SUFFIX = ".class";
+
+  private static final TypeReference THROWABLE = TypeReference.JavaLangThrowable;
+
+  private static final String JAVA_LANG = "java/lang";
+
+  /**
+   * The primordial classes of a snapshot, read into memory.
+   */
+  private static final class SnapshotModule implements Module {
+
+    private final List<ModuleEntry> entries = new ArrayList<>();
+
+    @Override
+    public Iterator<? extends ModuleEntry> getEntries() {
+      return entries.iterator();
+    }
+  }
+
+  private static final class SnapshotEntry implements ModuleEntry {
+
+    private final SnapshotModule container;
+
+    private final String name;
+
+    private final byte[] bytes;
+
+    SnapshotEntry(SnapshotModule container, String name, byte[] bytes) {
+      this.container = container;
+      this.name = name;
+      this.bytes = bytes;
+    }
+
+    @Override
+    public String getName() {
+      return name;
+    }
+
+    @Override
+    public boolean isClassFile() {
+      return true;
+    }
+
+    @Override
+    public boolean isSourceFile() {
+      return false;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return new ByteArrayInputStream(bytes);
+    }
+
+    @Override
+    public boolean isModuleFile() {
+      return false;
+    }
+
+    @Override
+    public Module asModule() {
+      throw new UnsupportedOperationException("snapshot entries are class files, never module files: " + name);
+    }
+
+    @Override
+    public String getClassName() {
+      return name.substring(0, name.length() - CLASS_SUFFIX.length());
+    }
+
+    @Override
+    public Module getContainer() {
+      return container;
+    }
+  }
+
+  /**
+   * The records of a snapshot besides its classes.
+   */
+  private static final class Metadata {
+
+    private final String jdk;
+
+    private final String application;
+
+    private final Set<String> unresolved;
+
+    Metadata(String jdk, String application, Set<String> unresolved) {
+      this.jdk = jdk;
+      this.application = application;
+      this.unresolved = unresolved;
+    }
+  }
+
+  private PrimordialSnapshot() {}
+
+  /**
+   * Writes the snapshot of the primordial classes of cha observable by its application classes to file; cha must
+   * have been built from the full scope.
+   *
+   * @return the number of classes written
+   */
+  public static int write(IClassHierarchy cha, File file) throws IOException, InvalidClassFileException {
+    return write(cha, file, jdkFingerprint(cha.getScope()), applicationFingerprint(cha.getScope()));
+  }
+
+  private static int write(IClassHierarchy cha, File file, String jdk, String application) throws IOException, InvalidClassFileException {
+    final Set<TypeReference> unresolved = new TreeSet<>((a, b) -> a.getName().toString().compareTo(b.getName().toString()));
+    final Set<IClass> kept = observablePrimordialClasses(cha, unresolved);
+
+    final File tmp = new File(file.getPath() + ".tmp");
+    try (JarOutputStream out = new JarOutputStream(new FileOutputStream(tmp))) {
+      for (IClass c : kept) {
+        out.putNextEntry(new JarEntry(c.getName().toString().substring(1) + CLASS_SUFFIX));
+        out.write(((ShrikeClass) c).getReader().getBytes());
+        out.closeEntry();
+      }
+      out.putNextEntry(new JarEntry(METADATA));
+      final Writer w = new OutputStreamWriter(out, StandardCharsets.UTF_8);
+      w.write("version " + VERSION + "\n");
+      w.write(jdk + "\n");
+      w.write(application + "\n");
+      for (TypeReference t : unresolved) {
+        w.write(t.getName().toString());
+        w.write('\n');
+      }
+      w.flush();
+      out.closeEntry();
+    }
+    Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    return kept.size();
+  }
+
+  /**
+   * @return the scope of scopeFile, with its primordial modules replaced by the snapshot
+   */
+  public static AnalysisScope makeScope(String scopeFile, File snapshot) throws IOException {
+    final AnalysisScope full = NonNullTestData.makeScope(scopeFile);
+    final AnalysisScope scope = withSnapshot(full, snapshot);
+    closePrimordial(full);
+    return scope;
+  }
+
+  private static AnalysisScope withSnapshot(AnalysisScope full, File snapshot) throws IOException {
+    final AnalysisScope scope = AnalysisScope.createJavaAnalysisScope();
+    scope.setExclusions(full.getExclusions());
+    scope.addToScope(ClassLoaderReference.Primordial, read(snapshot));
+    for (ClassLoaderReference loader : full.getLoaders()) {
+      if (!loader.equals(ClassLoaderReference.Primordial)) {
+        for (Module module : full.getModules(loader)) {
+          scope.addToScope(loader, module);
+        }
+      }
+    }
+    return scope;
+  }
+
+  /**
+   * Builds the hierarchy of scopeFile from snapshot. If the snapshot is missing, of another JDK or version, or misses
+   * a class the application now refers to, the hierarchy is built from the full scope instead, and the snapshot is
+   * rewritten.
+   */
+  public static ClassHierarchy makeClassHierarchy(String scopeFile, File snapshot) throws IOException, ClassHierarchyException, InvalidClassFileException {
+    final AnalysisScope full = NonNullTestData.makeScope(scopeFile);
+    final String jdk = jdkFingerprint(full);
+    final String application = applicationFingerprint(full);
+    final Metadata metadata = snapshot.isFile() ? readMetadata(snapshot) : null;
+    if (metadata != null && metadata.jdk.equals(jdk)) {
+      final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(withSnapshot(full, snapshot));
+      if (metadata.application.equals(application)) {
+        closePrimordial(full);
+        return cha;
+      }
+      // the application changed: the snapshot still serves if it resolves all the application now refers to.
+      final Set<TypeReference> unresolved = new HashSet<>();
+      observablePrimordialClasses(cha, unresolved);
+      boolean complete = true;
+      for (TypeReference t : unresolved) {
+        if (!metadata.unresolved.contains(t.getName().toString())) {
+          complete = false;
+          break;
+        }
+      }
+      if (complete) {
+        closePrimordial(full);
+        write(cha, snapshot, jdk, application);
+        return cha;
+      }
+    }
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(full);
+    write(cha, snapshot, jdk, application);
+    return cha;
+  }
+
+  /**
+   * @return true iff the primordial classes of cha were read from a snapshot
+   */
+  public static boolean isSnapshot(IClassHierarchy cha) {
+    for (Module module : cha.getScope().getModules(ClassLoaderReference.Primordial)) {
+      if (module instanceof SnapshotModule) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the classes of snapshot, read into memory
+   */
+  private static SnapshotModule read(File snapshot) throws IOException {
+    final SnapshotModule module = new SnapshotModule();
+    try (JarFile jar = new JarFile(snapshot, false)) {
+      for (Enumeration<JarEntry> e = jar.entries(); e.hasMoreElements();) {
+        final JarEntry entry = e.nextElement();
+        if (entry.getName().endsWith(CLASS_SUFFIX)) {
+          try (InputStream in = jar.getInputStream(entry)) {
+            module.entries.add(new SnapshotEntry(module, entry.getName(), readFully(in)));
+          }
+        }
+      }
+    }
+    return module;
+  }
+
+  /**
+   * @return the metadata of snapshot, or null if it was written by another version
+   */
+  private static Metadata readMetadata(File snapshot) throws IOException {
+    try (JarFile jar = new JarFile(snapshot, false)) {
+      final ZipEntry entry = jar.getEntry(METADATA);
+      if (entry == null) {
+        return null;
+      }
+      try (BufferedReader in = new BufferedReader(new InputStreamReader(jar.getInputStream(entry), StandardCharsets.UTF_8))) {
+        if (!("version " + VERSION).equals(in.readLine())) {
+          return null;
+        }
+        final String jdk = in.readLine();
+        final String application = in.readLine();
+        if (jdk == null || application == null) {
+          return null;
+        }
+        final Set<String> names = new HashSet<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+          names.add(line);
+        }
+        return new Metadata(jdk, application, names);
+      }
+    }
+  }
+
+  /**
+   * Closes the jars of the primordial loader of scope, which is not used once the snapshot replaced it.
+   */
+  private static void closePrimordial(AnalysisScope scope) throws IOException {
+    for (Module module : scope.getModules(ClassLoaderReference.Primordial)) {
+      if (module instanceof JarFileModule) {
+        ((JarFileModule) module).getJarFile().close();
+      }
+    }
+  }
+
+  private static String jdkFingerprint(AnalysisScope scope) {
+    final MessageDigest digest = sha256();
+    update(digest, System.getProperty("java.home"));
+    update(digest, System.getProperty("java.version"));
+    for (Module module : scope.getModules(ClassLoaderReference.Primordial)) {
+      if (module instanceof JarFileModule) {
+        final File jar = new File(((JarFileModule) module).getAbsolutePath());
+        update(digest, jar.getPath() + ":" + jar.length() + ":" + jar.lastModified());
+      } else {
+        update(digest, module.getClass().getName());
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  /**
+   * @return a digest of the names and contents of the class files of the non-primordial loaders of scope
+   */
+  private static String applicationFingerprint(AnalysisScope scope) throws IOException {
+    final Map<String, ModuleEntry> classFiles = new TreeMap<>();
+    for (ClassLoaderReference loader : scope.getLoaders()) {
+      if (!loader.equals(ClassLoaderReference.Primordial)) {
+        for (Module module : scope.getModules(loader)) {
+          collectClassFiles(module, classFiles);
+        }
+      }
+    }
+    final MessageDigest digest = sha256();
+    for (Map.Entry<String, ModuleEntry> e : classFiles.entrySet()) {
+      update(digest, e.getKey());
+      try (InputStream in = e.getValue().getInputStream()) {
+        digest.update(readFully(in));
+      }
+    }
+    return hex(digest.digest());
+  }
+
+  private static void collectClassFiles(Module module, Map<String, ModuleEntry> classFiles) {
+    for (Iterator<? extends ModuleEntry> it = module.getEntries(); it.hasNext();) {
+      final ModuleEntry entry = it.next();
+      if (entry.isModuleFile()) {
+        collectClassFiles(entry.asModule(), classFiles);
+      } else if (entry.isClassFile()) {
+        classFiles.putIfAbsent(entry.getName(), entry);
+      }
+    }
+  }
+
+  private static MessageDigest sha256() {
+    try {
+      return MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      // every Java platform implements SHA-256
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static void update(MessageDigest digest, String s) {
+    digest.update(String.valueOf(s).getBytes(StandardCharsets.UTF_8));
+    digest.update((byte) 0);
+  }
+
+  private static String hex(byte[] bytes) {
+    final StringBuilder b = new StringBuilder(2 * bytes.length);
+    for (byte x : bytes) {
+      b.append(String.format("%02x", x & 0xFF));
+    }
+    return b.toString();
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    final ByteArrayOutputStream out = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[1 << 13];
+    int read;
+    while ((read = in.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+
+  /**
+   * @param unresolved receives the references of application classes that cha cannot resolve
+   */
+  private static Set<IClass> observablePrimordialClasses(IClassHierarchy cha, Set<TypeReference> unresolved) throws InvalidClassFileException {
+    final Set<TypeReference> referenced = new HashSet<>();
+    final Deque<IClass> worklist = new ArrayDeque<>();
+    for (IClass c : cha) {
+      if (isPrimordial(c)) {
+        if (c.getName().getPackage() != null && c.getName().getPackage().toString().equals(JAVA_LANG)) {
+          worklist.add(c);
+        }
+        continue;
+      }
+      worklist.add(c);
+      for (IField f : c.getDeclaredInstanceFields()) {
+        referenced.add(f.getFieldTypeReference());
+      }
+      for (IField f : c.getDeclaredStaticFields()) {
+        referenced.add(f.getFieldTypeReference());
+      }
+      for (IMethod m : c.getDeclaredMethods()) {
+        referencedBy(m, referenced);
+      }
+    }
+    for (TypeReference t : referenced) {
+      final TypeReference element = t.getInnermostElementType();
+      if (element.isPrimitiveType()) {
+        continue;
+      }
+      final IClass c = cha.lookupClass(TypeReference.findOrCreate(ClassLoaderReference.Application, element.getName()));
+      if (c == null) {
+        unresolved.add(element);
+      } else {
+        worklist.add(c);
+      }
+    }
+    final IClass throwable = cha.lookupClass(THROWABLE);
+    if (throwable != null) {
+      worklist.addAll(cha.computeSubClasses(THROWABLE));
+    }
+
+    final Set<IClass> kept = new HashSet<>();
+    final Set<IClass> visited = new HashSet<>();
+    while (!worklist.isEmpty()) {
+      final IClass c = worklist.pop();
+      if (!visited.add(c)) {
+        continue;
+      }
+      if (isPrimordial(c)) {
+        kept.add(c);
+      }
+      if (c.getSuperclass() != null) {
+        worklist.add(c.getSuperclass());
+      }
+      worklist.addAll(c.getDirectInterfaces());
+    }
+    return kept;
+  }
+
+  private static void referencedBy(IMethod m, Set<TypeReference> referenced) throws InvalidClassFileException {
+    for (int i = 0; i < m.getNumberOfParameters(); i++) {
+      referenced.add(m.getParameterType(i));
+    }
+    referenced.add(m.getReturnType());
+    for (MethodReference callee : DeclaredCallees.of(m)) {
+      referenced.add(callee.getDeclaringClass());
+    }
+    for (FieldReference field : FieldNullness.loadedBy(m)) {
+      referenced.add(field.getDeclaringClass());
+      referenced.add(field.getFieldType());
+    }
+    if (m instanceof IBytecodeMethod && ((IBytecodeMethod) m).getHandlers() != null) {
+      for (ExceptionHandler[] handlers : ((IBytecodeMethod) m).getHandlers()) {
+        for (ExceptionHandler h : handlers) {
+          final String catchClass = h.getCatchClass();
+          if (catchClass != null) {
+            final String name = catchClass.endsWith(";") ? catchClass.substring(0, catchClass.length() - 1) : catchClass;
+            referenced.add(TypeReference.findOrCreate(ClassLoaderReference.Application, TypeName.string2TypeName(name)));
+          }
+        }
+      }
+    }
+  }
+
+  private static boolean isPrimordial(IClass c) {
+    return c.getClassLoader().getReference().equals(ClassLoaderReference.Primordial);
+  }
+
+  /**
+   * Usage: {@code PrimordialSnapshot snapshotFile [scopeFile]}; prints the cold start time with and without the snapshot.
+   */
+  public static void main(String[] args) throws Exception {
+    final File snapshot = new File(args[0]);
+    final String scopeFile = args.length > 1 ? args[1] : NonNullTestData.NONNULL_TESTDATA;
+
+    long start = System.nanoTime();
+    final ClassHierarchy full = NonNullTestData.makeClassHierarchy(NonNullTestData.makeScope(scopeFile));
+    final long fullTime = System.nanoTime() - start;
+    final int classes = write(full, snapshot);
+
+    start = System.nanoTime();
+    final ClassHierarchy reloaded = makeClassHierarchy(scopeFile, snapshot);
+    final NullAnnotationIndex index = NullAnnotationIndex.build(reloaded);
+    final long reloadTime = System.nanoTime() - start;
+
+    System.out.println(String.format("full hierarchy:     %8.1f ms, %6d classes", fullTime / 1e6, full.getNumberOfClasses()));
+    System.out.println(String.format("snapshot + index:   %8.1f ms, %6d classes (%d primordial, %d KiB)", reloadTime / 1e6,
+        reloaded.getNumberOfClasses(), classes, snapshot.length() / 1024));
+    System.out.println(index);
+  }
+}
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.ipa.cfg.EdgeFilter;
+import com.ibm.wala.ipa.cfg.PrunedCFG;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.types.MethodReference;
+
+/**
+ * The exceptional edges pruned from the control flow graphs of many methods, exported for downstream analyses
+ * (SDG construction, slicing, IFC), so that they can shrink their control flow graphs without running the null
+ * pointer analysis again.
+ *
+ * Edges are given by the block numbers of {@link com.ibm.wala.ssa.IR#getControlFlowGraph()}; the downstream
+ * analysis must build its IRs with the same {@link com.ibm.wala.ssa.SSAOptions} as the exporter did (the
+ * defaults of {@link IRCache}). {@link Edges#prune(ControlFlowGraph)} rejects edges that do not exist.
+ *
+ * Files are written with a {@link Collector} and memory-mapped on {@link #open(File)}; only the method directory
+ * is read eagerly, the edges of a method are decoded when they are looked up. Lookups are thread-safe.
+ *
+ * File format (big-endian): {@code int MAGIC, int VERSION, int #methods}, then per method, ordered by signature,
+ * {@code int length, byte[length] signature (UTF-8), int length, byte[length] edges}. The edges are
+ * {@code varint #edges}, then per edge, ordered by source and target, {@code varint source - previous source,
+ * varint target}.
+ */
+public class PrunedEdgeFile {
+
+  private static final int MAGIC = 0x4E4E5045;
+
+  private static final int VERSION = 1;
+
+  /**
+   * The pruned exceptional edges of one method.
+   */
+  public static final class Edges {
+
+    private final MethodReference method;
+
+    /**
+     * source &lt;&lt; 32 | target, sorted.
+     */
+    private final long[] edges;
+
+    Edges(MethodReference method, long[] edges) {
+      this.method = method;
+      this.edges = edges;
+    }
+
+    public MethodReference getMethod() {
+      return method;
+    }
+
+    public int size() {
+      return edges.length;
+    }
+
+    public int getSource(int i) {
+      return (int) (edges[i] >>> 32);
+    }
+
+    public int getTarget(int i) {
+      return (int) edges[i];
+    }
+
+    public boolean isPruned(int source, int target) {
+      return Arrays.binarySearch(edges, edge(source, target)) >= 0;
+    }
+
+    /**
+     * @return a filter that drops the pruned exceptional edges, and keeps all other edges
+     */
+    public EdgeFilter<ISSABasicBlock> asEdgeFilter() {
+      return new EdgeFilter<ISSABasicBlock>() {
+        @Override
+        public boolean hasNormalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+          return true;
+        }
+
+        @Override
+        public boolean hasExceptionalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+          return !isPruned(src.getNumber(), dst.getNumber());
+        }
+      };
+    }
+
+    /**
+     * @return cfg without the pruned exceptional edges, and without the blocks no longer reachable
+     * @throws IllegalArgumentException if an edge is not an exceptional edge of cfg, e.g. since cfg was built from
+     *           different bytecode or with different options
+     */
+    public ControlFlowGraph<SSAInstruction, ISSABasicBlock> prune(ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg) {
+      for (int i = 0; i < edges.length; i++) {
+        final int source = getSource(i);
+        final int target = getTarget(i);
+        if (source > cfg.getMaxNumber() || target > cfg.getMaxNumber()
+            || !cfg.getExceptionalSuccessors(cfg.getNode(source)).contains(cfg.getNode(target))) {
+          throw new IllegalArgumentException("No exceptional edge " + source + " -> " + target + " in " + method);
+        }
+      }
+      return PrunedCFG.make(cfg, asEdgeFilter());
+    }
+  }
+
+  /**
+   * Collects the pruned edges reported by a {@link NullPointerAnalysisDriver}, and writes them to a file.
+   * Results may be added concurrently.
+   */
+  public static final class Collector implements NullPointerAnalysisDriver.MethodResultSink {
+
+    private final Map<String, byte[]> methods = new ConcurrentHashMap<>();
+
+    @Override
+    public void analyzed(MethodNullnessResult result) {
+      add(result);
+    }
+
+    public void add(MethodNullnessResult result) {
+      methods.put(result.getMethod().getSignature(), encode(result));
+    }
+
+    public int size() {
+      return methods.size();
+    }
+
+    /**
+     * Atomically replaces file with the edges collected so far.
+     */
+    public void write(File file) throws IOException {
+      final File tmp = new File(file.getPath() + ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(methods.size());
+        for (Map.Entry<String, byte[]> e : new TreeMap<>(methods).entrySet()) {
+          final byte[] signature = e.getKey().getBytes(StandardCharsets.UTF_8);
+          out.writeInt(signature.length);
+          out.write(signature);
+          out.writeInt(e.getValue().length);
+          out.write(e.getValue());
+        }
+      }
+      Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+
+  private final ByteBuffer mapped;
+
+  private final Map<String, Integer> offsets;
+
+  private PrunedEdgeFile(ByteBuffer mapped, Map<String, Integer> offsets) {
+    this.mapped = mapped;
+    this.offsets = offsets;
+  }
+
+  /**
+   * Writes the pruned edges of results to file.
+   */
+  public static void write(File file, Collection<MethodNullnessResult> results) throws IOException {
+    final Collector collector = new Collector();
+    for (MethodNullnessResult result : results) {
+      collector.add(result);
+    }
+    collector.write(file);
+  }
+
+  public static PrunedEdgeFile open(File file) throws IOException {
+    final MappedByteBuffer mapped;
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+      // the mapping stays valid after the channel has been closed.
+      mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    if (mapped.remaining() < 12 || mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+      throw new IOException("Not a pruned edge file of version " + VERSION + ": " + file);
+    }
+    final int methods = mapped.getInt();
+    final Map<String, Integer> offsets = new HashMap<>(2 * methods);
+    for (int i = 0; i < methods; i++) {
+      final byte[] signature = new byte[mapped.getInt()];
+      mapped.get(signature);
+      final int length = mapped.getInt();
+      offsets.put(new String(signature, StandardCharsets.UTF_8), mapped.position());
+      mapped.position(mapped.position() + length);
+    }
+    return new PrunedEdgeFile(mapped, offsets);
+  }
+
+  /**
+   * @return the pruned edges of method, or null if method was not exported
+   */
+  public Edges getEdges(MethodReference method) {
+    final Integer offset = offsets.get(method.getSignature());
+    if (offset == null) {
+      return null;
+    }
+    final ByteBuffer in = mapped.duplicate();
+    in.position(offset);
+    final long[] edges = new long[readVarint(in)];
+    int source = 0;
+    for (int i = 0; i < edges.length; i++) {
+      source += readVarint(in);
+      edges[i] = edge(source, readVarint(in));
+    }
+    return new Edges(method, edges);
+  }
+
+  public boolean contains(MethodReference method) {
+    return offsets.containsKey(method.getSignature());
+  }
+
+  public int size() {
+    return offsets.size();
+  }
+
+  static byte[] encode(MethodNullnessResult result) {
+    final long[] edges = new long[result.getNumberOfPrunedEdges()];
+    for (int i = 0; i < edges.length; i++) {
+      edges[i] = edge(result.getPrunedEdgeSource(i), result.getPrunedEdgeTarget(i));
+    }
+    Arrays.sort(edges);
+    final ByteArrayOutputStream out = new ByteArrayOutputStream(1 + 3 * edges.length);
+    writeVarint(out, edges.length);
+    int previous = 0;
+    for (long e : edges) {
+      final int source = (int) (e >>> 32);
+      writeVarint(out, source - previous);
+      writeVarint(out, (int) e);
+      previous = source;
+    }
+    return out.toByteArray();
+  }
+
+  private static long edge(int source, int target) {
+    return ((long) source << 32) | (target & 0xFFFFFFFFL);
+  }
+
+  private static void writeVarint(ByteArrayOutputStream out, int value) {
+    while ((value & ~0x7F) != 0) {
+      out.write((value & 0x7F) | 0x80);
+      value >>>= 7;
+    }
+    out.write(value);
+  }
+
+  private static int readVarint(ByteBuffer in) {
+    int value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      b = in.get();
+      value |= (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+}
@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.cdg.ControlDependenceGraph;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.NullProgressMonitor;
+import com.ibm.wala.util.graph.Graph;
+
+/**
+ * Measures what a downstream analysis gains from a {@link PrunedEdgeFile}: the size of the file, the time to load
+ * the pruned control flow graphs from it compared to recomputing them, and the size of, and the time to build, the
+ * control dependence graphs (the intraprocedural core of an SDG) of the original and of the pruned control flow
+ * graphs.
+ *
+ * Usage: {@code PrunedEdgeFileBenchmark [scopeFile [classPrefix]]}, as for {@link NullPointerAnalysisBenchmark}.
+ */
+public class PrunedEdgeFileBenchmark {
+
+  private static final int WARMUP = 5;
+
+  private static final int ITERATIONS = 20;
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    final String classPrefix = args.length > 1 ? args[1] : "Lcfg/exc/intra/";
+
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(NonNullTestData.makeScope(scopeFile));
+    final NonNullAnalysisFactory analyses = new NonNullAnalysisFactory(cha, NullAnnotationIndex.build(cha));
+    final NullPointerAnalysisDriver driver = new NullPointerAnalysisDriver(analyses);
+    final List<IMethod> methods = new ArrayList<>();
+    final List<IR> irs = new ArrayList<>();
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (m.getDeclaringClass().getName().toString().startsWith(classPrefix)) {
+        methods.add(m);
+        irs.add(driver.makeIR(m));
+      }
+    }
+
+    final File file = File.createTempFile("pruned", ".edges");
+    file.deleteOnExit();
+    final PrunedEdgeFile.Collector collector = new PrunedEdgeFile.Collector();
+    driver.analyze(methods, collector);
+    collector.write(file);
+    System.out.println("methods: " + methods.size() + ", exported: " + collector.size() + ", file: " + file.length() + " bytes");
+
+    final PrunedEdgeFile edges = PrunedEdgeFile.open(file);
+    final List<ControlFlowGraph<SSAInstruction, ISSABasicBlock>> original = new ArrayList<>();
+    final List<ControlFlowGraph<SSAInstruction, ISSABasicBlock>> pruned = new ArrayList<>();
+    for (IR ir : irs) {
+      final PrunedEdgeFile.Edges e = edges.getEdges(ir.getMethod().getReference());
+      if (e != null) {
+        original.add(ir.getControlFlowGraph());
+        pruned.add(e.prune(ir.getControlFlowGraph()));
+      }
+    }
+
+    final long recompute = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (IR ir : irs) {
+        analyses.createFieldAwareSSACFGAnalysis(ir, analyses.makeNonNullParameterState(ir)).compute(new NullProgressMonitor());
+      }
+    });
+    final long load = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      final PrunedEdgeFile reopened = PrunedEdgeFile.open(file);
+      for (IR ir : irs) {
+        final PrunedEdgeFile.Edges e = reopened.getEdges(ir.getMethod().getReference());
+        if (e != null) {
+          e.prune(ir.getControlFlowGraph());
+        }
+      }
+    });
+    final long originalCdg = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg : original) {
+        new ControlDependenceGraph<ISSABasicBlock>(cfg);
+      }
+    });
+    final long prunedCdg = Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+      for (ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg : pruned) {
+        new ControlDependenceGraph<ISSABasicBlock>(cfg);
+      }
+    });
+
+    long originalEdges = 0;
+    long prunedEdges = 0;
+    long originalCdgEdges = 0;
+    long prunedCdgEdges = 0;
+    for (int i = 0; i < original.size(); i++) {
+      originalEdges += edges(original.get(i));
+      prunedEdges += edges(pruned.get(i));
+      originalCdgEdges += edges(new ControlDependenceGraph<ISSABasicBlock>(original.get(i)));
+      prunedCdgEdges += edges(new ControlDependenceGraph<ISSABasicBlock>(pruned.get(i)));
+    }
+    System.out.println(String.format("CFG edges: %d -> %d, CDG edges: %d -> %d", originalEdges, prunedEdges,
+        originalCdgEdges, prunedCdgEdges));
+    System.out.println("recompute pruned CFGs: " + (recompute / 1000) + " us, load: " + (load / 1000) + " us");
+    System.out.println("CDG of original CFGs:  " + (originalCdg / 1000) + " us, of pruned: " + (prunedCdg / 1000) + " us");
+  }
+
+  private static <T> long edges(Graph<T> g) {
+    long edges = 0;
+    for (T n : g) {
+      edges += g.getSuccNodeCount(n);
+    }
+    return edges;
+  }
+}
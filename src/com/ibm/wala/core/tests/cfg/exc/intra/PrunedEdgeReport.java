@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.ExceptionPruningAnalysis;
+import com.ibm.wala.cfg.exc.intra.MethodState;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.classLoader.IMethod;
+import com.ibm.wala.ipa.callgraph.AnalysisScope;
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.util.NullProgressMonitor;
+
+/**
+ * Counts the exceptional edges left in the pruned control flow graphs of all methods, for several configurations of
+ * the analysis, to measure what each source of nullness information buys:
+ * <ol>
+ * <li>no annotations at all,</li>
+ * <li>parameter annotations and explicit {@code @NonNull} returns,</li>
+ * <li>additionally, {@link NonNullByDefaultScopeResolver#RETURN_TYPE} defaults of callees,</li>
+ * <li>additionally, the {@link FieldNullness} oracle.</li>
+ * </ol>
+ *
+ * Usage: {@code PrunedEdgeReport [scopeFile [classPrefix]]}, as for {@link NullPointerAnalysisBenchmark}.
+ */
+public class PrunedEdgeReport {
+
+  public interface Configuration {
+    ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> create(IR ir) throws Exception;
+  }
+
+  private static final MethodState UNANNOTATED = new MethodState() {
+    @Override
+    public boolean throwsException(SSAAbstractInvokeInstruction node) {
+      return false;
+    }
+  };
+
+  public static Map<String, Configuration> configurations(NonNullAnalysisFactory analyses) {
+    final Map<String, Configuration> configurations = new LinkedHashMap<>();
+    configurations.put("unannotated", ir -> analyses.createNonNullRespectingSSACFGAnalysis(ir, ParameterState.createDefault(ir.getMethod()), UNANNOTATED));
+    final NonNullAnalysisFactory explicitReturns = new NonNullAnalysisFactory(analyses, new NonNullReturnSummaries(
+        analyses.getClassHierarchy(), analyses.getScopeResolver(), analyses.getIndex(), false));
+    configurations.put("explicit @NonNull returns", ir -> explicitReturns.createNonNullRespectingSSACFGAnalysis(ir));
+    configurations.put("+ RETURN_TYPE defaults", ir -> analyses.createNonNullRespectingSSACFGAnalysis(ir));
+    configurations.put("+ field oracle", ir -> analyses.createFieldAwareSSACFGAnalysis(ir, analyses.makeNonNullParameterState(ir)));
+    return configurations;
+  }
+
+  /**
+   * @return the number of exceptional edges in cfg
+   */
+  public static int exceptionalEdges(ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg) {
+    int edges = 0;
+    for (ISSABasicBlock bb : cfg) {
+      edges += cfg.getExceptionalSuccessors(bb).size();
+    }
+    return edges;
+  }
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    final String classPrefix = args.length > 1 ? args[1] : "Lcfg/exc/intra/";
+
+    final AnalysisScope scope = NonNullTestData.makeScope(scopeFile);
+    final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(scope);
+    final NonNullAnalysisFactory analyses = new NonNullAnalysisFactory(cha, NullAnnotationIndex.build(cha));
+
+    final List<IR> irs = new ArrayList<>();
+    long original = 0;
+    for (IMethod m : NullPointerAnalysisDriver.applicationMethods(cha)) {
+      if (m.getDeclaringClass().getName().toString().startsWith(classPrefix)) {
+        final IR ir = analyses.makeIR(m);
+        irs.add(ir);
+        original += exceptionalEdges(ir.getControlFlowGraph());
+      }
+    }
+    System.out.println("methods: " + irs.size() + ", exceptional edges: " + original);
+
+    for (Map.Entry<String, Configuration> e : configurations(analyses).entrySet()) {
+      long remaining = 0;
+      int failed = 0;
+      for (IR ir : irs) {
+        try {
+          final ExceptionPruningAnalysis<SSAInstruction, ISSABasicBlock> analysis = e.getValue().create(ir);
+          analysis.compute(new NullProgressMonitor());
+          remaining += exceptionalEdges(analysis.getCFG());
+        } catch (Exception ex) {
+          remaining += exceptionalEdges(ir.getControlFlowGraph());
+          failed++;
+        }
+      }
+      System.out.println(String.format("%-30s %10d edges left %7.2f%% pruned %6d failed", e.getKey(), remaining,
+          100.0 * (original - remaining) / Math.max(1, original), failed));
+    }
+  }
+}
@@ -0,0 +1,561 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import com.ibm.wala.cfg.ControlFlowGraph;
+import com.ibm.wala.cfg.exc.NullPointerAnalysis;
+import com.ibm.wala.cfg.exc.intra.MethodState;
+import com.ibm.wala.cfg.exc.intra.NullPointerState.State;
+import com.ibm.wala.cfg.exc.intra.ParameterState;
+import com.ibm.wala.ipa.cfg.EdgeFilter;
+import com.ibm.wala.ipa.cfg.PrunedCFG;
+import com.ibm.wala.ssa.IR;
+import com.ibm.wala.ssa.ISSABasicBlock;
+import com.ibm.wala.ssa.SSAAbstractInvokeInstruction;
+import com.ibm.wala.ssa.SSAAbstractThrowInstruction;
+import com.ibm.wala.ssa.SSAInstruction;
+import com.ibm.wala.ssa.SSAPhiInstruction;
+import com.ibm.wala.types.TypeReference;
+import com.ibm.wala.util.CancelException;
+import com.ibm.wala.util.MonitorUtil;
+import com.ibm.wala.util.MonitorUtil.IProgressMonitor;
+import com.ibm.wala.util.intset.IntSetUtil;
+import com.ibm.wala.util.intset.MutableIntSet;
+
+/**
+ * Computes the same states as {@link NullPointerSolver}, and thus as
+ * {@link com.ibm.wala.cfg.exc.intra.SSACFGNullPointerAnalysis}, but sparsely: the state of a value only changes
+ * at its phi, and on the edges where it is dereferenced, compared with null, or defined by a new or invoke. These
+ * refinements are treated as definitions of new versions of the value, as pi nodes would be, and versions are
+ * merged at the iterated dominance frontier of the blocks they are defined in. Every other block sees the version
+ * of its nearest dominator that has one.
+ *
+ * The work is linear in the number of versions and merges of the values that have any, rather than in blocks
+ * times values; values without versions keep their initial state everywhere. Values only depend on each other
+ * through phis, so only the phis using a value whose versions changed are re-evaluated.
+ *
+ * Like {@link com.ibm.wala.cfg.exc.intra.SSACFGNullPointerAnalysis}, it runs on the control flow graph without the
+ * exceptional edges of instructions that throw nothing but ignored exceptions, and then prunes the exceptional
+ * edges of the instructions that can throw nothing but a {@link NullPointerException} on a value that is
+ * {@link State#NOT_NULL}.
+ *
+ * It follows {@link com.ibm.wala.cfg.exc.ExceptionPruningAnalysis}, but hands out its states as
+ * {@link PackedNullPointerState}s, as WALA creates {@link com.ibm.wala.cfg.exc.intra.NullPointerState}s only within its
+ * own package. {@link MethodNullnessResult#ofSparse} extracts its result.
+ */
+public class SparseNullPointerAnalysis {
+
+  /**
+   * The versions of one value: the blocks where it is defined or merged, and its state before and after the phis
+   * of each of them.
+   */
+  private static final class Versions {
+    /** numbers of the blocks, ascending */
+    final int[] blocks;
+    /** indices into blocks, in reverse postorder */
+    final int[] order;
+    final State[] in;
+    final State[] out;
+
+    Versions(int[] blocks, int[] order) {
+      this.blocks = blocks;
+      this.order = order;
+      this.in = new State[blocks.length];
+      this.out = new State[blocks.length];
+      Arrays.fill(in, State.UNKNOWN);
+      Arrays.fill(out, State.UNKNOWN);
+    }
+
+    int indexOf(int block) {
+      return Arrays.binarySearch(blocks, block);
+    }
+  }
+
+  private final IR ir;
+
+  private final TypeReference[] ignoredExceptions;
+
+  /** the control flow graph of ir without the edges of ignored exceptions */
+  private final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg;
+
+  private final NullPointerSolver transfer;
+
+  private final int maxValueNumber;
+
+  private ControlFlowGraph<SSAInstruction, ISSABasicBlock> pruned;
+
+  private final PackedNullPointerState initial;
+
+  /** the reverse postorder rank of every block reachable from the entry, -1 for the others */
+  private final int[] rank;
+
+  private final int[] idom;
+
+  /** the states set on edges, by {@link #key(int, int, int)} */
+  private final Map<Long, State> edgeEffects = new HashMap<>();
+
+  /** for every phi def, its block, and its index among the phis of the block */
+  private final int[] phiBlock;
+  private final int[] phiIndex;
+  private final SSAPhiInstruction[] phis;
+
+  private final Versions[] versions;
+
+  private int evaluations = 0;
+
+  public SparseNullPointerAnalysis(IR ir, ParameterState parameterState, MethodState methodState) {
+    this(NullPointerAnalysis.DEFAULT_IGNORE_EXCEPTIONS, ir, parameterState, methodState);
+  }
+
+  public SparseNullPointerAnalysis(TypeReference[] ignoredExceptions, IR ir, ParameterState parameterState, MethodState methodState) {
+    this.ir = ir;
+    this.ignoredExceptions = ignoredExceptions;
+    this.cfg = withoutIgnoredExceptions(ir, ignoredExceptions);
+    this.transfer = new NullPointerSolver(ir, cfg, parameterState, methodState, NullPointerSolver.Order.REVERSE_POSTORDER);
+    this.maxValueNumber = ir.getSymbolTable().getMaxValueNumber();
+    this.initial = transfer.initialState();
+    this.rank = new int[ir.getControlFlowGraph().getMaxNumber() + 1];
+    this.idom = new int[ir.getControlFlowGraph().getMaxNumber() + 1];
+    this.phiBlock = new int[maxValueNumber + 1];
+    this.phiIndex = new int[maxValueNumber + 1];
+    this.phis = new SSAPhiInstruction[maxValueNumber + 1];
+    this.versions = new Versions[maxValueNumber + 1];
+  }
+
+  /**
+   * @return the control flow graph of ir without the exceptional edges of the instructions that can only throw
+   *         ignoredExceptions
+   */
+  public static ControlFlowGraph<SSAInstruction, ISSABasicBlock> withoutIgnoredExceptions(IR ir, final TypeReference[] ignoredExceptions) {
+    final ControlFlowGraph<SSAInstruction, ISSABasicBlock> cfg = ir.getControlFlowGraph();
+    return PrunedCFG.make(cfg, new EdgeFilter<ISSABasicBlock>() {
+      @Override
+      public boolean hasNormalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+        return cfg.getNormalSuccessors(src).contains(dst);
+      }
+
+      @Override
+      public boolean hasExceptionalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+        if (!cfg.getExceptionalSuccessors(src).contains(dst)) {
+          return false;
+        }
+        final SSAInstruction last = (src.getLastInstructionIndex() < 0) ? null : src.getLastInstruction();
+        return last == null || !thrownExceptions(last, ignoredExceptions).isEmpty();
+      }
+    });
+  }
+
+  /**
+   * @return the exceptions instruction may throw besides ignoredExceptions; invokes and throws may throw any
+   */
+  private static Collection<TypeReference> thrownExceptions(SSAInstruction instruction, TypeReference[] ignoredExceptions) {
+    final Set<TypeReference> thrown = new HashSet<>();
+    if (instruction instanceof SSAAbstractInvokeInstruction || instruction instanceof SSAAbstractThrowInstruction) {
+      thrown.add(TypeReference.JavaLangThrowable);
+      return thrown;
+    }
+    if (instruction.getExceptionTypes() != null) {
+      thrown.addAll(instruction.getExceptionTypes());
+    }
+    thrown.removeAll(Arrays.asList(ignoredExceptions));
+    return thrown;
+  }
+
+  /**
+   * Places the versions of all values, iterates their states to the fixpoint, and prunes the exceptional edges of
+   * the dereferences of values that are {@link State#NOT_NULL}.
+   *
+   * @return the number of exceptional edges pruned
+   */
+  public int compute(IProgressMonitor monitor) throws CancelException {
+    final int[] order = NullPointerSolver.reversePostorder(cfg);
+    Arrays.fill(rank, -1);
+    for (int r = 0; r < order.length; r++) {
+      rank[order[r]] = r;
+    }
+    computeDominators(order);
+    final int[][] frontiers = dominanceFrontiers(order);
+
+    // collect the blocks defining versions of each value.
+    final MutableIntSet[] definitions = new MutableIntSet[maxValueNumber + 1];
+    final int entry = cfg.entry().getNumber();
+    for (int v = 1; v <= maxValueNumber; v++) {
+      if (initial.getState(v) != State.UNKNOWN) {
+        definitions(definitions, v).add(entry);
+      }
+    }
+    final MutableIntSet[] users = new MutableIntSet[maxValueNumber + 1];
+    for (int b : order) {
+      final ISSABasicBlock bb = cfg.getNode(b);
+      int index = 0;
+      for (Iterator<SSAPhiInstruction> it = bb.iteratePhis(); it.hasNext();) {
+        final SSAPhiInstruction phi = it.next();
+        if (phi == null) {
+          continue;
+        }
+        final int def = phi.getDef();
+        phiBlock[def] = b;
+        phiIndex[def] = index++;
+        phis[def] = phi;
+        definitions(definitions, def).add(b);
+        for (int i = 0; i < phi.getNumberOfUses(); i++) {
+          definitions(users, phi.getUse(i)).add(def);
+        }
+      }
+      for (Iterator<ISSABasicBlock> it = cfg.getSuccNodes(bb); it.hasNext();) {
+        final ISSABasicBlock succ = it.next();
+        transfer.edgeEffects(bb, succ, (v, s) -> {
+          edgeEffects.put(key(v, b, succ.getNumber()), s);
+          definitions(definitions, v).add(succ.getNumber());
+        });
+      }
+    }
+
+    // place the merges, and seed the worklist with all values that have versions.
+    final ArrayDeque<Integer> worklist = new ArrayDeque<>();
+    final BitSet pending = new BitSet();
+    for (int v = 1; v <= maxValueNumber; v++) {
+      if (definitions[v] != null) {
+        versions[v] = place(definitions[v], frontiers, entry);
+        worklist.add(v);
+        pending.set(v);
+      }
+    }
+
+    while (!worklist.isEmpty()) {
+      MonitorUtil.throwExceptionIfCanceled(monitor);
+      final int v = worklist.poll();
+      pending.clear(v);
+      if (evaluate(v) && users[v] != null) {
+        users[v].foreach(user -> {
+          if (!pending.get(user)) {
+            pending.set(user);
+            worklist.add(user);
+          }
+        });
+      }
+    }
+    return prune();
+  }
+
+  private int prune() {
+    final Set<ISSABasicBlock> safe = new HashSet<>();
+    int removed = 0;
+    for (ISSABasicBlock bb : cfg) {
+      if (rank[bb.getNumber()] < 0 || bb.getLastInstructionIndex() < 0 || bb.getLastInstruction() == null) {
+        continue;
+      }
+      final SSAInstruction last = bb.getLastInstruction();
+      final int dereferenced = NullDereferences.dereferencedValue(last);
+      final Collection<TypeReference> thrown = thrownExceptions(last, ignoredExceptions);
+      if (dereferenced != NullDereferences.NO_DEREFERENCE && thrown.size() == 1
+          && thrown.contains(TypeReference.JavaLangNullPointerException)
+          && stateAfterPhis(dereferenced, bb.getNumber()) == State.NOT_NULL && !cfg.getExceptionalSuccessors(bb).isEmpty()) {
+        safe.add(bb);
+        removed += cfg.getExceptionalSuccessors(bb).size();
+      }
+    }
+    if (safe.isEmpty()) {
+      pruned = cfg;
+    } else {
+      pruned = PrunedCFG.make(cfg, new EdgeFilter<ISSABasicBlock>() {
+        @Override
+        public boolean hasNormalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+          return cfg.getNormalSuccessors(src).contains(dst);
+        }
+
+        @Override
+        public boolean hasExceptionalEdge(ISSABasicBlock src, ISSABasicBlock dst) {
+          return !safe.contains(src) && cfg.getExceptionalSuccessors(src).contains(dst);
+        }
+      });
+    }
+    return removed;
+  }
+
+  private static MutableIntSet definitions(MutableIntSet[] sets, int v) {
+    if (sets[v] == null) {
+      sets[v] = IntSetUtil.make();
+    }
+    return sets[v];
+  }
+
+  private static long key(int valueNumber, int src, int dst) {
+    return ((long) valueNumber << 40) | ((long) src << 20) | dst;
+  }
+
+  /**
+   * Cooper, Harvey, Kennedy: A Simple, Fast Dominance Algorithm.
+   */
+  private void computeDominators(int[] order) {
+    Arrays.fill(idom, -1);
+    final int entry = order[0];
+    idom[entry] = entry;
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int r = 1; r < order.length; r++) {
+        final int b = order[r];
+        int newIdom = -1;
+        for (Iterator<ISSABasicBlock> it = cfg.getPredNodes(cfg.getNode(b)); it.hasNext();) {
+          final int p = it.next().getNumber();
+          if (idom[p] == -1) {
+            continue;
+          }
+          newIdom = (newIdom == -1) ? p : intersect(p, newIdom);
+        }
+        if (newIdom != idom[b]) {
+          idom[b] = newIdom;
+          changed = true;
+        }
+      }
+    }
+  }
+
+  private int intersect(int a, int b) {
+    while (a != b) {
+      while (rank[a] > rank[b]) {
+        a = idom[a];
+      }
+      while (rank[b] > rank[a]) {
+        b = idom[b];
+      }
+    }
+    return a;
+  }
+
+  private int[][] dominanceFrontiers(int[] order) {
+    final MutableIntSet[] frontiers = new MutableIntSet[rank.length];
+    for (int b : order) {
+      final ISSABasicBlock bb = cfg.getNode(b);
+      if (cfg.getPredNodeCount(bb) < 2) {
+        continue;
+      }
+      for (Iterator<ISSABasicBlock> it = cfg.getPredNodes(bb); it.hasNext();) {
+        int runner = it.next().getNumber();
+        if (rank[runner] < 0) {
+          continue;
+        }
+        while (runner != idom[b]) {
+          definitions(frontiers, runner).add(b);
+          runner = idom[runner];
+        }
+      }
+    }
+    final int[][] result = new int[frontiers.length][];
+    for (int b = 0; b < frontiers.length; b++) {
+      if (frontiers[b] != null) {
+        result[b] = new int[frontiers[b].size()];
+        final int[] i = { 0 };
+        final int[] r = result[b];
+        frontiers[b].foreach(x -> r[i[0]++] = x);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return the versions defined in definitions, the entry, and their iterated dominance frontier
+   */
+  private Versions place(MutableIntSet definitions, int[][] frontiers, int entry) {
+    final MutableIntSet blocks = IntSetUtil.make();
+    final ArrayDeque<Integer> worklist = new ArrayDeque<>();
+    definitions.foreach(b -> {
+      if (rank[b] >= 0 && blocks.add(b)) {
+        worklist.add(b);
+      }
+    });
+    while (!worklist.isEmpty()) {
+      final int[] frontier = frontiers[worklist.poll()];
+      if (frontier != null) {
+        for (int b : frontier) {
+          if (blocks.add(b)) {
+            worklist.add(b);
+          }
+        }
+      }
+    }
+    blocks.add(entry);
+
+    final int[] sorted = new int[blocks.size()];
+    final int[] size = { 0 };
+    blocks.foreach(b -> sorted[size[0]++] = b);
+    Arrays.sort(sorted);
+    final Integer[] byRank = new Integer[sorted.length];
+    for (int i = 0; i < sorted.length; i++) {
+      byRank[i] = i;
+    }
+    Arrays.sort(byRank, (a, b) -> Integer.compare(rank[sorted[a]], rank[sorted[b]]));
+    final int[] order = new int[sorted.length];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = byRank[i];
+    }
+    return new Versions(sorted, order);
+  }
+
+  /**
+   * Iterates the versions of v in reverse postorder until they are stable.
+   *
+   * @return true iff any of them changed
+   */
+  private boolean evaluate(int v) {
+    final Versions vs = versions[v];
+    final int entry = cfg.entry().getNumber();
+    boolean changed = false;
+    boolean stable = false;
+    while (!stable) {
+      stable = true;
+      for (int i : vs.order) {
+        evaluations++;
+        final int b = vs.blocks[i];
+        State in;
+        if (b == entry) {
+          in = initial.getState(v);
+        } else {
+          in = State.UNKNOWN;
+          for (Iterator<ISSABasicBlock> it = cfg.getPredNodes(cfg.getNode(b)); it.hasNext();) {
+            final int p = it.next().getNumber();
+            if (rank[p] < 0) {
+              continue;
+            }
+            final State effect = edgeEffects.get(key(v, p, b));
+            in = NullPointerSolver.meet(in, (effect != null) ? effect : stateAfterPhis(v, p));
+          }
+        }
+        if (in != vs.in[i]) {
+          // phis of b using v read this state.
+          vs.in[i] = in;
+          changed = true;
+        }
+        final State out = (phis[v] != null && phiBlock[v] == b) ? meetOfUses(phis[v], b) : in;
+        if (out != vs.out[i]) {
+          vs.out[i] = out;
+          stable = false;
+          changed = true;
+        }
+      }
+    }
+    return changed;
+  }
+
+  private State meetOfUses(SSAPhiInstruction phi, int b) {
+    State s = State.UNKNOWN;
+    for (int i = 0; i < phi.getNumberOfUses(); i++) {
+      final int u = phi.getUse(i);
+      final boolean earlierPhi = phis[u] != null && phiBlock[u] == b && phiIndex[u] < phiIndex[phi.getDef()];
+      s = NullPointerSolver.meet(s, earlierPhi ? stateAfterPhis(u, b) : stateBeforePhis(u, b));
+    }
+    return s;
+  }
+
+  private State stateBeforePhis(int v, int b) {
+    final Versions vs = versions[v];
+    if (vs != null) {
+      final int i = vs.indexOf(b);
+      if (i >= 0) {
+        return vs.in[i];
+      }
+    }
+    return stateAfterPhis(v, b);
+  }
+
+  /**
+   * @return the state of v in the version of the nearest dominator of b (or b itself) that has one
+   */
+  private State stateAfterPhis(int v, int b) {
+    final Versions vs = versions[v];
+    if (vs == null) {
+      return initial.getState(v);
+    }
+    while (true) {
+      final int i = vs.indexOf(b);
+      if (i >= 0) {
+        return vs.out[i];
+      }
+      b = idom[b];
+    }
+  }
+
+  /**
+   * @return the state of valueNumber after the phis of bb, or null if bb is not reachable from the entry
+   */
+  public State getState(ISSABasicBlock bb, int valueNumber) {
+    if (rank[bb.getNumber()] < 0) {
+      return null;
+    }
+    return stateAfterPhis(valueNumber, bb.getNumber());
+  }
+
+  /**
+   * @return the states of all values after the phis of bb, as {@link NullPointerSolver#getState(ISSABasicBlock)},
+   *         or null if bb is not reachable from the entry
+   */
+  public PackedNullPointerState getState(ISSABasicBlock bb) {
+    if (rank[bb.getNumber()] < 0) {
+      return null;
+    }
+    final PackedNullPointerState state = new PackedNullPointerState(maxValueNumber);
+    for (int v = 1; v <= maxValueNumber; v++) {
+      state.setState(v, stateAfterPhis(v, bb.getNumber()));
+    }
+    return state;
+  }
+
+  /**
+   * @return the control flow graph without ignored and pruned exceptional edges, once computed
+   */
+  public ControlFlowGraph<SSAInstruction, ISSABasicBlock> getCFG() {
+    return pruned;
+  }
+
+  public boolean hasExceptions() {
+    for (ISSABasicBlock bb : pruned) {
+      if (!pruned.getExceptionalSuccessors(bb).isEmpty()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the number of version evaluations of {@link #compute(IProgressMonitor)}
+   */
+  public int getNumberOfEvaluations() {
+    return evaluations;
+  }
+
+  /**
+   * @return the number of versions of all values
+   */
+  public int getNumberOfVersions() {
+    int n = 0;
+    for (Versions vs : versions) {
+      if (vs != null) {
+        n += vs.blocks.length;
+      }
+    }
+    return n;
+  }
+
+  public IR getIR() {
+    return ir;
+  }
+}
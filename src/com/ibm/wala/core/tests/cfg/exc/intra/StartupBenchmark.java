@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.util.concurrent.ForkJoinPool;
+
+import com.ibm.wala.ipa.cha.ClassHierarchy;
+
+/**
+ * Compares {@link ParallelStartup} to a sequential start, which builds the hierarchy and then the
+ * {@link NullAnnotationIndex} on the calling thread, and prints the phases of the last parallel start.
+ *
+ * Usage: {@code StartupBenchmark [scopeFile]}.
+ */
+public class StartupBenchmark {
+
+  private static final int WARMUP = 3;
+
+  private static final int ITERATIONS = 10;
+
+  private static final int ROUNDS = 3;
+
+  public static void main(String[] args) throws Exception {
+    final String scopeFile = args.length > 0 ? args[0] : NonNullTestData.NONNULL_TESTDATA;
+    final ForkJoinPool pool = ForkJoinPool.commonPool();
+    final ParallelStartup[] last = new ParallelStartup[1];
+    final int[] indexed = new int[1];
+
+    // alternate the runs, so that drift of the machine affects both alike.
+    long sequential = Long.MAX_VALUE;
+    long parallel = Long.MAX_VALUE;
+    for (int round = 0; round < ROUNDS; round++) {
+      sequential = Math.min(sequential, Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+        final ClassHierarchy cha = NonNullTestData.makeClassHierarchy(NonNullTestData.makeScope(scopeFile));
+        indexed[0] = NullAnnotationIndex.build(cha).size();
+      }));
+      parallel = Math.min(parallel, Benchmarks.measure(WARMUP, ITERATIONS, () -> {
+        last[0] = ParallelStartup.start(scopeFile, pool);
+      }));
+    }
+    if (last[0].getIndex().size() != indexed[0]) {
+      throw new IllegalStateException("sequential and parallel index differ in size");
+    }
+    System.out.println(String.format("sequential: %.1f ms, parallel: %.1f ms on %d threads, %d methods indexed",
+        sequential / 1e6, parallel / 1e6, pool.getParallelism(), indexed[0]));
+    System.out.print(last[0]);
+  }
+}
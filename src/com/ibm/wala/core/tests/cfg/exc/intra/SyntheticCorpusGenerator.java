@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2002 - 2006 IBM Corporation.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package com.ibm.wala.core.tests.cfg.exc.intra;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Random;
+
+/**
+ * Generates the Java sources of a large, annotated benchmark corpus in the style of the {@code cfg.exc.intra}
+ * subjects: field accesses on possibly null parameters, branches, loops, and calls to annotated methods.
+ *
+ * Usage: {@code SyntheticCorpusGenerator outDir [classes [methodsPerClass [blocksPerMethod [distinctBodies]]]]}.
+ * With distinctBodies &gt; 0, every method body is one of that many templates, like generated code, and calls no
+ * other method, so methods sharing a template are structurally identical. The sources
+ * need {@code org.eclipse.jdt.annotation} on the classpath; put the compiled classes into a {@code binaryDir}
+ * of a scope file, and pass that to {@link NullPointerAnalysisBenchmark}.
+ */
+public class SyntheticCorpusGenerator {
+
+  public static final String PACKAGE = "synthetic";
+
+  private final Random random = new Random(42);
+
+  private final int methodsPerClass;
+
+  private final int blocksPerMethod;
+
+  private final int distinctBodies;
+
+  public SyntheticCorpusGenerator(int methodsPerClass, int blocksPerMethod) {
+    this(methodsPerClass, blocksPerMethod, 0);
+  }
+
+  /**
+   * @param distinctBodies the number of method body templates, or 0 for a random body per method
+   */
+  public SyntheticCorpusGenerator(int methodsPerClass, int blocksPerMethod, int distinctBodies) {
+    this.methodsPerClass = methodsPerClass;
+    this.blocksPerMethod = blocksPerMethod;
+    this.distinctBodies = distinctBodies;
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length < 1) {
+      System.err.println("Usage: SyntheticCorpusGenerator outDir [classes [methodsPerClass [blocksPerMethod [distinctBodies]]]]");
+      System.exit(1);
+    }
+    final File outDir = new File(args[0], PACKAGE);
+    final int classes = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    final int methodsPerClass = args.length > 2 ? Integer.parseInt(args[2]) : 50;
+    final int blocksPerMethod = args.length > 3 ? Integer.parseInt(args[3]) : 8;
+    final int distinctBodies = args.length > 4 ? Integer.parseInt(args[4]) : 0;
+    if (!outDir.isDirectory() && !outDir.mkdirs()) {
+      throw new IOException("Could not create " + outDir);
+    }
+
+    final SyntheticCorpusGenerator generator = new SyntheticCorpusGenerator(methodsPerClass, blocksPerMethod, distinctBodies);
+    try (PrintWriter out = new PrintWriter(new File(outDir, "Node.java"), "UTF-8")) {
+      out.println("package " + PACKAGE + ";");
+      out.println("public class Node { public int f; public Node next; }");
+    }
+    for (int c = 0; c < classes; c++) {
+      try (PrintWriter out = new PrintWriter(new File(outDir, className(c) + ".java"), "UTF-8")) {
+        generator.writeClass(out, c);
+      }
+    }
+  }
+
+  private static String className(int c) {
+    return "C" + c;
+  }
+
+  public void writeClass(PrintWriter out, int c) {
+    out.println("package " + PACKAGE + ";");
+    out.println();
+    out.println("import org.eclipse.jdt.annotation.NonNull;");
+    out.println("import org.eclipse.jdt.annotation.NonNullByDefault;");
+    out.println("import org.eclipse.jdt.annotation.Nullable;");
+    out.println();
+    if (random.nextBoolean()) {
+      out.println("@NonNullByDefault");
+    }
+    out.println("public class " + className(c) + " {");
+    for (int m = 0; m < methodsPerClass; m++) {
+      writeMethod(out, m);
+    }
+    out.println("}");
+  }
+
+  private void writeMethod(PrintWriter out, int m) {
+    out.println();
+    out.println("  public static @Nullable Node m" + m + "(boolean unknown, @Nullable Node n1, @NonNull Node n2, Node n3) {");
+    out.println("    Node x = n3;");
+    final boolean template = distinctBodies > 0;
+    final Random body = template ? new Random(random.nextInt(distinctBodies)) : random;
+    for (int b = 0; b < blocksPerMethod; b++) {
+      switch (body.nextInt(6)) {
+        case 0:
+          out.println("    n1.f = " + b + ";");
+          break;
+        case 1:
+          out.println("    if (unknown) { x = n1; } else { x = n2; }");
+          break;
+        case 2:
+          out.println("    while (unknown && x != null) { x = x.next; }");
+          break;
+        case 3:
+          out.println("    x = n2.next;");
+          break;
+        case 4:
+          out.println("    if (x != null) { x.f++; }");
+          break;
+        default:
+          if (m > 0 && !template) {
+            out.println("    x = m" + random.nextInt(m) + "(unknown, x, n2, n3);");
+          } else {
+            out.println("    x = null;");
+          }
+          break;
+      }
+    }
+    out.println("    return x;");
+    out.println("  }");
+  }
+}
@@ -0,0 +1,28 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+public class AddressDto {
+
+  private B street;
+
+  private int number;
+
+  public B getStreet() {
+    return street;
+  }
+
+  public int getNumber() {
+    return number;
+  }
+
+  public AddressDto withNumber(int number) {
+    this.number = number;
+    return this;
+  }
+}
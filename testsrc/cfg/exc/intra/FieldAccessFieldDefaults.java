@@ -0,0 +1,45 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+import org.eclipse.jdt.annotation.DefaultLocation;
+import org.eclipse.jdt.annotation.NonNull;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+@NonNullByDefault({ DefaultLocation.FIELD })
+public class FieldAccessFieldDefaults {
+
+  B b = new B();
+
+  @Nullable B maybe;
+
+  static B shared = new B();
+
+  public int testGet() {
+    return this.b.f;
+  }
+
+  public int testGetNullable() {
+    return this.maybe.f;
+  }
+
+  public int testGetStatic(boolean unknown) {
+    B b3;
+    if (unknown) {
+      b3 = this.b;
+    } else {
+      b3 = shared;
+    }
+    return b3.f;
+  }
+
+  public int testGetUnannotatedClass(@NonNull B b1) {
+    return b1.b.f;
+  }
+}
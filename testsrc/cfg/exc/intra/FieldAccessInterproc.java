@@ -0,0 +1,46 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+public class FieldAccessInterproc {
+
+  public static B make() {
+    return new B();
+  }
+
+  public static B wrap() {
+    return make();
+  }
+
+  public static B maybe(boolean unknown) {
+    if (unknown) {
+      return null;
+    }
+    return make();
+  }
+
+  public static B even(int n) {
+    if (n == 0) {
+      return new B();
+    }
+    return odd(n - 1);
+  }
+
+  public static B odd(int n) {
+    if (n == 0) {
+      return new B();
+    }
+    return even(n - 1);
+  }
+
+  public static B testCall(boolean unknown) {
+    B b = wrap();
+    b.f = 42;
+    return b;
+  }
+}
@@ -0,0 +1,43 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.annotation.meta.When;
+
+@ParametersAreNonnullByDefault
+public class FieldAccessJsr305 {
+
+  public static int testParam(boolean unknown, B b1, @Nullable B b2) {
+    if (unknown) {
+      return b1.f;
+    } else {
+      return b2.f;
+    }
+  }
+
+  @Nonnull
+  public static B make() {
+    return new B();
+  }
+
+  public static int testCall() {
+    return make().f;
+  }
+
+  @Nonnull(when = When.MAYBE)
+  public static B maybe() {
+    return new B();
+  }
+
+  public static int testWhen(@Nonnull(when = When.ALWAYS) B b1, @Nonnull(when = When.MAYBE) B b2, @Nonnull(when = When.UNKNOWN) B b3) {
+    return b1.f + b2.f + b3.f;
+  }
+}
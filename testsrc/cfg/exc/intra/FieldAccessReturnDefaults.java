@@ -0,0 +1,23 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+import org.eclipse.jdt.annotation.DefaultLocation;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+
+@NonNullByDefault({ DefaultLocation.RETURN_TYPE })
+public class FieldAccessReturnDefaults {
+
+  public static B make() {
+    return new B();
+  }
+
+  public static int testCall() {
+    return make().f;
+  }
+}
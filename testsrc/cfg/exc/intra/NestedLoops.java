@@ -0,0 +1,73 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * {@link FieldAccess#testWhile(boolean, B)} scaled up to nested loops, in which nullness only stabilizes after
+ * the inner loops have been iterated for every iteration of the outer ones.
+ */
+public class NestedLoops {
+
+  public static B testWhile2Nested(int n, @NonNull B b1, B b2) {
+    B b3 = null;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        b1.f = i + j;
+        if (b2 != null) {
+          b3 = b2;
+        }
+      }
+    }
+    return b3;
+  }
+
+  public static @NonNull B testWhile3Nested(int n, @NonNull B b1, B b2) {
+    B b3 = b1;
+    B b4 = b2;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        for (int k = 0; k < n; k++) {
+          b3.f = k;
+          if (b4 != null) {
+            b3 = b4;
+          }
+          b4 = b3.b;
+        }
+        b4 = b1;
+      }
+    }
+    return b3;
+  }
+
+  public static B testWhile4Nested(int n, @NonNull B b1, B b2) {
+    B b3 = null;
+    B b4 = b1;
+    int sum = 0;
+    for (int i = 0; i < n; i++) {
+      for (int j = 0; j < n; j++) {
+        for (int k = 0; k < n; k++) {
+          for (int l = 0; l < n; l++) {
+            sum += b4.f;
+            b4 = (l % 2 == 0) ? b1 : b4;
+            if (b3 == null) {
+              b3 = b2;
+            }
+          }
+          if (b3 != null) {
+            sum += b3.f;
+          }
+        }
+        b3 = null;
+      }
+    }
+    b1.f = sum;
+    return b3;
+  }
+}
@@ -0,0 +1,73 @@
+package cfg.exc.intra.NonNullByDefaultPackageScope;
+
+import org.eclipse.jdt.annotation.DefaultLocation;
+import org.eclipse.jdt.annotation.NonNullByDefault;
+import org.eclipse.jdt.annotation.Nullable;
+
+/**
+ * Synthetic subject for NonNullByDefaultScopeBenchmark: every method sits at the end of a long
+ * chain of inner and anonymous classes, so resolving its {@code @NonNullByDefault} scope walks up
+ * to the package-info.
+ */
+@NonNullByDefault({DefaultLocation.FIELD})
+public class DeeplyNestedScopes {
+  class L1 {
+    void m1(Object a, @Nullable Object b) { a.toString(); }
+    class L2 {
+      void m2(Object a, @Nullable Object b) { a.toString(); }
+      @NonNullByDefault({DefaultLocation.RETURN_TYPE})
+      class L3 {
+        void m3(Object a, @Nullable Object b) { a.toString(); }
+        class L4 {
+          void m4(Object a, @Nullable Object b) { a.toString(); }
+          Object nested(final Object c) {
+            return new Object() {
+              void a1(Object a, @Nullable Object b) { a.toString(); }
+              Object nested() {
+                return new Object() {
+                  void a2(Object a, @Nullable Object b) { a.toString(); }
+                  @NonNullByDefault({DefaultLocation.PARAMETER})
+                  Object nested() {
+                    return new Object() {
+                      void a3(Object a, @Nullable Object b) { a.toString(); }
+                      Object nested() {
+                        class Local {
+                          void l1(Object a, @Nullable Object b) { a.toString(); }
+                          void l2(Object a, @Nullable Object b) { a.toString(); }
+                          void l3(Object a, @Nullable Object b) { a.toString(); }
+                          void l4(Object a, @Nullable Object b) { a.toString(); }
+                        }
+                        return new Local();
+                      }
+                    };
+                  }
+                };
+              }
+            };
+          }
+          class L5 {
+            void m5a(Object a, @Nullable Object b) { a.toString(); }
+            void m5b(Object a, @Nullable Object b) { a.toString(); }
+            void m5c(Object a, @Nullable Object b) { a.toString(); }
+            class L6 {
+              void m6a(Object a, @Nullable Object b) { a.toString(); }
+              void m6b(Object a, @Nullable Object b) { a.toString(); }
+              void m6c(Object a, @Nullable Object b) { a.toString(); }
+              class L7 {
+                void m7a(Object a, @Nullable Object b) { a.toString(); }
+                void m7b(Object a, @Nullable Object b) { a.toString(); }
+                void m7c(Object a, @Nullable Object b) { a.toString(); }
+                class L8 {
+                  void m8a(Object a, @Nullable Object b) { a.toString(); }
+                  void m8b(Object a, @Nullable Object b) { a.toString(); }
+                  void m8c(Object a, @Nullable Object b) { a.toString(); }
+                  void m8d(Object a, @Nullable Object b) { a.toString(); }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,28 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+public class PersonDto {
+
+  private B b;
+
+  private int age;
+
+  public B getB() {
+    return b;
+  }
+
+  public int getAge() {
+    return age;
+  }
+
+  public PersonDto withAge(int age) {
+    this.age = age;
+    return this;
+  }
+}
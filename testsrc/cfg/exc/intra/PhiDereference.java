@@ -0,0 +1,20 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+/**
+ * Dereferences of values merged by a phi, which the SSA CFG analysis cannot prune, and which
+ * {@link com.ibm.wala.core.tests.cfg.exc.intra.AdaptiveNullPointerAnalysis} hence escalates.
+ */
+public class PhiDereference {
+
+  public static int testPhi(boolean unknown, B b1) {
+    final B b = unknown ? b1 : null;
+    return b.f;
+  }
+}
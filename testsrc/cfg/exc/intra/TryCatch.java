@@ -0,0 +1,26 @@
+/**
+ * This file is part of the Joana IFC project. It is developed at the
+ * Programming Paradigms Group of the Karlsruhe Institute of Technology.
+ *
+ * For further details on licensing please read the information at
+ * http://joana.ipd.kit.edu or contact the authors.
+ */
+package cfg.exc.intra;
+
+import org.eclipse.jdt.annotation.NonNull;
+
+/**
+ * Handlers reached by the exceptional edges of invokes, which may throw whether or not their receiver is null.
+ */
+public class TryCatch {
+
+  public static B testCatch(@NonNull B b1, B b2) {
+    try {
+      b1.hashCode();
+      b2.hashCode();
+    } catch (RuntimeException e) {
+      return b1;
+    }
+    return b2;
+  }
+}